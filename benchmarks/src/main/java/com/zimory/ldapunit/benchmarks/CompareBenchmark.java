@@ -0,0 +1,39 @@
+package com.zimory.ldapunit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the contents of a server holding the generated data set against the generated LDIF, which match.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class CompareBenchmark {
+
+    @Setup(Level.Trial)
+    public void setUp(final GeneratedDirectory directory) throws IOException {
+        directory.getAccess().importLdif(directory.getLdif());
+    }
+
+    @Benchmark
+    public void compareContents(final GeneratedDirectory directory) throws IOException {
+        directory.getAccess().compareContents(directory.getLdif());
+    }
+
+}
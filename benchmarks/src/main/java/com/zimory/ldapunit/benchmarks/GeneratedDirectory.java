@@ -0,0 +1,145 @@
+package com.zimory.ldapunit.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+import com.google.common.io.InputSupplier;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.zimory.ldapunit.core.InMemoryDirectoryServerAccess;
+import com.zimory.ldapunit.core.LdapWatcher;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A generated data set of {@link #entryCount} person entries with {@link #attributeCount} attributes each, along with
+ * an in-memory server to import it into. The data set is written to the {@code generated} directory under
+ * {@link LdapWatcher#LDIF_DIR} on the classpath so that the {@link LdapWatcher} can resolve it, and reused by
+ * subsequent runs.
+ */
+@State(Scope.Benchmark)
+public class GeneratedDirectory {
+
+    public static final String ROOT_CONTEXT_DN = "dc=example,dc=com";
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int entryCount;
+
+    @Param({"5", "25"})
+    public int attributeCount;
+
+    private File ldif;
+    private InMemoryDirectoryServer server;
+    private InMemoryDirectoryServerAccess access;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, LDAPException {
+        ldif = new File(getLdifDir(), getRelativePath() + ".ldif");
+
+        if (!ldif.isFile()) {
+            generate(ldif, entryCount, attributeCount);
+        }
+
+        final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(ROOT_CONTEXT_DN);
+        cfg.setSchema(null);
+
+        InMemoryDirectoryServerAccess.installChangeTracker(cfg);
+
+        server = new InMemoryDirectoryServer(cfg);
+        access = new InMemoryDirectoryServerAccess(server, ROOT_CONTEXT_DN);
+
+        clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.shutDown(true);
+    }
+
+    /**
+     * Removes all the entries from the server except for the root context entry.
+     */
+    public void clear() throws LDAPException {
+        server.clear();
+        server.addEntries(
+                "dn: " + ROOT_CONTEXT_DN,
+                "objectClass: top",
+                "objectClass: domain",
+                "dc: example");
+    }
+
+    public InMemoryDirectoryServer getServer() {
+        return server;
+    }
+
+    public InMemoryDirectoryServerAccess getAccess() {
+        return access;
+    }
+
+    public InputSupplier<? extends InputStream> getLdif() {
+        return Files.newInputStreamSupplier(ldif);
+    }
+
+    /**
+     * @return the path of the data set relative to {@link LdapWatcher#LDIF_DIR}, without the extension
+     */
+    public String getRelativePath() {
+        return String.format("generated/%d-%d", entryCount, attributeCount);
+    }
+
+    private static File getLdifDir() {
+        try {
+            final File classpathRoot = new File(
+                    GeneratedDirectory.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+
+            Preconditions.checkState(classpathRoot.isDirectory(),
+                    "the benchmarks must be run from the class directory rather than from %s", classpathRoot);
+
+            return new File(classpathRoot, LdapWatcher.LDIF_DIR);
+        } catch (final URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void generate(final File ldif, final int entryCount, final int attributeCount)
+            throws IOException {
+        Files.createParentDirs(ldif);
+
+        final File tmp = new File(ldif.getPath() + ".tmp");
+        final Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStreamSupplier(tmp).getOutput(),
+                Charsets.UTF_8));
+
+        try {
+            out.write("dn: ou=people," + ROOT_CONTEXT_DN + "\nobjectClass: top\nobjectClass: organizationalUnit\n"
+                    + "ou: people\n");
+
+            for (int i = 0; i < entryCount; i++) {
+                out.write(String.format("\ndn: uid=user%d,ou=people,%s\n", i, ROOT_CONTEXT_DN));
+                out.write("objectClass: top\nobjectClass: person\nobjectClass: inetOrgPerson\n");
+                out.write(String.format("uid: user%d\ncn: User %d\nsn: %d\n", i, i, i));
+
+                for (int j = 0; j < attributeCount; j++) {
+                    out.write(String.format("attribute%d: value %d of user %d\n", j, j, i));
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        Files.move(tmp, ldif);
+    }
+
+}
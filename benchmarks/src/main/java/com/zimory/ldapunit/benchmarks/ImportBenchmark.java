@@ -0,0 +1,40 @@
+package com.zimory.ldapunit.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.unboundid.ldap.sdk.LDAPException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Imports the generated LDIF into an empty server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ImportBenchmark {
+
+    @Setup(Level.Invocation)
+    public void clear(final GeneratedDirectory directory) throws LDAPException {
+        directory.clear();
+    }
+
+    @Benchmark
+    public void importLdif(final GeneratedDirectory directory) throws IOException {
+        directory.getAccess().importLdif(directory.getLdif());
+    }
+
+}
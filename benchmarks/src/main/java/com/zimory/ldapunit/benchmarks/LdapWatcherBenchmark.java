@@ -0,0 +1,113 @@
+package com.zimory.ldapunit.benchmarks;
+
+import java.lang.annotation.Annotation;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.zimory.ldapunit.core.DirectoryServerAccess;
+import com.zimory.ldapunit.core.LdapWatcher;
+import com.zimory.ldapunit.core.MatchMode;
+import com.zimory.ldapunit.core.ResetMode;
+import com.zimory.ldapunit.core.ShouldMatchLdapDataSet;
+import com.zimory.ldapunit.core.UsingLdapDataSet;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs an empty test through the {@link LdapWatcher}, which imports the generated data set before the test and matches
+ * the server contents against it once the test has succeeded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class LdapWatcherBenchmark {
+
+    private static final Statement EMPTY_TEST = new Statement() {
+        @Override
+        public void evaluate() {
+        }
+    };
+
+    @Param({"NONE", "SNAPSHOT"})
+    public ResetMode resetMode;
+
+    private GeneratedDirectory directory;
+    private Statement test;
+
+    @Setup(Level.Trial)
+    public void setUp(final GeneratedDirectory directory) {
+        this.directory = directory;
+
+        final Supplier<DirectoryServerAccess> access =
+                Suppliers.<DirectoryServerAccess>ofInstance(directory.getAccess());
+        final Description description = Description.createTestDescription(LdapWatcherBenchmark.class, "test",
+                usingLdapDataSet(directory.getRelativePath()),
+                shouldMatchLdapDataSet(directory.getRelativePath(), MatchMode.FULL));
+
+        test = new LdapWatcher(access, resetMode).apply(EMPTY_TEST, description);
+    }
+
+    @Setup(Level.Invocation)
+    public void clear() throws LDAPException {
+        // snapshots restore the server contents themselves
+        if (resetMode == ResetMode.NONE) {
+            directory.clear();
+        }
+    }
+
+    @Benchmark
+    public void startingAndSucceeded() throws Throwable {
+        test.evaluate();
+    }
+
+    private static UsingLdapDataSet usingLdapDataSet(final String value) {
+        return new UsingLdapDataSet() {
+            @Override
+            public String value() {
+                return value;
+            }
+
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return UsingLdapDataSet.class;
+            }
+        };
+    }
+
+    private static ShouldMatchLdapDataSet shouldMatchLdapDataSet(final String value, final MatchMode mode) {
+        return new ShouldMatchLdapDataSet() {
+            @Override
+            public String value() {
+                return value;
+            }
+
+            @Override
+            public MatchMode mode() {
+                return mode;
+            }
+
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return ShouldMatchLdapDataSet.class;
+            }
+        };
+    }
+
+}
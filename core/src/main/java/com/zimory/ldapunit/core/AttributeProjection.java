@@ -0,0 +1,211 @@
+package com.zimory.ldapunit.core;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.unboundid.ldap.matchingrules.MatchingRule;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.util.StaticUtils;
+
+/**
+ * Determines which attributes of the entries are compared, and how. The attributes that aren't compared are left out
+ * while reading the entries from the server already: the included attributes are the only ones requested, and the
+ * excluded ones are dropped as each entry arrives, before it's copied for the comparison. The expected entries
+ * are projected the same way.
+ * <p>
+ * By default, all the user attributes are compared, but none of the operational attributes the server generates.
+ * Instances are immutable.
+ */
+public final class AttributeProjection {
+
+    private static final AttributeProjection DEFAULT = new AttributeProjection(ImmutableSet.<String>of(),
+            ImmutableSet.<String>of(), false, ImmutableMap.<String, MatchingRule>of());
+
+    private final Set<String> includedAttributes;
+    private final Set<String> excludedAttributes;
+    private final boolean operationalAttributes;
+    private final Map<String, MatchingRule> matchingRules;
+
+    private AttributeProjection(final Set<String> includedAttributes, final Set<String> excludedAttributes,
+            final boolean operationalAttributes, final Map<String, MatchingRule> matchingRules) {
+        this.includedAttributes = includedAttributes;
+        this.excludedAttributes = excludedAttributes;
+        this.operationalAttributes = operationalAttributes;
+        this.matchingRules = matchingRules;
+    }
+
+    /**
+     * @return the projection comparing all the user attributes
+     */
+    public static AttributeProjection defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param names the names of the only attributes to compare, which may include operational ones
+     */
+    public AttributeProjection including(final String... names) {
+        return new AttributeProjection(toLowerCase(names), excludedAttributes, operationalAttributes, matchingRules);
+    }
+
+    /**
+     * @param names the names of the attributes not to compare
+     */
+    public AttributeProjection excluding(final String... names) {
+        return new AttributeProjection(includedAttributes, toLowerCase(names), operationalAttributes, matchingRules);
+    }
+
+    /**
+     * @param enabled whether to compare the operational attributes generated by the server as well
+     */
+    public AttributeProjection withOperationalAttributes(final boolean enabled) {
+        return new AttributeProjection(includedAttributes, excludedAttributes, enabled, matchingRules);
+    }
+
+    /**
+     * @param name the name of the attribute to compare using the given matching rule
+     * @param matchingRule the name or the OID of an equality matching rule, e.g. {@code caseExactMatch}
+     */
+    public AttributeProjection withMatchingRule(final String name, final String matchingRule) {
+        Preconditions.checkNotNull(name, "name cannot be null");
+        Preconditions.checkNotNull(matchingRule, "matchingRule cannot be null");
+
+        final Map<String, MatchingRule> rules = Maps.newHashMap(matchingRules);
+        rules.put(StaticUtils.toLowerCase(name), MatchingRule.selectEqualityMatchingRule(matchingRule));
+
+        return new AttributeProjection(includedAttributes, excludedAttributes, operationalAttributes,
+                ImmutableMap.copyOf(rules));
+    }
+
+    /**
+     * @return the attributes to request when searching for the entries to compare
+     */
+    String[] getRequestedAttributes() {
+        if (!includedAttributes.isEmpty()) {
+            return includedAttributes.toArray(new String[includedAttributes.size()]);
+        }
+
+        if (operationalAttributes) {
+            return new String[] { SearchRequest.ALL_USER_ATTRIBUTES, SearchRequest.ALL_OPERATIONAL_ATTRIBUTES };
+        }
+
+        return new String[] { SearchRequest.ALL_USER_ATTRIBUTES };
+    }
+
+    /**
+     * @return whether the entries are compared as they are, apart from the generated operational attributes
+     */
+    boolean isDefault() {
+        return equals(DEFAULT);
+    }
+
+    /**
+     * @return a copy of the entry with just the compared attributes, using their matching rules
+     */
+    Entry apply(final Entry entry) {
+        final List<Attribute> attributes = Lists.newArrayListWithCapacity(entry.getAttributes().size());
+
+        for (final Attribute attribute : entry.getAttributes()) {
+            final Attribute projected = apply(attribute);
+
+            if (projected != null) {
+                attributes.add(projected);
+            }
+        }
+
+        return new Entry(entry.getDN(), attributes);
+    }
+
+    /**
+     * @return the projected entries; the given list itself for the default projection
+     */
+    Collection<Entry> applyAll(final Collection<Entry> entries) {
+        if (isDefault()) {
+            return entries;
+        }
+
+        final List<Entry> projected = Lists.newArrayListWithCapacity(entries.size());
+
+        for (final Entry entry : entries) {
+            projected.add(apply(entry));
+        }
+
+        return projected;
+    }
+
+    /**
+     * @return the attribute with its matching rule, or null if it's not compared
+     */
+    private Attribute apply(final Attribute attribute) {
+        final String name = StaticUtils.toLowerCase(attribute.getBaseName());
+
+        if (includedAttributes.isEmpty()) {
+            if (excludedAttributes.contains(name) || !operationalAttributes && Entries.isGeneratedAttribute(name)) {
+                return null;
+            }
+        } else if (!includedAttributes.contains(name) || excludedAttributes.contains(name)) {
+            return null;
+        }
+
+        final MatchingRule matchingRule = matchingRules.get(name);
+
+        if (matchingRule == null || matchingRule == attribute.getMatchingRule()) {
+            return attribute;
+        }
+
+        return new Attribute(attribute.getName(), matchingRule, attribute.getRawValues());
+    }
+
+    private static Set<String> toLowerCase(final String... names) {
+        final ImmutableSet.Builder<String> lowerCaseNames = ImmutableSet.builder();
+
+        for (final String name : names) {
+            lowerCaseNames.add(StaticUtils.toLowerCase(name));
+        }
+
+        return lowerCaseNames.build();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof AttributeProjection)) {
+            return false;
+        }
+
+        final AttributeProjection other = (AttributeProjection) o;
+        return includedAttributes.equals(other.includedAttributes)
+                && excludedAttributes.equals(other.excludedAttributes)
+                && operationalAttributes == other.operationalAttributes
+                && matchingRules.equals(other.matchingRules);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(includedAttributes, excludedAttributes, operationalAttributes, matchingRules);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("includedAttributes", includedAttributes)
+                .add("excludedAttributes", excludedAttributes)
+                .add("operationalAttributes", operationalAttributes)
+                .add("matchingRules", matchingRules.keySet())
+                .toString();
+    }
+
+}
@@ -0,0 +1,255 @@
+package com.zimory.ldapunit.core;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.unboundid.asn1.ASN1Element;
+import com.unboundid.asn1.ASN1Exception;
+import com.unboundid.asn1.ASN1Integer;
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.asn1.ASN1Sequence;
+import com.unboundid.asn1.ASN1Set;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.ReadOnlyEntry;
+import com.unboundid.util.StaticUtils;
+
+/**
+ * A compact binary form of a data set, meant to be produced at build time (see the {@code ldapunit-maven-plugin}) so
+ * that no LDIF has to be parsed at test time. {@link LdapWatcher} prefers a compiled data set over the LDIF it was
+ * compiled from whenever one is found next to it on the classpath, with the {@link #EXTENSION} appended.
+ * <p>
+ * The file consists of:
+ * <ol>
+ *     <li>the {@link #MAGIC} number and the format {@link #VERSION};</li>
+ *     <li>the table of attribute names, each name stored once;</li>
+ *     <li>the index of the DNs of the entries along with the offsets of their attributes;</li>
+ *     <li>the attributes of each entry, BER-encoded as a sequence of (name index, set of values) sequences.</li>
+ * </ol>
+ * All numbers are big-endian {@code int}s and all strings are length-prefixed UTF-8.
+ */
+public final class BinaryDataSetFormat {
+
+    public static final String EXTENSION = ".bin";
+
+    public static final int MAGIC = 0x4c445542; // "LDUB"
+    public static final int VERSION = 1;
+
+    private BinaryDataSetFormat() {
+        throw new UnsupportedOperationException("Non-instantiable");
+    }
+
+    /**
+     * Writes the given entries in the binary format.
+     * @param entries the entries to write
+     * @param out the stream to write to, which is not closed
+     */
+    public static void write(final List<? extends Entry> entries, final OutputStream out) throws IOException {
+        final Map<String, Integer> nameIndexes = Maps.newLinkedHashMap();
+        final List<byte[]> encodedEntries = Lists.newArrayListWithCapacity(entries.size());
+
+        for (final Entry entry : entries) {
+            final List<ASN1Element> attributes = Lists.newArrayListWithCapacity(entry.getAttributes().size());
+
+            for (final Attribute attribute : entry.getAttributes()) {
+                Integer nameIndex = nameIndexes.get(attribute.getName());
+
+                if (nameIndex == null) {
+                    nameIndex = nameIndexes.size();
+                    nameIndexes.put(attribute.getName(), nameIndex);
+                }
+
+                final List<ASN1Element> values = Lists.newArrayListWithCapacity(attribute.size());
+
+                for (final byte[] value : attribute.getValueByteArrays()) {
+                    values.add(new ASN1OctetString(value));
+                }
+
+                attributes.add(new ASN1Sequence(new ASN1Integer(nameIndex), new ASN1Set(values)));
+            }
+
+            encodedEntries.add(new ASN1Sequence(attributes).encode());
+        }
+
+        final DataOutputStream data = new DataOutputStream(out);
+
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+
+        data.writeInt(nameIndexes.size());
+
+        for (final String name : nameIndexes.keySet()) {
+            writeString(data, name);
+        }
+
+        data.writeInt(entries.size());
+
+        int offset = 0;
+
+        for (int i = 0; i < entries.size(); i++) {
+            writeString(data, entries.get(i).getDN());
+            data.writeInt(offset);
+
+            offset += encodedEntries.get(i).length;
+        }
+
+        for (final byte[] encodedEntry : encodedEntries) {
+            data.write(encodedEntry);
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Reads the entries of a data set in the binary format.
+     * @param buffer the contents of the data set, e.g. mapped into memory
+     * @return an immutable list of {@link ReadOnlyEntry}s
+     */
+    public static List<Entry> read(final ByteBuffer buffer) throws IOException {
+        final Index index = Index.read(buffer);
+        final ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+
+        try {
+            for (int i = 0; i < index.dns.length; i++) {
+                entries.add(index.decodeEntry(buffer, i));
+            }
+        } catch (final ASN1Exception e) {
+            throw new IOException("Malformed compiled data set", e);
+        }
+
+        return entries.build();
+    }
+
+    /**
+     * Reads the entries of a data set in the binary format one at a time, as they're iterated, so that they don't have
+     * to be held in memory all at once. A malformed entry is reported by a {@link RuntimeException} wrapping an
+     * {@link IOException}.
+     * @param buffer the contents of the data set, e.g. mapped into memory, which must not be read from concurrently
+     * @return an iterator over {@link ReadOnlyEntry}s
+     */
+    public static Iterator<Entry> readLazily(final ByteBuffer buffer) throws IOException {
+        final Index index = Index.read(buffer);
+
+        return new AbstractIterator<Entry>() {
+            private int next;
+
+            @Override
+            protected Entry computeNext() {
+                if (next == index.dns.length) {
+                    return endOfData();
+                }
+
+                try {
+                    return index.decodeEntry(buffer, next++);
+                } catch (final ASN1Exception e) {
+                    throw new RuntimeException(new IOException("Malformed compiled data set", e));
+                }
+            }
+        };
+    }
+
+    private static Entry decodeEntry(final String dn, final byte[] encoded, final String[] names)
+            throws ASN1Exception {
+        final ASN1Element[] encodedAttributes = ASN1Sequence.decodeAsSequence(encoded).elements();
+        final List<Attribute> attributes = Lists.newArrayListWithCapacity(encodedAttributes.length);
+
+        for (final ASN1Element encodedAttribute : encodedAttributes) {
+            final ASN1Element[] elements = ASN1Sequence.decodeAsSequence(encodedAttribute).elements();
+            final ASN1Element[] encodedValues = ASN1Set.decodeAsSet(elements[1]).elements();
+            final byte[][] values = new byte[encodedValues.length][];
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = encodedValues[i].getValue();
+            }
+
+            attributes.add(new Attribute(names[ASN1Integer.decodeAsInteger(elements[0]).intValue()], values));
+        }
+
+        return new ReadOnlyEntry(dn, attributes);
+    }
+
+    private static void writeString(final DataOutputStream data, final String s) throws IOException {
+        final byte[] bytes = StaticUtils.getBytes(s);
+
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * The attribute names and the index of the DNs and offsets of the entries, which precede the encoded entries.
+     */
+    private static final class Index {
+
+        private final String[] names;
+        private final String[] dns;
+        private final int[] offsets;
+        private final int dataStart;
+
+        private Index(final String[] names, final String[] dns, final int[] offsets, final int dataStart) {
+            this.names = names;
+            this.dns = dns;
+            this.offsets = offsets;
+            this.dataStart = dataStart;
+        }
+
+        private static Index read(final ByteBuffer buffer) throws IOException {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a compiled data set");
+            }
+
+            final int version = buffer.getInt();
+
+            if (version != VERSION) {
+                throw new IOException(String.format("Unsupported version %d, expected %d", version, VERSION));
+            }
+
+            final String[] names = new String[buffer.getInt()];
+
+            for (int i = 0; i < names.length; i++) {
+                names[i] = readString(buffer);
+            }
+
+            final int entryCount = buffer.getInt();
+            final String[] dns = new String[entryCount];
+            final int[] offsets = new int[entryCount + 1];
+
+            for (int i = 0; i < entryCount; i++) {
+                dns[i] = readString(buffer);
+                offsets[i] = buffer.getInt();
+            }
+
+            final int dataStart = buffer.position();
+            offsets[entryCount] = buffer.limit() - dataStart;
+
+            return new Index(names, dns, offsets, dataStart);
+        }
+
+        private Entry decodeEntry(final ByteBuffer buffer, final int i) throws ASN1Exception {
+            final byte[] encoded = new byte[offsets[i + 1] - offsets[i]];
+
+            buffer.position(dataStart + offsets[i]);
+            buffer.get(encoded);
+
+            return BinaryDataSetFormat.decodeEntry(dns[i], encoded, names);
+        }
+
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.zimory.ldapunit.core;
+
+import java.util.Collection;
+
+import com.unboundid.ldap.sdk.DN;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that is able to delete whole subtrees of the directory server
+ * at once. Required by {@link CleanupStrategy#DELETE_ALL} and {@link CleanupStrategy#DELETE_INSERTED}.
+ */
+public interface BulkDeleteSupport {
+
+    /**
+     * Deletes all the entries below the root context, leaving the root context entry itself in place.
+     */
+    void deleteAll();
+
+    /**
+     * Deletes the entries with the given DNs along with all of their descendants, skipping the ones that don't exist.
+     * @param dns the DNs of the subtrees to delete
+     */
+    void deleteSubtrees(Collection<DN> dns);
+
+}
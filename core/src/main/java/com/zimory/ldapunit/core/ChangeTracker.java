@@ -0,0 +1,108 @@
+package com.zimory.ldapunit.core;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedAddResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedDeleteResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyDNResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPResult;
+import com.unboundid.ldap.sdk.RDN;
+import com.unboundid.ldap.sdk.ReadOnlyModifyDNRequest;
+import com.unboundid.ldap.sdk.ResultCode;
+
+/**
+ * Records the DNs of the entries successfully written through the LDAP protocol, i.e. by add, modify, delete and
+ * modify DN operations. Note that the operations invoked directly on the
+ * {@link com.unboundid.ldap.listener.InMemoryDirectoryServer} (rather than through a connection to it) bypass the
+ * interceptors and are therefore not recorded.
+ * <p>
+ * Has to be installed into the server configuration before the server is created, see
+ * {@link InMemoryDirectoryServerAccess#installChangeTracker(InMemoryDirectoryServerConfig)}.
+ */
+public final class ChangeTracker extends InMemoryOperationInterceptor {
+
+    private final Set<DN> changedDns = Sets.newSetFromMap(Maps.<DN, Boolean>newConcurrentMap());
+    private final Set<DN> movedSubtrees = Sets.newSetFromMap(Maps.<DN, Boolean>newConcurrentMap());
+
+    @Override
+    public void processAddResult(final InMemoryInterceptedAddResult add) {
+        if (isSuccess(add.getResult())) {
+            changedDns.add(parseDn(add.getRequest().getDN()));
+        }
+    }
+
+    @Override
+    public void processDeleteResult(final InMemoryInterceptedDeleteResult delete) {
+        if (isSuccess(delete.getResult())) {
+            changedDns.add(parseDn(delete.getRequest().getDN()));
+        }
+    }
+
+    @Override
+    public void processModifyResult(final InMemoryInterceptedModifyResult modify) {
+        if (isSuccess(modify.getResult())) {
+            changedDns.add(parseDn(modify.getRequest().getDN()));
+        }
+    }
+
+    @Override
+    public void processModifyDNResult(final InMemoryInterceptedModifyDNResult modifyDn) {
+        if (!isSuccess(modifyDn.getResult())) {
+            return;
+        }
+
+        final ReadOnlyModifyDNRequest request = modifyDn.getRequest();
+        final DN oldDn = parseDn(request.getDN());
+        final DN newParentDn = request.getNewSuperiorDN() == null
+                ? oldDn.getParent() : parseDn(request.getNewSuperiorDN());
+
+        try {
+            // the entry might have had subordinates, which have been moved along with it
+            movedSubtrees.add(oldDn);
+            movedSubtrees.add(new DN(new RDN(request.getNewRDN()), newParentDn));
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the DNs of the entries added, modified or deleted since the last {@link #reset()}
+     */
+    public Set<DN> getChangedDns() {
+        return ImmutableSet.copyOf(changedDns);
+    }
+
+    /**
+     * @return the DNs of the subtrees that were renamed or moved since the last {@link #reset()}, both the old and the
+     * new ones
+     */
+    public Set<DN> getMovedSubtrees() {
+        return ImmutableSet.copyOf(movedSubtrees);
+    }
+
+    public void reset() {
+        changedDns.clear();
+        movedSubtrees.clear();
+    }
+
+    private static boolean isSuccess(final LDAPResult result) {
+        return result.getResultCode() == ResultCode.SUCCESS;
+    }
+
+    private static DN parseDn(final String dn) {
+        try {
+            return new DN(dn);
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that keeps track of the entries written to the directory
+ * server. Required by {@link MatchMode#INCREMENTAL}.
+ */
+public interface ChangeTrackingSupport {
+
+    /**
+     * Forgets about the changes tracked so far; called by {@link LdapWatcher} once the data sets have been imported.
+     */
+    void resetChanges();
+
+    /**
+     * Compares the entries changed since the last {@link #resetChanges()}, as well as the ones that differ between the
+     * given baseline and the expected entries, to the contents of the server. The rest of the server is only checked
+     * for the number of entries, so untracked writes are only detected if they add or delete entries.
+     * @param baselineEntries the entries imported before the test; must not be modified
+     * @param expectedEntries the expected entries; must not be modified
+     * @throws AssertionError if the contents don't match
+     */
+    void compareChangedEntries(List<Entry> baselineEntries, List<Entry> expectedEntries);
+
+}
@@ -0,0 +1,356 @@
+package com.zimory.ldapunit.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.InputSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves data sets from the classpath of the context class loader. The {@value LdapWatcher#LDIF_DIR} directories of
+ * the classpath are scanned once per class loader, the first time a data set is resolved through it, into an index of
+ * the data sets they contain that is shared by all the instances. Data sets in directories are read by mapping their
+ * files into memory, and those in jars, e.g. in a test-jar shared by several modules, straight from the jar without
+ * being extracted.
+ * <p>
+ * Paths missing from the index, e.g. in a jar built without directory entries, are looked up through the class loader
+ * once and then indexed as well, whether they were found or not. Data sets added to the classpath once it has been
+ * indexed are therefore not found, while the contents of the indexed ones are always read anew.
+ */
+public final class ClasspathDataSetResolver implements DataSetResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClasspathDataSetResolver.class);
+
+    private static final LoadingCache<ClassLoader, Index> INDEXES = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<ClassLoader, Index>() {
+                @Override
+                public Index load(final ClassLoader classLoader) {
+                    return new Index(classLoader);
+                }
+            });
+
+    @Override
+    public DataSetResource resolve(final String path) {
+        final ClassLoader classLoader = getClassLoader();
+        return INDEXES.getUnchecked(classLoader).resolve(classLoader, path);
+    }
+
+    private static ClassLoader getClassLoader() {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader != null ? classLoader : ClasspathDataSetResolver.class.getClassLoader();
+    }
+
+    private static File toFile(final URL url) {
+        try {
+            return new File(url.toURI());
+        } catch (final URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ByteBuffer readFully(final InputSupplier<? extends InputStream> in) throws IOException {
+        return ByteBuffer.wrap(ByteStreams.toByteArray(in));
+    }
+
+    /**
+     * The data sets of a class loader by path. Doesn't reference the class loader itself, which would keep it from
+     * being collected.
+     */
+    private static final class Index {
+
+        private final ConcurrentMap<String, Optional<DataSetResource>> resources = Maps.newConcurrentMap();
+
+        private Index(final ClassLoader classLoader) {
+            final long start = System.nanoTime();
+            final Enumeration<URL> roots;
+
+            try {
+                roots = classLoader.getResources(LdapWatcher.LDIF_DIR.substring(1));
+            } catch (final IOException e) {
+                LOGGER.warn("Failed to list the data set directories of " + classLoader, e);
+                return;
+            }
+
+            while (roots.hasMoreElements()) {
+                final URL root = roots.nextElement();
+
+                try {
+                    if ("file".equals(root.getProtocol())) {
+                        indexDirectory(toFile(root), LdapWatcher.LDIF_DIR);
+                    } else if ("jar".equals(root.getProtocol())) {
+                        indexJar(((JarURLConnection) root.openConnection()).getJarFile());
+                    }
+                } catch (final IOException e) {
+                    LOGGER.warn("Failed to index the data sets in " + root, e);
+                }
+            }
+
+            LOGGER.debug("Indexed {} data sets in {} ms", resources.size(), (System.nanoTime() - start) / 1000000);
+        }
+
+        private DataSetResource resolve(final ClassLoader classLoader, final String path) {
+            Optional<DataSetResource> resource = resources.get(path);
+
+            if (resource == null) {
+                resource = Optional.fromNullable(locate(classLoader, path));
+
+                final Optional<DataSetResource> previous = resources.putIfAbsent(path, resource);
+
+                if (previous != null) {
+                    resource = previous;
+                }
+            }
+
+            return resource.orNull();
+        }
+
+        private void indexDirectory(final File directory, final String path) {
+            final File[] files = directory.listFiles();
+
+            if (files == null) {
+                return;
+            }
+
+            for (final File file : files) {
+                final String filePath = path + "/" + file.getName();
+
+                if (file.isDirectory()) {
+                    indexDirectory(file, filePath);
+                } else {
+                    resources.putIfAbsent(filePath, Optional.<DataSetResource>of(new FileResource(filePath, file)));
+                }
+            }
+        }
+
+        private void indexJar(final JarFile jar) {
+            final String prefix = LdapWatcher.LDIF_DIR.substring(1) + "/";
+
+            for (final Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+                final JarEntry entry = entries.nextElement();
+
+                if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+                    final String path = "/" + entry.getName();
+                    resources.putIfAbsent(path, Optional.<DataSetResource>of(new JarResource(path, jar, entry)));
+                }
+            }
+        }
+
+        private static DataSetResource locate(final ClassLoader classLoader, final String path) {
+            final URL url = classLoader.getResource(path.startsWith("/") ? path.substring(1) : path);
+
+            if (url == null) {
+                return null;
+            }
+
+            if ("file".equals(url.getProtocol())) {
+                return new FileResource(path, toFile(url));
+            }
+
+            if ("jar".equals(url.getProtocol())) {
+                try {
+                    final JarURLConnection connection = (JarURLConnection) url.openConnection();
+                    return new JarResource(path, connection.getJarFile(), connection.getJarEntry());
+                } catch (final IOException e) {
+                    LOGGER.warn("Failed to open " + url + ", reading it as a URL", e);
+                }
+            }
+
+            return new UrlResource(path, url);
+        }
+
+    }
+
+    /**
+     * A data set in a file, read by mapping it into memory.
+     */
+    private static final class FileResource implements DataSetResource {
+
+        private final String path;
+        private final File file;
+
+        private FileResource(final String path, final File file) {
+            this.path = path;
+            this.file = file;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public long getSize() {
+            return file.length();
+        }
+
+        @Override
+        public long getLastModified() {
+            final long lastModified = file.lastModified();
+            return lastModified > 0 ? lastModified : -1;
+        }
+
+        @Override
+        public ByteBuffer getContents() throws IOException {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+            try {
+                final FileChannel channel = raf.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
+        }
+
+        @Override
+        public InputStream getInput() throws IOException {
+            return new ByteBufferInputStream(getContents());
+        }
+
+    }
+
+    /**
+     * A data set in a jar, read from the jar without being extracted.
+     */
+    private static final class JarResource implements DataSetResource {
+
+        private final String path;
+        private final JarFile jar;
+        private final JarEntry entry;
+
+        private JarResource(final String path, final JarFile jar, final JarEntry entry) {
+            this.path = path;
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public long getSize() {
+            return entry.getSize();
+        }
+
+        @Override
+        public long getLastModified() {
+            return entry.getTime();
+        }
+
+        @Override
+        public ByteBuffer getContents() throws IOException {
+            return readFully(this);
+        }
+
+        @Override
+        public InputStream getInput() throws IOException {
+            return jar.getInputStream(entry);
+        }
+
+    }
+
+    /**
+     * A data set at a URL of any other kind.
+     */
+    private static final class UrlResource implements DataSetResource {
+
+        private final String path;
+        private final URL url;
+
+        private UrlResource(final String path, final URL url) {
+            this.path = path;
+            this.url = url;
+        }
+
+        @Override
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        public long getSize() {
+            return -1;
+        }
+
+        @Override
+        public long getLastModified() {
+            return -1;
+        }
+
+        @Override
+        public ByteBuffer getContents() throws IOException {
+            return readFully(this);
+        }
+
+        @Override
+        public InputStream getInput() throws IOException {
+            return url.openStream();
+        }
+
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
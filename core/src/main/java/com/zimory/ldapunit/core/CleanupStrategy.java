@@ -0,0 +1,42 @@
+package com.zimory.ldapunit.core;
+
+/**
+ * Determines how {@link LdapWatcher} cleans up the LDAP server after each test, see {@link LdapCleanup}.
+ */
+public enum CleanupStrategy {
+
+    /**
+     * The contents of the server are left as they are. This is the default.
+     */
+    NONE,
+
+    /**
+     * The changes made during the test are rolled back by replaying the inverse operations of everything the test
+     * wrote, which takes time proportional to what the test touched rather than to the size of the directory. The data
+     * sets imported for the test are left in place.
+     * <p>
+     * Only the writes the {@link RollbackSupport} sees are rolled back; with {@link InMemoryDirectoryServerAccess} those
+     * are the writes made through an LDAP connection, not the ones invoked directly on the
+     * {@link com.unboundid.ldap.listener.InMemoryDirectoryServer}. The rollback fails if the number of entries differs
+     * afterwards from the one before the test.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link RollbackSupport}.
+     */
+    ROLLBACK,
+
+    /**
+     * All the entries below the root context are deleted, subtree by subtree where the server supports it.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link BulkDeleteSupport}.
+     */
+    DELETE_ALL,
+
+    /**
+     * The entries imported for the test are deleted along with everything below them, leaving the rest of the server
+     * untouched.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link BulkDeleteSupport}.
+     */
+    DELETE_INSERTED
+
+}
@@ -0,0 +1,407 @@
+package com.zimory.ldapunit.core;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.matchingrules.CaseIgnoreStringMatchingRule;
+import com.unboundid.ldap.matchingrules.MatchingRule;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.util.StaticUtils;
+
+/**
+ * An order-independent digest of a set of entries, kept per subtree: every entry is hashed after being normalized the
+ * way {@link DataSetDiff} compares it, and the digest of a subtree is the sum of the hashes of all of its entries.
+ * Two sets of entries match if the digests of their roots are equal, and the entries that differ are found by only
+ * descending into the subtrees whose digests differ. As a sum, the digest is updated in place when an entry is added,
+ * changed or removed, at the cost of the depth of the entry.
+ * <p>
+ * The hashes are 128 bits wide, kept as two independent 64-bit sums. Instances are not thread-safe.
+ */
+final class ContentDigest {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /**
+     * The matching rule of the attributes of entries read without a schema, which {@link DataSetDiff} compares the
+     * values of the expected attributes with.
+     */
+    private static final MatchingRule MATCHING_RULE = CaseIgnoreStringMatchingRule.getInstance();
+
+    private static final byte DN_TAG = 0;
+    private static final byte ATTRIBUTE_TAG = 1;
+    private static final byte VALUE_TAG = 2;
+    private static final byte RAW_VALUE_TAG = 3;
+
+    /**
+     * Digests of the expected data sets, cached by the key identifying their contents (see {@link KeyedEntryList}) so
+     * that merged and generated data sets, which are new lists every time, are only digested once; absent for the data
+     * sets that can't be digested.
+     */
+    private static final Cache<String, Optional<ContentDigest>> DATA_SET_DIGESTS =
+            CacheBuilder.newBuilder().maximumSize(64).build();
+
+    private final Map<DN, Node> nodes;
+    private int size;
+
+    ContentDigest() {
+        nodes = Maps.newHashMap();
+        nodes.put(DN.NULL_DN, new Node());
+    }
+
+    private ContentDigest(final ContentDigest other) {
+        nodes = Maps.newHashMapWithExpectedSize(other.nodes.size());
+
+        for (final Map.Entry<DN, Node> e : other.nodes.entrySet()) {
+            nodes.put(e.getKey(), new Node(e.getValue()));
+        }
+
+        size = other.size;
+    }
+
+    /**
+     * @return the digest of the given data set, computed once for every key if the entries have one; null if any of its
+     * attributes has a matching rule other than the default one, in which case the entries have to be compared one by
+     * one
+     */
+    static ContentDigest forDataSet(final List<Entry> entries) {
+        final String key = KeyedEntryList.getKey(entries);
+
+        if (key == null) {
+            return digestDataSet(entries).orNull();
+        }
+
+        try {
+            return DATA_SET_DIGESTS.get(key, new Callable<Optional<ContentDigest>>() {
+                @Override
+                public Optional<ContentDigest> call() {
+                    return digestDataSet(entries);
+                }
+            }).orNull();
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static Optional<ContentDigest> digestDataSet(final List<Entry> entries) {
+        for (final Entry entry : entries) {
+            for (final Attribute attribute : entry.getAttributes()) {
+                if (attribute.getMatchingRule() != MATCHING_RULE) {
+                    return Optional.absent();
+                }
+            }
+        }
+
+        return Optional.of(of(entries));
+    }
+
+    static ContentDigest of(final Collection<? extends Entry> entries) {
+        final ContentDigest digest = new ContentDigest();
+
+        for (final Entry entry : entries) {
+            digest.put(entry);
+        }
+
+        return digest;
+    }
+
+    /**
+     * Adds the entry, replacing the one with the same DN if there is one.
+     */
+    void put(final Entry entry) {
+        final DN dn = Entries.getParsedDn(entry);
+        final Node node = getOrCreateNode(dn);
+        final long[] hash = hash(dn, entry);
+
+        if (!node.exists) {
+            node.exists = true;
+            size++;
+        }
+
+        final long high = hash[0] - node.ownHigh;
+        final long low = hash[1] - node.ownLow;
+        node.ownHigh = hash[0];
+        node.ownLow = hash[1];
+
+        addToSubtrees(dn, high, low);
+    }
+
+    /**
+     * Removes the entry with the given DN, if there is one, leaving its subordinates in place.
+     */
+    void remove(final DN dn) {
+        final Node node = nodes.get(dn);
+
+        if (node == null || !node.exists) {
+            return;
+        }
+
+        addToSubtrees(dn, -node.ownHigh, -node.ownLow);
+        node.exists = false;
+        node.ownHigh = 0;
+        node.ownLow = 0;
+        size--;
+
+        prune(dn);
+    }
+
+    /**
+     * Removes the entry with the given DN along with all of its subordinates.
+     */
+    void removeSubtree(final DN dn) {
+        final Node node = nodes.get(dn);
+
+        if (node == null || dn.isNullDN()) {
+            return;
+        }
+
+        addToSubtrees(getParent(dn), -node.subtreeHigh, -node.subtreeLow);
+
+        final Deque<DN> pending = new ArrayDeque<DN>();
+        pending.push(dn);
+
+        while (!pending.isEmpty()) {
+            final Node removed = nodes.remove(pending.pop());
+
+            if (removed.exists) {
+                size--;
+            }
+
+            if (removed.children != null) {
+                for (final DN child : removed.children) {
+                    pending.push(child);
+                }
+            }
+        }
+
+        final DN parent = getParent(dn);
+        nodes.get(parent).children.remove(dn);
+        prune(parent);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    boolean matches(final ContentDigest other) {
+        final Node root = nodes.get(DN.NULL_DN);
+        final Node otherRoot = other.nodes.get(DN.NULL_DN);
+
+        return root.subtreeHigh == otherRoot.subtreeHigh && root.subtreeLow == otherRoot.subtreeLow;
+    }
+
+    /**
+     * @return the DNs of the entries that exist on only one side or whose hashes differ, found by descending only into
+     * the subtrees whose digests differ
+     */
+    Set<DN> getDifferingDns(final ContentDigest other) {
+        final Set<DN> dns = Sets.newHashSet();
+        final Deque<DN> pending = new ArrayDeque<DN>();
+        pending.push(DN.NULL_DN);
+
+        while (!pending.isEmpty()) {
+            final DN dn = pending.pop();
+            final Node node = nodes.get(dn);
+            final Node otherNode = other.nodes.get(dn);
+
+            if (Node.subtreeEquals(node, otherNode)) {
+                continue;
+            }
+
+            if (!Node.ownEquals(node, otherNode)) {
+                dns.add(dn);
+            }
+
+            final Set<DN> children = Sets.newHashSet();
+            Node.addChildren(node, children);
+            Node.addChildren(otherNode, children);
+
+            for (final DN child : children) {
+                pending.push(child);
+            }
+        }
+
+        return dns;
+    }
+
+    ContentDigest copy() {
+        return new ContentDigest(this);
+    }
+
+    private Node getOrCreateNode(final DN dn) {
+        Node node = nodes.get(dn);
+
+        if (node == null) {
+            node = new Node();
+            nodes.put(dn, node);
+
+            final Node parent = getOrCreateNode(getParent(dn));
+
+            if (parent.children == null) {
+                parent.children = Sets.newHashSet();
+            }
+
+            parent.children.add(dn);
+        }
+
+        return node;
+    }
+
+    /**
+     * Adds the given amount to the digests of the subtree of the given DN and of all the subtrees containing it.
+     */
+    private void addToSubtrees(final DN dn, final long high, final long low) {
+        for (DN current = dn; current != null; current = current.isNullDN() ? null : getParent(current)) {
+            final Node node = nodes.get(current);
+            node.subtreeHigh += high;
+            node.subtreeLow += low;
+        }
+    }
+
+    /**
+     * Removes the nodes that neither stand for an entry nor have any children anymore, going up from the given DN.
+     */
+    private void prune(final DN dn) {
+        DN current = dn;
+
+        while (!current.isNullDN()) {
+            final Node node = nodes.get(current);
+
+            if (node.exists || node.children != null && !node.children.isEmpty()) {
+                return;
+            }
+
+            nodes.remove(current);
+
+            final DN parent = getParent(current);
+            nodes.get(parent).children.remove(current);
+            current = parent;
+        }
+    }
+
+    private static DN getParent(final DN dn) {
+        final DN parent = dn.getParent();
+        return parent == null ? DN.NULL_DN : parent;
+    }
+
+    /**
+     * Hashes the normalized DN, every attribute and every normalized value separately, summing the hashes up, so that
+     * neither the order of the attributes nor that of the values matters.
+     */
+    private static long[] hash(final DN dn, final Entry entry) {
+        final String normalizedDn = dn.toNormalizedString();
+        final long[] sum = new long[2];
+
+        add(sum, newHasher(DN_TAG, normalizedDn).hash());
+
+        for (final Attribute attribute : entry.getAttributes()) {
+            final String name = StaticUtils.toLowerCase(attribute.getName());
+            add(sum, newHasher(ATTRIBUTE_TAG, normalizedDn).putInt(name.length()).putString(name, Charsets.UTF_8)
+                    .hash());
+
+            for (final ASN1OctetString value : attribute.getRawValues()) {
+                byte tag = VALUE_TAG;
+                byte[] bytes;
+
+                try {
+                    bytes = MATCHING_RULE.normalize(value).getValue();
+                } catch (final LDAPException e) {
+                    tag = RAW_VALUE_TAG;
+                    bytes = value.getValue();
+                }
+
+                add(sum, newHasher(tag, normalizedDn).putInt(name.length()).putString(name, Charsets.UTF_8)
+                        .putInt(bytes.length).putBytes(bytes).hash());
+            }
+        }
+
+        return sum;
+    }
+
+    private static Hasher newHasher(final byte tag, final String normalizedDn) {
+        return HASH_FUNCTION.newHasher().putByte(tag).putInt(normalizedDn.length())
+                .putString(normalizedDn, Charsets.UTF_8);
+    }
+
+    private static void add(final long[] sum, final HashCode hash) {
+        final byte[] bytes = hash.asBytes();
+        sum[0] += Longs.fromBytes(bytes[0], bytes[1], bytes[2], bytes[3], bytes[4], bytes[5], bytes[6], bytes[7]);
+        sum[1] += Longs.fromBytes(bytes[8], bytes[9], bytes[10], bytes[11], bytes[12], bytes[13], bytes[14],
+                bytes[15]);
+    }
+
+    /**
+     * A DN that either stands for an entry or has descendants that do.
+     */
+    private static final class Node {
+
+        private boolean exists;
+        private long ownHigh;
+        private long ownLow;
+        private long subtreeHigh;
+        private long subtreeLow;
+        private Set<DN> children;
+
+        private Node() {
+        }
+
+        private Node(final Node other) {
+            exists = other.exists;
+            ownHigh = other.ownHigh;
+            ownLow = other.ownLow;
+            subtreeHigh = other.subtreeHigh;
+            subtreeLow = other.subtreeLow;
+            children = other.children == null ? null : Sets.newHashSet(other.children);
+        }
+
+        private static boolean subtreeEquals(final Node node, final Node other) {
+            if (node == null || other == null) {
+                return node == other;
+            }
+
+            return node.subtreeHigh == other.subtreeHigh && node.subtreeLow == other.subtreeLow;
+        }
+
+        private static boolean ownEquals(final Node node, final Node other) {
+            final boolean exists = node != null && node.exists;
+            final boolean otherExists = other != null && other.exists;
+
+            if (!exists || !otherExists) {
+                return exists == otherExists;
+            }
+
+            return node.ownHigh == other.ownHigh && node.ownLow == other.ownLow;
+        }
+
+        private static void addChildren(final Node node, final Set<DN> children) {
+            if (node != null && node.children != null) {
+                children.addAll(node.children);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.zimory.ldapunit.core;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedAddResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedDeleteResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyDNResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.DN;
+
+/**
+ * Keeps a {@link ContentDigest} of the contents of a server up to date as they're written, so that an expected data set
+ * matching them with {@link MatchMode#DIGEST} is recognized without reading a single entry. The DNs of the entries
+ * written through the LDAP protocol, as well as those of the entries imported and the subtrees deleted by
+ * {@link InMemoryDirectoryServerAccess}, are recorded as they're written, and only the recorded entries are read back
+ * to update the digest when it's needed. The digest is saved along with every snapshot taken by
+ * {@link InMemoryDirectoryServerAccess} and restored with it.
+ * <p>
+ * Any other operation invoked directly on the {@link com.unboundid.ldap.listener.InMemoryDirectoryServer} (rather than
+ * through a connection to it) bypasses the interceptors, so {@link #invalidate()} has to be called after it to have
+ * the digest computed from scratch the next time. A change of the number of entries is detected regardless.
+ * <p>
+ * Has to be installed into the server configuration before the server is created, see
+ * {@link InMemoryDirectoryServerAccess#installContentDigestTracker(InMemoryDirectoryServerConfig)}.
+ */
+public final class ContentDigestTracker extends InMemoryOperationInterceptor {
+
+    private final ChangeTracker changeTracker = new ChangeTracker();
+    private final Set<DN> writtenDns = Sets.newSetFromMap(Maps.<DN, Boolean>newConcurrentMap());
+    private final Set<DN> writtenSubtrees = Sets.newSetFromMap(Maps.<DN, Boolean>newConcurrentMap());
+    private final Map<String, ContentDigest> snapshotDigests = Maps.newHashMap();
+
+    /**
+     * The digest of the contents as of the last update, or null if it has to be computed from scratch.
+     */
+    private ContentDigest digest;
+
+    @Override
+    public void processAddResult(final InMemoryInterceptedAddResult add) {
+        changeTracker.processAddResult(add);
+    }
+
+    @Override
+    public void processDeleteResult(final InMemoryInterceptedDeleteResult delete) {
+        changeTracker.processDeleteResult(delete);
+    }
+
+    @Override
+    public void processModifyResult(final InMemoryInterceptedModifyResult modify) {
+        changeTracker.processModifyResult(modify);
+    }
+
+    @Override
+    public void processModifyDNResult(final InMemoryInterceptedModifyDNResult modifyDn) {
+        changeTracker.processModifyDNResult(modifyDn);
+    }
+
+    /**
+     * Discards the digest, e.g. after writing to the server directly, so that it's computed from scratch the next time
+     * it's needed.
+     */
+    public synchronized void invalidate() {
+        setDigest(null);
+    }
+
+    /**
+     * @return the digest as of the last update, or null if it has to be computed from scratch
+     */
+    synchronized ContentDigest getDigest() {
+        return digest;
+    }
+
+    synchronized void setDigest(final ContentDigest digest) {
+        this.digest = digest;
+        changeTracker.reset();
+        writtenDns.clear();
+        writtenSubtrees.clear();
+    }
+
+    /**
+     * Records entries written directly to the server.
+     */
+    void recordWrittenEntries(final Collection<DN> dns) {
+        writtenDns.addAll(dns);
+    }
+
+    /**
+     * Records subtrees written directly to the server as a whole, e.g. deleted.
+     */
+    void recordWrittenSubtrees(final Collection<DN> dns) {
+        writtenSubtrees.addAll(dns);
+    }
+
+    /**
+     * @return the DNs of the entries written since the digest was last set
+     */
+    Set<DN> getWrittenEntries() {
+        return ImmutableSet.copyOf(Sets.union(changeTracker.getChangedDns(), writtenDns));
+    }
+
+    /**
+     * @return the DNs of the subtrees written as a whole, i.e. renamed, moved or deleted, since the digest was last set
+     */
+    Set<DN> getWrittenSubtrees() {
+        return ImmutableSet.copyOf(Sets.union(changeTracker.getMovedSubtrees(), writtenSubtrees));
+    }
+
+    /**
+     * @param snapshotDigest the digest of the contents the snapshot holds, or null if it's not known
+     */
+    synchronized void saveSnapshot(final String key, final ContentDigest snapshotDigest) {
+        if (snapshotDigest == null) {
+            snapshotDigests.remove(key);
+        } else {
+            snapshotDigests.put(key, snapshotDigest.copy());
+        }
+    }
+
+    /**
+     * Replaces the digest by the one saved along with the given snapshot, discarding it if there is none.
+     */
+    synchronized void restoreSnapshot(final String key) {
+        final ContentDigest snapshotDigest = snapshotDigests.get(key);
+        setDigest(snapshotDigest == null ? null : snapshotDigest.copy());
+    }
+
+}
@@ -0,0 +1,268 @@
+package com.zimory.ldapunit.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.InputSupplier;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.ReadOnlyEntry;
+import com.unboundid.ldif.LDIFException;
+import com.unboundid.ldif.LDIFReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A JVM-wide cache of parsed data sets, so that a data set used by many tests is only parsed once. The cached entries
+ * are keyed by the path of the data set and the hash of its contents, meaning that a modified file is never served
+ * from the cache. The hash of a {@link DataSetResource} is only computed again once its size or modification time
+ * changes. The cache is bounded by the total number of entries it holds (see {@link #MAXIMUM_SIZE_PROPERTY}), the least
+ * recently used data sets being evicted first; a single data set may take up the whole of it.
+ */
+public final class DataSetCache {
+
+    /**
+     * The system property that can be used to override the maximum total number of entries held by the shared
+     * instance, {@value #DEFAULT_MAXIMUM_SIZE} by default.
+     */
+    public static final String MAXIMUM_SIZE_PROPERTY = "ldapunit.dataSetCache.maximumSize";
+    public static final long DEFAULT_MAXIMUM_SIZE = 200000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataSetCache.class);
+
+    private static final DataSetCache SHARED_INSTANCE =
+            new DataSetCache(Long.getLong(MAXIMUM_SIZE_PROPERTY, DEFAULT_MAXIMUM_SIZE));
+
+    private final Cache<Key, List<Entry>> cache;
+    private final ConcurrentMap<String, Stamp> stamps = Maps.newConcurrentMap();
+
+    public DataSetCache(final long maximumSize) {
+        Preconditions.checkArgument(maximumSize >= 0, "maximumSize cannot be negative");
+
+        cache = CacheBuilder.newBuilder()
+                // the maximum weight is split between the segments, which would keep large data sets from being cached
+                .concurrencyLevel(1)
+                .maximumWeight(maximumSize)
+                .weigher(new Weigher<Key, List<Entry>>() {
+                    @Override
+                    public int weigh(final Key key, final List<Entry> value) {
+                        return value.size();
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return the instance shared by all the {@link LdapWatcher}s in the JVM
+     */
+    public static DataSetCache shared() {
+        return SHARED_INSTANCE;
+    }
+
+    /**
+     * Returns the parsed entries of the given data set, parsing it only if it's not in the cache yet.
+     * @param path the path the data set was resolved from
+     * @param ldif supplier for the {@link InputStream} of the data set
+     * @return an immutable list of {@link ReadOnlyEntry}s
+     */
+    public List<Entry> getEntries(final String path, final InputSupplier<? extends InputStream> ldif)
+            throws IOException {
+        return get(new Key(path, ByteStreams.hash(ldif, Hashing.md5())), new Callable<List<Entry>>() {
+            @Override
+            public List<Entry> call() throws Exception {
+                LOGGER.debug("Parsing LDIF from '{}'", path);
+
+                final long start = Metrics.start();
+                final List<Entry> entries = readEntries(ldif);
+                Metrics.record(Phase.PARSE, path, start, entries.size(), -1);
+
+                return entries;
+            }
+        });
+    }
+
+    /**
+     * Returns the parsed entries of the given data set, parsing it only if it's not in the cache yet. Unlike
+     * {@link #getEntries(String, InputSupplier)}, the contents are only hashed again if the size or the modification
+     * time of the data set has changed.
+     * @param path the path the data set was resolved from
+     * @param resource the data set as stored
+     * @param ldif supplier for the {@link InputStream} of the data set, decompressed if the resource is compressed
+     * @return an immutable list of {@link ReadOnlyEntry}s
+     */
+    public List<Entry> getEntries(final String path, final DataSetResource resource,
+            final InputSupplier<? extends InputStream> ldif) throws IOException {
+        return get(new Key(path, hash(resource)), new Callable<List<Entry>>() {
+            @Override
+            public List<Entry> call() throws Exception {
+                LOGGER.debug("Parsing LDIF from '{}'", path);
+
+                final long start = Metrics.start();
+                final List<Entry> entries = readEntries(ldif);
+                Metrics.record(Phase.PARSE, path, start, entries.size(), resource.getSize());
+
+                return entries;
+            }
+        });
+    }
+
+    /**
+     * Returns the entries of the given data set in the {@link BinaryDataSetFormat}, reading it only if it's not in the
+     * cache yet. The contents are only hashed again if the size or the modification time of the data set has changed.
+     * @param path the path the data set was resolved from
+     * @param compiled the compiled data set
+     * @return an immutable list of {@link ReadOnlyEntry}s
+     */
+    public List<Entry> getCompiledEntries(final String path, final DataSetResource compiled) throws IOException {
+        return get(new Key(path, hash(compiled)), new Callable<List<Entry>>() {
+            @Override
+            public List<Entry> call() throws Exception {
+                LOGGER.debug("Reading compiled data set from '{}'", path);
+
+                final long start = Metrics.start();
+                final List<Entry> entries = BinaryDataSetFormat.read(compiled.getContents());
+                Metrics.record(Phase.PARSE, path, start, entries.size(), compiled.getSize());
+
+                return entries;
+            }
+        });
+    }
+
+    /**
+     * @return the hit and miss counts, among others
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+        stamps.clear();
+    }
+
+    private List<Entry> get(final Key key, final Callable<List<Entry>> loader) throws IOException {
+        try {
+            return cache.get(key, new Callable<List<Entry>>() {
+                @Override
+                public List<Entry> call() throws Exception {
+                    return new KeyedEntryList(key.toString(), loader.call());
+                }
+            });
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Hashes the contents of the resource unless they were hashed before at the same size and modification time.
+     */
+    private HashCode hash(final DataSetResource resource) throws IOException {
+        final long size = resource.getSize();
+        final long lastModified = resource.getLastModified();
+
+        if (size < 0 || lastModified < 0) {
+            return ByteStreams.hash(resource, Hashing.md5());
+        }
+
+        final Stamp stamp = stamps.get(resource.getPath());
+
+        if (stamp != null && stamp.size == size && stamp.lastModified == lastModified) {
+            return stamp.hash;
+        }
+
+        final HashCode hash = ByteStreams.hash(resource, Hashing.md5());
+        stamps.put(resource.getPath(), new Stamp(size, lastModified, hash));
+
+        return hash;
+    }
+
+    private static List<Entry> readEntries(final InputSupplier<? extends InputStream> ldif)
+            throws IOException, LDIFException {
+        final LDIFReader reader = new LDIFReader(ldif.getInput());
+
+        try {
+            final ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+
+            for (Entry entry = reader.readEntry(); entry != null; entry = reader.readEntry()) {
+                entries.add(new ReadOnlyEntry(entry));
+            }
+
+            return entries.build();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The hash of the contents of a resource along with the size and modification time they had when they were hashed.
+     */
+    private static final class Stamp {
+
+        private final long size;
+        private final long lastModified;
+        private final HashCode hash;
+
+        private Stamp(final long size, final long lastModified, final HashCode hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+    }
+
+    private static final class Key {
+
+        private final String path;
+        private final HashCode hash;
+
+        private Key(final String path, final HashCode hash) {
+            this.path = path;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return path.equals(other.path) && hash.equals(other.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(path, hash);
+        }
+
+        @Override
+        public String toString() {
+            return path + "@" + hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,595 @@
+package com.zimory.ldapunit.core;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.collect.Sets;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.util.StaticUtils;
+
+/**
+ * The differences between the expected and the actual contents of a directory server: the entries that are missing,
+ * the ones that are not expected and the ones whose attributes differ. The entries are matched by their normalized DNs,
+ * so neither side has to be sorted, and the textual report is only built when it's actually needed, i.e. when the
+ * assertion fails. The missing and changed entries are listed in the order of the expected entries, the unexpected ones
+ * in the order of the actual entries, regardless of whether the differences were computed sequentially or in parallel.
+ */
+public final class DataSetDiff {
+
+    static final Comparator<Entry> BY_DN = new Comparator<Entry>() {
+        @Override
+        public int compare(final Entry o1, final Entry o2) {
+            return Entries.getParsedDn(o1).compareTo(Entries.getParsedDn(o2));
+        }
+    };
+
+    private static final Comparator<ChangedEntry> CHANGED_BY_DN = new Comparator<ChangedEntry>() {
+        @Override
+        public int compare(final ChangedEntry o1, final ChangedEntry o2) {
+            return BY_DN.compare(o1.getExpected(), o2.getExpected());
+        }
+    };
+
+    private static final Comparator<IndexedEntry> BY_INDEX = new Comparator<IndexedEntry>() {
+        @Override
+        public int compare(final IndexedEntry o1, final IndexedEntry o2) {
+            return o1.index < o2.index ? -1 : o1.index > o2.index ? 1 : 0;
+        }
+    };
+
+    /**
+     * The minimum number of entries partitioned by a single task, below which splitting the work costs more than it
+     * saves.
+     */
+    private static final int MIN_CHUNK_SIZE = 1000;
+
+    private final List<Entry> missingEntries;
+    private final List<Entry> unexpectedEntries;
+    private final List<ChangedEntry> changedEntries;
+    private final int missingCount;
+    private final int unexpectedCount;
+    private final int changedCount;
+
+    private DataSetDiff(final Builder builder) {
+        missingEntries = ImmutableList.copyOf(builder.missingEntries);
+        unexpectedEntries = ImmutableList.copyOf(builder.unexpectedEntries);
+        changedEntries = ImmutableList.copyOf(builder.changedEntries);
+        missingCount = builder.missingCount;
+        unexpectedCount = builder.unexpectedCount;
+        changedCount = builder.changedCount;
+    }
+
+    /**
+     * Computes the differences between the given entries.
+     * @param expectedEntries the entries expected to be found on the server
+     * @param actualEntries the entries actually found on the server
+     * @return the differences, empty if the entries match
+     */
+    public static DataSetDiff compute(
+            final Collection<? extends Entry> expectedEntries, final Collection<? extends Entry> actualEntries) {
+        final Map<DN, Entry> actualByDn = Maps.newLinkedHashMap();
+
+        for (final Entry actual : actualEntries) {
+            actualByDn.put(Entries.getParsedDn(actual), actual);
+        }
+
+        final Builder builder = new Builder();
+
+        for (final Entry expected : expectedEntries) {
+            final Entry actual = actualByDn.remove(Entries.getParsedDn(expected));
+
+            if (actual == null) {
+                builder.addMissingEntry(expected);
+            } else {
+                builder.compareEntries(expected, actual);
+            }
+        }
+
+        for (final Entry unexpected : actualByDn.values()) {
+            builder.addUnexpectedEntry(unexpected);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Computes the differences between the given entries in parallel. The entries are split into partitions by the
+     * hashes of their DNs, each partition being compared separately, and the partial differences are merged back in
+     * the order of the entries, so the result is the same as that of {@link #compute(Collection, Collection)}.
+     * @param expectedEntries the entries expected to be found on the server
+     * @param actualEntries the entries actually found on the server
+     * @param executor the executor to run the comparison on
+     * @param partitionCount the number of partitions to split the entries into
+     * @return the differences, empty if the entries match
+     */
+    public static DataSetDiff compute(final Collection<? extends Entry> expectedEntries,
+            final Collection<? extends Entry> actualEntries, final ExecutorService executor, final int partitionCount) {
+        Preconditions.checkArgument(partitionCount > 0, "partitionCount must be positive");
+
+        final List<? extends Entry> expected = asRandomAccessList(expectedEntries);
+        final List<? extends Entry> actual = asRandomAccessList(actualEntries);
+
+        // first, the DNs are parsed and the entries distributed into partitions, chunk by chunk
+        final List<Future<Partitions>> expectedChunks = submitPartitioning(expected, executor, partitionCount);
+        final List<Future<Partitions>> actualChunks = submitPartitioning(actual, executor, partitionCount);
+
+        final List<Partitions> expectedPartitions = getAll(expectedChunks);
+        final List<Partitions> actualPartitions = getAll(actualChunks);
+
+        // then, the partitions are compared independently
+        final List<Future<PartialDiff>> partialDiffs = Lists.newArrayListWithCapacity(partitionCount);
+
+        for (int i = 0; i < partitionCount; i++) {
+            final int partition = i;
+
+            partialDiffs.add(executor.submit(new Callable<PartialDiff>() {
+                @Override
+                public PartialDiff call() {
+                    return comparePartition(Partitions.concat(expectedPartitions, partition),
+                            Partitions.concat(actualPartitions, partition));
+                }
+            }));
+        }
+
+        // finally, the differences are put back in the order of the entries
+        final PartialDiff merged = new PartialDiff();
+
+        for (final PartialDiff partialDiff : getAll(partialDiffs)) {
+            merged.missingEntries.addAll(partialDiff.missingEntries);
+            merged.unexpectedEntries.addAll(partialDiff.unexpectedEntries);
+            merged.changedEntries.putAll(partialDiff.changedEntries);
+        }
+
+        Collections.sort(merged.missingEntries, BY_INDEX);
+        Collections.sort(merged.unexpectedEntries, BY_INDEX);
+
+        final Builder builder = new Builder();
+
+        for (final IndexedEntry missing : merged.missingEntries) {
+            builder.addMissingEntry(missing.entry);
+        }
+
+        for (final IndexedEntry unexpected : merged.unexpectedEntries) {
+            builder.addUnexpectedEntry(unexpected.entry);
+        }
+
+        builder.changedEntries.addAll(merged.changedEntries.values());
+        builder.changedCount = merged.changedEntries.size();
+
+        return builder.build();
+    }
+
+    /**
+     * Computes the differences between the given entries in a single pass over both sides, holding only the entries
+     * currently compared in memory, along with the differences reported. Consecutive expected entries with the same DN
+     * are merged into one.
+     * @param expectedEntries the entries expected to be found on the server, sorted by DN
+     * @param actualEntries the entries actually found on the server, sorted by DN
+     * @param maxReported the maximum number of differences of each kind retained for the report; the rest are only
+     * counted
+     * @return the differences, empty if the entries match
+     */
+    public static DataSetDiff computeSorted(final Iterator<? extends Entry> expectedEntries,
+            final Iterator<? extends Entry> actualEntries, final int maxReported) {
+        Preconditions.checkArgument(maxReported > 0, "maxReported must be positive");
+
+        final PeekingIterator<? extends Entry> expectedIterator = Iterators.peekingIterator(expectedEntries);
+        final Builder builder = new Builder(maxReported);
+
+        Entry expected = nextMerged(expectedIterator);
+        Entry actual = actualEntries.hasNext() ? actualEntries.next() : null;
+
+        while (expected != null || actual != null) {
+            final int order = expected == null ? 1 : actual == null ? -1 : BY_DN.compare(expected, actual);
+
+            if (order < 0) {
+                builder.addMissingEntry(expected);
+                expected = nextMerged(expectedIterator);
+            } else if (order > 0) {
+                builder.addUnexpectedEntry(actual);
+                actual = actualEntries.hasNext() ? actualEntries.next() : null;
+            } else {
+                builder.compareEntries(expected, actual);
+                expected = nextMerged(expectedIterator);
+                actual = actualEntries.hasNext() ? actualEntries.next() : null;
+            }
+        }
+
+        return builder.build();
+    }
+
+    private static Entry nextMerged(final PeekingIterator<? extends Entry> entries) {
+        if (!entries.hasNext()) {
+            return null;
+        }
+
+        Entry entry = entries.next();
+
+        while (entries.hasNext() && BY_DN.compare(entry, entries.peek()) == 0) {
+            entry = Entry.mergeEntries(entry, entries.next());
+        }
+
+        return entry;
+    }
+
+    private static List<? extends Entry> asRandomAccessList(final Collection<? extends Entry> entries) {
+        if (entries instanceof List && entries instanceof RandomAccess) {
+            return (List<? extends Entry>) entries;
+        }
+
+        return Lists.newArrayList(entries);
+    }
+
+    private static List<Future<Partitions>> submitPartitioning(final List<? extends Entry> entries,
+            final ExecutorService executor, final int partitionCount) {
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, (entries.size() + partitionCount - 1) / partitionCount);
+        final List<Future<Partitions>> chunks = Lists.newArrayList();
+
+        for (int start = 0; start < entries.size(); start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(start + chunkSize, entries.size());
+
+            chunks.add(executor.submit(new Callable<Partitions>() {
+                @Override
+                public Partitions call() {
+                    final Partitions partitions = new Partitions(partitionCount);
+
+                    for (int i = chunkStart; i < chunkEnd; i++) {
+                        partitions.add(new IndexedEntry(i, entries.get(i)));
+                    }
+
+                    return partitions;
+                }
+            }));
+        }
+
+        return chunks;
+    }
+
+    private static PartialDiff comparePartition(final List<IndexedEntry> expected, final List<IndexedEntry> actual) {
+        final Map<DN, IndexedEntry> actualByDn = Maps.newLinkedHashMap();
+
+        for (final IndexedEntry entry : actual) {
+            actualByDn.put(entry.dn, entry);
+        }
+
+        final PartialDiff diff = new PartialDiff();
+        final Builder builder = new Builder();
+
+        for (final IndexedEntry entry : expected) {
+            final IndexedEntry actualEntry = actualByDn.remove(entry.dn);
+
+            if (actualEntry == null) {
+                diff.missingEntries.add(entry);
+            } else {
+                final int changedCount = builder.changedEntries.size();
+                builder.compareEntries(entry.entry, actualEntry.entry);
+
+                if (builder.changedEntries.size() > changedCount) {
+                    diff.changedEntries.put(entry.index, builder.changedEntries.get(changedCount));
+                }
+            }
+        }
+
+        diff.unexpectedEntries.addAll(actualByDn.values());
+
+        return diff;
+    }
+
+    private static <T> List<T> getAll(final List<Future<T>> futures) {
+        final List<T> results = Lists.newArrayListWithCapacity(futures.size());
+
+        try {
+            for (final Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            for (final Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+
+    public List<Entry> getMissingEntries() {
+        return missingEntries;
+    }
+
+    public List<Entry> getUnexpectedEntries() {
+        return unexpectedEntries;
+    }
+
+    public List<ChangedEntry> getChangedEntries() {
+        return changedEntries;
+    }
+
+    /**
+     * @return the number of missing entries, which may exceed the number of the ones listed
+     */
+    public int getMissingCount() {
+        return missingCount;
+    }
+
+    /**
+     * @return the number of unexpected entries, which may exceed the number of the ones listed
+     */
+    public int getUnexpectedCount() {
+        return unexpectedCount;
+    }
+
+    /**
+     * @return the number of changed entries, which may exceed the number of the ones listed
+     */
+    public int getChangedCount() {
+        return changedCount;
+    }
+
+    public boolean isEmpty() {
+        return missingEntries.isEmpty() && unexpectedEntries.isEmpty() && changedEntries.isEmpty();
+    }
+
+    /**
+     * @throws AssertionError describing all the differences if there are any
+     */
+    public void assertEmpty() {
+        if (!isEmpty()) {
+            throw new AssertionError(toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty()) {
+            return "LDAP contents match";
+        }
+
+        final StringBuilder sb = new StringBuilder(String.format(
+                "LDAP contents don't match: %d missing, %d unexpected and %d changed entries",
+                missingCount, unexpectedCount, changedCount));
+
+        if (missingCount + unexpectedCount + changedCount
+                > missingEntries.size() + unexpectedEntries.size() + changedEntries.size()) {
+            sb.append(String.format("%n\tOnly the first %d, %d and %d of them are listed", missingEntries.size(),
+                    unexpectedEntries.size(), changedEntries.size()));
+        }
+
+        appendEntries(sb, "Missing entries", missingEntries);
+        appendEntries(sb, "Unexpected entries", unexpectedEntries);
+
+        if (!changedEntries.isEmpty()) {
+            sb.append(String.format("%n\tChanged entries:"));
+
+            final List<ChangedEntry> sorted = Lists.newArrayList(changedEntries);
+            Collections.sort(sorted, CHANGED_BY_DN);
+
+            for (final ChangedEntry changed : sorted) {
+                changed.appendTo(sb);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static void appendEntries(final StringBuilder sb, final String title, final List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        sb.append(String.format("%n\t%s:", title));
+
+        final List<Entry> sorted = Lists.newArrayList(entries);
+        Collections.sort(sorted, BY_DN);
+
+        for (final Entry entry : sorted) {
+            sb.append(String.format("%n\t\t%s", entry));
+        }
+    }
+
+    /**
+     * An entry that exists both in the expected and the actual contents, but with different attributes.
+     */
+    public static final class ChangedEntry {
+
+        private final Entry expected;
+        private final Entry actual;
+        private final Set<String> attributeNames;
+
+        private ChangedEntry(final Entry expected, final Entry actual, final Set<String> attributeNames) {
+            this.expected = expected;
+            this.actual = actual;
+            this.attributeNames = ImmutableSet.copyOf(attributeNames);
+        }
+
+        public Entry getExpected() {
+            return expected;
+        }
+
+        public Entry getActual() {
+            return actual;
+        }
+
+        /**
+         * @return the names of the attributes that differ
+         */
+        public Set<String> getAttributeNames() {
+            return attributeNames;
+        }
+
+        private void appendTo(final StringBuilder sb) {
+            sb.append(String.format("%n\t\t%s", expected.getDN()));
+
+            for (final String name : Sets.newTreeSet(attributeNames)) {
+                sb.append(String.format("%n\t\t\t%s: expected %s, actual %s", name,
+                        describeValues(expected.getAttribute(name)), describeValues(actual.getAttribute(name))));
+            }
+        }
+
+        private static String describeValues(final Attribute attribute) {
+            return attribute == null ? "<none>" : Lists.newArrayList(attribute.getValues()).toString();
+        }
+
+    }
+
+    private static final class IndexedEntry {
+
+        private final int index;
+        private final DN dn;
+        private final Entry entry;
+
+        private IndexedEntry(final int index, final Entry entry) {
+            this.index = index;
+            this.dn = Entries.getParsedDn(entry);
+            this.entry = entry;
+        }
+
+    }
+
+    /**
+     * The entries of a chunk of a data set, distributed into partitions by the hashes of their DNs.
+     */
+    private static final class Partitions {
+
+        private final List<List<IndexedEntry>> partitions;
+
+        private Partitions(final int partitionCount) {
+            partitions = Lists.newArrayListWithCapacity(partitionCount);
+
+            for (int i = 0; i < partitionCount; i++) {
+                partitions.add(Lists.<IndexedEntry>newArrayList());
+            }
+        }
+
+        private void add(final IndexedEntry entry) {
+            // the hash is spread, as those of similar DNs tend to only differ in the lower bits
+            final int hash = entry.dn.hashCode() * 0x9e3779b9;
+            partitions.get((hash >>> 1) % partitions.size()).add(entry);
+        }
+
+        /**
+         * @return the entries of the given partition of all the chunks, in the order of the chunks
+         */
+        private static List<IndexedEntry> concat(final List<Partitions> chunks, final int partition) {
+            final List<IndexedEntry> entries = Lists.newArrayList();
+
+            for (final Partitions chunk : chunks) {
+                entries.addAll(chunk.partitions.get(partition));
+            }
+
+            return entries;
+        }
+
+    }
+
+    private static final class PartialDiff {
+
+        private final List<IndexedEntry> missingEntries = Lists.newArrayList();
+        private final List<IndexedEntry> unexpectedEntries = Lists.newArrayList();
+        private final SortedMap<Integer, ChangedEntry> changedEntries = Maps.newTreeMap();
+
+    }
+
+    /**
+     * Collects the differences one by one.
+     */
+    static final class Builder {
+
+        private final List<Entry> missingEntries = Lists.newArrayList();
+        private final List<Entry> unexpectedEntries = Lists.newArrayList();
+        private final List<ChangedEntry> changedEntries = Lists.newArrayList();
+        private final int maxRetained;
+        private int missingCount;
+        private int unexpectedCount;
+        private int changedCount;
+
+        Builder() {
+            this(Integer.MAX_VALUE);
+        }
+
+        /**
+         * @param maxRetained the maximum number of differences of each kind retained; the rest are only counted
+         */
+        Builder(final int maxRetained) {
+            this.maxRetained = maxRetained;
+        }
+
+        Builder addMissingEntry(final Entry expected) {
+            if (missingCount++ < maxRetained) {
+                missingEntries.add(expected);
+            }
+
+            return this;
+        }
+
+        Builder addUnexpectedEntry(final Entry actual) {
+            if (unexpectedCount++ < maxRetained) {
+                unexpectedEntries.add(actual);
+            }
+
+            return this;
+        }
+
+        /**
+         * Compares the attributes of two entries with the same DN, recording them as changed if they differ.
+         */
+        Builder compareEntries(final Entry expected, final Entry actual) {
+            Set<String> attributeNames = null;
+
+            for (final Attribute expectedAttribute : expected.getAttributes()) {
+                if (!expectedAttribute.equals(actual.getAttribute(expectedAttribute.getName()))) {
+                    attributeNames = addName(attributeNames, expectedAttribute);
+                }
+            }
+
+            for (final Attribute actualAttribute : actual.getAttributes()) {
+                if (!expected.hasAttribute(actualAttribute.getName())) {
+                    attributeNames = addName(attributeNames, actualAttribute);
+                }
+            }
+
+            if (attributeNames != null && changedCount++ < maxRetained) {
+                changedEntries.add(new ChangedEntry(expected, actual, attributeNames));
+            }
+
+            return this;
+        }
+
+        DataSetDiff build() {
+            return new DataSetDiff(this);
+        }
+
+        private static Set<String> addName(final Set<String> attributeNames, final Attribute attribute) {
+            final Set<String> names = attributeNames == null ? Sets.<String>newHashSet() : attributeNames;
+            names.add(StaticUtils.toLowerCase(attribute.getName()));
+            return names;
+        }
+
+    }
+
+}
@@ -0,0 +1,247 @@
+package com.zimory.ldapunit.core;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.RDN;
+import com.unboundid.ldap.sdk.ReadOnlyEntry;
+
+/**
+ * Deterministically generates a data set of a given number of entries below a base DN. The entries form a tree in
+ * which every entry has at most {@code fanOut} children, the base entry included, and the parent of each entry comes
+ * before it. The RDN and the attributes of each entry are given as templates, in which the following placeholders are
+ * replaced:
+ * <ul>
+ *     <li>{@code {index}} with the index of the entry, starting with 0;</li>
+ *     <li>{@code {random}} with a random value, which only depends on the seed, the index of the entry and the
+ *     position of the placeholder within the templates.</li>
+ * </ul>
+ * The attributes of the RDN are added to each entry automatically. As every entry can be generated on its own, the
+ * data set is exposed as a list view that generates the entries as they're accessed, see {@link #asList()}.
+ */
+public final class DataSetGenerator {
+
+    public static final int DEFAULT_FAN_OUT = 1000;
+    public static final String DEFAULT_RDN = "cn=entry{index}";
+
+    private static final String INDEX_PLACEHOLDER = "{index}";
+    private static final String RANDOM_PLACEHOLDER = "{random}";
+
+    private final String baseDn;
+    private final int entryCount;
+    private final int fanOut;
+    private final String rdn;
+    private final List<String> attributes;
+    private final long seed;
+
+    public DataSetGenerator(final String baseDn, final int entryCount, final int fanOut, final String rdn,
+            final List<String> attributes, final long seed) {
+        Preconditions.checkArgument(entryCount >= 0, "entryCount cannot be negative");
+        Preconditions.checkArgument(fanOut >= 2, "fanOut must be at least 2");
+        Preconditions.checkArgument(rdn.contains(INDEX_PLACEHOLDER), "rdn must contain %s", INDEX_PLACEHOLDER);
+
+        for (final String attribute : attributes) {
+            Preconditions.checkArgument(attribute.indexOf(':') > 0, "not an attribute: %s", attribute);
+        }
+
+        this.baseDn = baseDn;
+        this.entryCount = entryCount;
+        this.fanOut = fanOut;
+        this.rdn = rdn;
+        this.attributes = ImmutableList.copyOf(attributes);
+        this.seed = seed;
+    }
+
+    public static DataSetGenerator of(final UsingGeneratedDataSet a) {
+        return new DataSetGenerator(a.baseDn(), a.entryCount(), a.fanOut(), a.rdn(), Arrays.asList(a.attributes()),
+                a.seed());
+    }
+
+    public static DataSetGenerator of(final ShouldMatchGeneratedDataSet a) {
+        return new DataSetGenerator(a.baseDn(), a.entryCount(), a.fanOut(), a.rdn(), Arrays.asList(a.attributes()),
+                a.seed());
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @param index the index of the entry, from 0 (inclusive) to the entry count (exclusive)
+     * @return the entry
+     */
+    public Entry generate(final int index) {
+        Preconditions.checkElementIndex(index, entryCount);
+
+        final String entryRdn = expand(rdn, index, 0);
+        final Entry entry = new Entry(entryRdn + "," + getDn(getParent(index)));
+
+        int randomOffset = countRandomPlaceholders(rdn);
+
+        for (final String attribute : attributes) {
+            final int colon = attribute.indexOf(':');
+
+            entry.addAttribute(attribute.substring(0, colon).trim(),
+                    expand(attribute.substring(colon + 1).trim(), index, randomOffset));
+            randomOffset += countRandomPlaceholders(attribute);
+        }
+
+        try {
+            final RDN parsedRdn = new RDN(entryRdn);
+
+            for (int i = 0; i < parsedRdn.getAttributeNames().length; i++) {
+                entry.addAttribute(new Attribute(parsedRdn.getAttributeNames()[i],
+                        parsedRdn.getAttributeValues()[i]));
+            }
+        } catch (final LDAPException e) {
+            throw new IllegalArgumentException("Invalid RDN: " + entryRdn, e);
+        }
+
+        return new ReadOnlyEntry(entry);
+    }
+
+    /**
+     * @return the DNs of the entries right below the base DN, the subtrees of which hold all the other entries
+     */
+    public List<DN> getTopLevelDns() {
+        final List<DN> dns = Lists.newArrayListWithCapacity(Math.min(fanOut, entryCount));
+
+        for (int i = 0; i < Math.min(fanOut, entryCount); i++) {
+            final String dn = getDn(i);
+
+            try {
+                dns.add(new DN(dn));
+            } catch (final LDAPException e) {
+                throw new IllegalArgumentException("Invalid DN: " + dn, e);
+            }
+        }
+
+        return dns;
+    }
+
+    /**
+     * @return a list view of the data set, generating every entry as it's accessed
+     */
+    public List<Entry> asList() {
+        return new KeyedEntryList(toString(), new GeneratedList());
+    }
+
+    private String getDn(final int index) {
+        if (index < 0) {
+            return baseDn;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = index; i >= 0; i = getParent(i)) {
+            sb.append(expand(rdn, i, 0)).append(',');
+        }
+
+        return sb.append(baseDn).toString();
+    }
+
+    /**
+     * @return the index of the parent of the given entry, or -1 if it's the base entry
+     */
+    private int getParent(final int index) {
+        return index / fanOut - 1;
+    }
+
+    private String expand(final String template, final int index, final int randomOffset) {
+        final StringBuilder sb = new StringBuilder(template.length() + 16);
+        int randomIndex = randomOffset;
+        int start = 0;
+
+        for (int i = template.indexOf('{'); i >= 0; i = template.indexOf('{', start)) {
+            sb.append(template, start, i);
+
+            if (template.startsWith(INDEX_PLACEHOLDER, i)) {
+                sb.append(index);
+                start = i + INDEX_PLACEHOLDER.length();
+            } else if (template.startsWith(RANDOM_PLACEHOLDER, i)) {
+                sb.append(Long.toHexString(random(index, randomIndex++)));
+                start = i + RANDOM_PLACEHOLDER.length();
+            } else {
+                sb.append('{');
+                start = i + 1;
+            }
+        }
+
+        return sb.append(template, start, template.length()).toString();
+    }
+
+    private static int countRandomPlaceholders(final String template) {
+        int count = 0;
+
+        for (int i = template.indexOf(RANDOM_PLACEHOLDER); i >= 0; i = template.indexOf(RANDOM_PLACEHOLDER, i + 1)) {
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Mixes the seed, the index of the entry and the index of the placeholder into a well-distributed value (the
+     * finalizer of the SplitMix64 generator), so that any value can be computed without generating the preceding ones.
+     * The two indexes occupy separate halves of the mixed key, so no two placeholders share a value.
+     */
+    private long random(final int index, final int placeholderIndex) {
+        long z = seed + 0x9e3779b97f4a7c15L * (((long) index << 32 | placeholderIndex) + 1);
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof DataSetGenerator)) {
+            return false;
+        }
+
+        final DataSetGenerator other = (DataSetGenerator) o;
+        return baseDn.equals(other.baseDn) && entryCount == other.entryCount && fanOut == other.fanOut
+                && rdn.equals(other.rdn) && attributes.equals(other.attributes) && seed == other.seed;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(baseDn, entryCount, fanOut, rdn, attributes, seed);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("generated(%s,%d,%d,%s,[%s],%d)", baseDn, entryCount, fanOut, rdn,
+                Joiner.on('|').join(attributes), seed);
+    }
+
+    private final class GeneratedList extends AbstractList<Entry> implements RandomAccess {
+
+        @Override
+        public Entry get(final int index) {
+            return generate(index);
+        }
+
+        @Override
+        public int size() {
+            return entryCount;
+        }
+
+    }
+
+}
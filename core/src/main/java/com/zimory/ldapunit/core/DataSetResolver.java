@@ -0,0 +1,18 @@
+package com.zimory.ldapunit.core;
+
+/**
+ * Resolves the data sets used by the {@link LdapWatcher}s by path. All of them share the first implementation
+ * registered in {@code META-INF/services/com.zimory.ldapunit.core.DataSetResolver} (see
+ * {@link java.util.ServiceLoader}), a {@link ClasspathDataSetResolver} by default.
+ * <p>
+ * Implementations must be thread-safe, as tests may run concurrently.
+ */
+public interface DataSetResolver {
+
+    /**
+     * @param path the absolute path of the data set, e.g. {@code /ldifs/SomeIT/users.ldif}
+     * @return the data set, or null if there is none at the given path
+     */
+    DataSetResource resolve(String path);
+
+}
@@ -0,0 +1,36 @@
+package com.zimory.ldapunit.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import com.google.common.io.InputSupplier;
+
+/**
+ * A data set resolved by a {@link DataSetResolver}, either LDIF (possibly compressed, see the extensions recognized
+ * by the {@link LdapWatcher}) or compiled into the {@link BinaryDataSetFormat}. Its contents are read as stored, every
+ * time they're asked for.
+ */
+public interface DataSetResource extends InputSupplier<InputStream> {
+
+    /**
+     * @return the path the data set was resolved from
+     */
+    String getPath();
+
+    /**
+     * @return the size of the data set in bytes, as stored; -1 if it's not known
+     */
+    long getSize();
+
+    /**
+     * @return the time the data set was last modified, in milliseconds since the epoch; -1 if it's not known
+     */
+    long getLastModified();
+
+    /**
+     * @return the whole contents of the data set, mapped into memory rather than read if possible
+     */
+    ByteBuffer getContents() throws IOException;
+
+}
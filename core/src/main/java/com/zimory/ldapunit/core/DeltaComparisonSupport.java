@@ -0,0 +1,23 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+import java.util.Set;
+
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that can compare individual entries to the contents of the
+ * directory server. Required by {@link MatchMode#DELTA}.
+ */
+public interface DeltaComparisonSupport {
+
+    /**
+     * Compares the entries with the given DNs to the contents of the server, the rest of the server being ignored.
+     * @param dns the DNs of the entries to compare, including the ones expected not to exist
+     * @param expectedEntries the expected entries, all of which have one of the given DNs; must not be modified
+     * @throws AssertionError if the contents don't match
+     */
+    void compareAffectedEntries(Set<DN> dns, List<Entry> expectedEntries);
+
+}
@@ -0,0 +1,21 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that can recognize matching contents by their digest alone.
+ * Required by {@link MatchMode#DIGEST}.
+ */
+public interface DigestComparisonSupport {
+
+    /**
+     * Compares the contents of the server to the given entries by their digests, reading only the subtrees whose
+     * digests differ; falls back to comparing every entry if the digest can't be used.
+     * @param expectedEntries the expected entries; must not be modified
+     * @throws AssertionError if the contents don't match
+     */
+    void compareEntriesByDigest(List<Entry> expectedEntries);
+
+}
@@ -11,7 +11,8 @@ import com.google.common.io.InputSupplier;
 public interface DirectoryServerAccess {
 
     /**
-     * Imports the contents of the given LDIF into the directory server.
+     * Imports the contents of the given LDIF into the directory server. The LDIF, which is expected to be encoded in
+     * UTF-8, should be streamed into the server rather than read into memory at once.
      * @param ldif supplier for the {@link java.io.InputStream} of the LDIF to import
      */
     void importLdif(InputSupplier<? extends InputStream> ldif) throws IOException;
@@ -0,0 +1,93 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ReadOnlyEntry;
+import com.unboundid.util.StaticUtils;
+
+final class Entries {
+
+    /**
+     * The operational attributes the in-memory server generates for each entry, which are never part of a data set.
+     */
+    private static final Set<String> GENERATED_ATTRIBUTES = ImmutableSet.of(
+            "entrydn", "entryuuid", "subschemasubentry", "creatorsname", "createtimestamp", "modifiersname",
+            "modifytimestamp");
+
+    private Entries() {
+        throw new UnsupportedOperationException("Non-instantiable");
+    }
+
+    /**
+     * Merges the given data sets into one, combining the attributes of the entries that share the same DN. The order
+     * in which the DNs are first encountered is retained. A single data set is returned as it is, and the merged data
+     * set is keyed by the keys of the given ones if they all have one, see {@link KeyedEntryList}.
+     */
+    static List<Entry> mergeByDn(final List<? extends List<Entry>> dataSets) {
+        if (dataSets.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        if (dataSets.size() == 1) {
+            // keeps a cached data set as it is, key included
+            return dataSets.get(0);
+        }
+
+        final Map<DN, Entry> entries = Maps.newLinkedHashMap();
+        final List<String> keys = Lists.newArrayListWithCapacity(dataSets.size());
+
+        for (final List<Entry> dataSet : dataSets) {
+            keys.add(KeyedEntryList.getKey(dataSet));
+
+            for (final Entry entry : dataSet) {
+                final DN dn = getParsedDn(entry);
+                final Entry existing = entries.get(dn);
+
+                entries.put(dn, existing == null ? entry : new ReadOnlyEntry(Entry.mergeEntries(existing, entry)));
+            }
+        }
+
+        final List<Entry> merged = ImmutableList.copyOf(entries.values());
+
+        return keys.contains(null) ? merged : new KeyedEntryList(Joiner.on(';').join(keys), merged);
+    }
+
+    /**
+     * @param name the lower case base name of an attribute
+     */
+    static boolean isGeneratedAttribute(final String name) {
+        return GENERATED_ATTRIBUTES.contains(name);
+    }
+
+    static Entry withoutGeneratedAttributes(final Entry entry) {
+        final List<Attribute> attributes = Lists.newArrayListWithCapacity(entry.getAttributes().size());
+
+        for (final Attribute attribute : entry.getAttributes()) {
+            if (!GENERATED_ATTRIBUTES.contains(StaticUtils.toLowerCase(attribute.getBaseName()))) {
+                attributes.add(attribute);
+            }
+        }
+
+        return new Entry(entry.getDN(), attributes);
+    }
+
+    static DN getParsedDn(final Entry entry) {
+        try {
+            return entry.getParsedDN();
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
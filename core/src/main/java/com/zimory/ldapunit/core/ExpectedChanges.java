@@ -0,0 +1,98 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Determines which entries a test is expected to change, i.e. the ones that differ between the data sets imported
+ * before the test and the expected data sets. The result is cached by the keys of the data sets (see
+ * {@link KeyedEntryList}), so that it's only computed once for every pair of data sets without holding on to their
+ * entries; data sets without a key are compared every time.
+ */
+final class ExpectedChanges {
+
+    private static final Cache<Key, Set<DN>> CACHE = CacheBuilder.newBuilder().maximumSize(64).build();
+
+    private ExpectedChanges() {
+        throw new UnsupportedOperationException("Non-instantiable");
+    }
+
+    static Set<DN> between(final List<Entry> baselineEntries, final List<Entry> expectedEntries) {
+        final String baselineKey = KeyedEntryList.getKey(baselineEntries);
+        final String expectedKey = KeyedEntryList.getKey(expectedEntries);
+
+        if (baselineKey == null || expectedKey == null) {
+            return getDns(DataSetDiff.compute(expectedEntries, baselineEntries));
+        }
+
+        try {
+            return CACHE.get(new Key(baselineKey, expectedKey), new Callable<Set<DN>>() {
+                @Override
+                public Set<DN> call() {
+                    return getDns(DataSetDiff.compute(expectedEntries, baselineEntries));
+                }
+            });
+        } catch (final ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static Set<DN> getDns(final DataSetDiff diff) {
+        final ImmutableSet.Builder<DN> dns = ImmutableSet.builder();
+
+        for (final Entry entry : diff.getMissingEntries()) {
+            dns.add(Entries.getParsedDn(entry));
+        }
+
+        for (final Entry entry : diff.getUnexpectedEntries()) {
+            dns.add(Entries.getParsedDn(entry));
+        }
+
+        for (final DataSetDiff.ChangedEntry changed : diff.getChangedEntries()) {
+            dns.add(Entries.getParsedDn(changed.getExpected()));
+        }
+
+        return dns.build();
+    }
+
+    private static final class Key {
+
+        private final String baselineKey;
+        private final String expectedKey;
+
+        private Key(final String baselineKey, final String expectedKey) {
+            this.baselineKey = baselineKey;
+            this.expectedKey = expectedKey;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return baselineKey.equals(other.baselineKey) && expectedKey.equals(other.expectedKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(baselineKey, expectedKey);
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.zimory.ldapunit.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.RDN;
+import com.unboundid.ldif.LDIFAddChangeRecord;
+import com.unboundid.ldif.LDIFChangeRecord;
+import com.unboundid.ldif.LDIFModifyChangeRecord;
+import com.unboundid.ldif.LDIFModifyDNChangeRecord;
+
+/**
+ * The expected state of the entries affected by a list of LDIF change records, obtained by applying the changes to the
+ * entries imported before the test. Entries the changes don't touch are not part of it, so that its size depends on
+ * the changes alone. See {@link MatchMode#DELTA}.
+ */
+final class ExpectedDelta {
+
+    private final Set<DN> affectedDns;
+    private final List<Entry> expectedEntries;
+
+    private ExpectedDelta(final Set<DN> affectedDns, final List<Entry> expectedEntries) {
+        this.affectedDns = affectedDns;
+        this.expectedEntries = expectedEntries;
+    }
+
+    /**
+     * @param baselineEntries the entries imported before the test; only scanned for the affected ones
+     * @param changes the changes to apply, in order
+     * @throws IllegalArgumentException if a change can't be applied, e.g. when modifying an entry that doesn't exist
+     */
+    static ExpectedDelta apply(final Iterable<Entry> baselineEntries, final List<LDIFChangeRecord> changes) {
+        final Set<DN> dns = Sets.newHashSet();
+        final Set<DN> renamedSubtrees = Sets.newHashSet();
+
+        for (final LDIFChangeRecord change : changes) {
+            final DN dn = getParsedDn(change);
+            dns.add(dn);
+
+            if (change instanceof LDIFModifyDNChangeRecord) {
+                renamedSubtrees.add(dn);
+                dns.add(getNewDn((LDIFModifyDNChangeRecord) change));
+            }
+        }
+
+        // null values stand for entries that don't exist
+        final Map<DN, Entry> state = Maps.newLinkedHashMap();
+
+        for (final Entry entry : baselineEntries) {
+            final DN dn = Entries.getParsedDn(entry);
+
+            if (dns.contains(dn) || isInAnySubtree(dn, renamedSubtrees)) {
+                state.put(dn, entry);
+            }
+        }
+
+        for (final LDIFChangeRecord change : changes) {
+            final DN dn = getParsedDn(change);
+            final Entry current = state.get(dn);
+
+            if (change instanceof LDIFAddChangeRecord) {
+                Preconditions.checkArgument(current == null, "cannot add %s, it already exists", dn);
+                state.put(dn, ((LDIFAddChangeRecord) change).getEntryToAdd());
+            } else {
+                Preconditions.checkArgument(current != null, "cannot %s %s, it doesn't exist", change.getChangeType(),
+                        dn);
+
+                if (change instanceof LDIFModifyChangeRecord) {
+                    state.put(dn, modify(current, (LDIFModifyChangeRecord) change));
+                } else if (change instanceof LDIFModifyDNChangeRecord) {
+                    rename(state, dn, (LDIFModifyDNChangeRecord) change);
+                } else {
+                    state.put(dn, null);
+                }
+            }
+        }
+
+        final List<Entry> expectedEntries = Lists.newArrayListWithCapacity(state.size());
+
+        for (final Entry entry : state.values()) {
+            if (entry != null) {
+                expectedEntries.add(entry);
+            }
+        }
+
+        return new ExpectedDelta(ImmutableSet.copyOf(state.keySet()), ImmutableList.copyOf(expectedEntries));
+    }
+
+    /**
+     * @return the DNs of all the entries affected by the changes, including the ones expected not to exist
+     */
+    Set<DN> getAffectedDns() {
+        return affectedDns;
+    }
+
+    /**
+     * @return the affected entries that are expected to exist, in their expected state
+     */
+    List<Entry> getExpectedEntries() {
+        return expectedEntries;
+    }
+
+    private static Entry modify(final Entry entry, final LDIFModifyChangeRecord change) {
+        try {
+            return Entry.applyModifications(entry, false, change.getModifications());
+        } catch (final LDAPException e) {
+            throw new IllegalArgumentException(String.format("cannot modify %s: %s", change.getDN(),
+                    e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Moves the entry along with all of its known descendants, replacing the values of the old RDN if requested.
+     */
+    private static void rename(final Map<DN, Entry> state, final DN dn, final LDIFModifyDNChangeRecord change) {
+        final DN newDn = getNewDn(change);
+        final RDN newRdn;
+
+        try {
+            newRdn = change.getParsedNewRDN();
+        } catch (final LDAPException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        Preconditions.checkArgument(state.get(newDn) == null, "cannot rename %s to %s, it already exists", dn,
+                newDn);
+
+        final Map<DN, Entry> moved = Maps.newLinkedHashMap();
+
+        for (final Map.Entry<DN, Entry> e : state.entrySet()) {
+            if (e.getValue() != null && e.getKey().isDescendantOf(dn, true)) {
+                final DN movedDn = rebase(e.getKey(), dn, newDn);
+                moved.put(movedDn, new Entry(movedDn, e.getValue().getAttributes()));
+                e.setValue(null);
+            }
+        }
+
+        final Entry renamed = moved.get(newDn);
+
+        if (change.deleteOldRDN()) {
+            final RDN oldRdn = dn.getRDN();
+
+            for (int i = 0; i < oldRdn.getAttributeNames().length; i++) {
+                renamed.removeAttributeValue(oldRdn.getAttributeNames()[i], oldRdn.getAttributeValues()[i]);
+            }
+        }
+
+        for (int i = 0; i < newRdn.getAttributeNames().length; i++) {
+            renamed.addAttribute(newRdn.getAttributeNames()[i], newRdn.getAttributeValues()[i]);
+        }
+
+        state.putAll(moved);
+    }
+
+    private static DN rebase(final DN dn, final DN oldBase, final DN newBase) {
+        final RDN[] rdns = dn.getRDNs();
+        final int relativeLength = rdns.length - oldBase.getRDNs().length;
+
+        final List<RDN> rebased = Lists.newArrayList(Arrays.asList(rdns).subList(0, relativeLength));
+        rebased.addAll(Arrays.asList(newBase.getRDNs()));
+
+        return new DN(rebased);
+    }
+
+    private static boolean isInAnySubtree(final DN dn, final Set<DN> subtrees) {
+        for (final DN subtree : subtrees) {
+            if (dn.isDescendantOf(subtree, false)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static DN getNewDn(final LDIFModifyDNChangeRecord change) {
+        try {
+            return change.getNewDN();
+        } catch (final LDAPException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static DN getParsedDn(final LDIFChangeRecord change) {
+        try {
+            return change.getParsedDN();
+        } catch (final LDAPException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+}
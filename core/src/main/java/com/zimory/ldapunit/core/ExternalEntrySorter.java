@@ -0,0 +1,224 @@
+package com.zimory.ldapunit.core;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldif.LDIFException;
+import com.unboundid.ldif.LDIFReader;
+import com.unboundid.ldif.LDIFWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sorts entries by DN within a bounded amount of memory. The entries are buffered until their estimated size exceeds
+ * the memory budget, at which point the buffer is sorted and spilled to a temporary LDIF file as a run; the sorted
+ * entries are eventually read back by merging all the runs, along with whatever is still buffered. Runs are merged into
+ * one whenever there are too many of them to keep open at once.
+ * <p>
+ * The temporary files are deleted when the sorter is closed. Instances are not thread-safe.
+ */
+final class ExternalEntrySorter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExternalEntrySorter.class);
+
+    /**
+     * The maximum number of runs read at once, each one holding an open file and a read buffer.
+     */
+    private static final int MAX_MERGED_RUNS = 64;
+
+    /**
+     * Rough per-object overheads of the entries held in memory, which are mostly made of small objects.
+     */
+    private static final int ENTRY_OVERHEAD = 200;
+    private static final int ATTRIBUTE_OVERHEAD = 150;
+    private static final int VALUE_OVERHEAD = 50;
+
+    private final long memoryBudget;
+    private final List<Entry> buffer = Lists.newArrayList();
+    private final List<File> runs = Lists.newArrayList();
+    private final List<LDIFReader> readers = Lists.newArrayList();
+
+    private long bufferSize;
+    private int count;
+
+    /**
+     * @param memoryBudget the estimated size in bytes the buffered entries may reach before being spilled to disk
+     */
+    ExternalEntrySorter(final long memoryBudget) {
+        Preconditions.checkArgument(memoryBudget > 0, "memoryBudget must be positive");
+        this.memoryBudget = memoryBudget;
+    }
+
+    void add(final Entry entry) {
+        buffer.add(entry);
+        bufferSize += estimateSize(entry);
+        count++;
+
+        if (bufferSize > memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * @return the number of entries added
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return all the entries added, sorted by DN; entries with the same DN are returned one after the other
+     */
+    Iterator<Entry> sorted() {
+        Collections.sort(buffer, DataSetDiff.BY_DN);
+
+        if (runs.isEmpty()) {
+            return buffer.iterator();
+        }
+
+        final List<Iterator<Entry>> sources = Lists.newArrayListWithCapacity(runs.size() + 1);
+
+        for (final File run : runs) {
+            sources.add(read(run));
+        }
+
+        sources.add(buffer.iterator());
+
+        return Iterators.mergeSorted(sources, DataSetDiff.BY_DN);
+    }
+
+    /**
+     * Deletes the runs spilled to disk.
+     */
+    @Override
+    public void close() {
+        deleteRuns();
+        buffer.clear();
+    }
+
+    private void deleteRuns() {
+        for (final LDIFReader reader : readers) {
+            try {
+                reader.close();
+            } catch (final IOException e) {
+                LOGGER.warn("Failed to close run", e);
+            }
+        }
+
+        for (final File run : runs) {
+            if (!run.delete()) {
+                LOGGER.warn("Failed to delete run {}", run);
+            }
+        }
+
+        readers.clear();
+        runs.clear();
+    }
+
+    private void spill() {
+        Collections.sort(buffer, DataSetDiff.BY_DN);
+        runs.add(write(buffer.iterator()));
+
+        LOGGER.debug("Spilled {} entries ({} bytes estimated) to run #{}",
+                new Object[] { buffer.size(), bufferSize, runs.size() });
+
+        buffer.clear();
+        bufferSize = 0;
+
+        if (runs.size() == MAX_MERGED_RUNS) {
+            mergeRuns();
+        }
+    }
+
+    /**
+     * Merges all the runs into a single one.
+     */
+    private void mergeRuns() {
+        final List<Iterator<Entry>> sources = Lists.newArrayListWithCapacity(runs.size());
+
+        for (final File run : runs) {
+            sources.add(read(run));
+        }
+
+        final File merged = write(Iterators.mergeSorted(sources, DataSetDiff.BY_DN));
+        deleteRuns();
+        runs.add(merged);
+
+        LOGGER.debug("Merged {} runs into one", MAX_MERGED_RUNS);
+    }
+
+    private static File write(final Iterator<Entry> entries) {
+        try {
+            final File run = File.createTempFile("ldapunit-run-", ".ldif");
+            run.deleteOnExit();
+
+            final LDIFWriter writer = new LDIFWriter(new BufferedOutputStream(new FileOutputStream(run)));
+
+            try {
+                while (entries.hasNext()) {
+                    writer.writeEntry(entries.next());
+                }
+            } finally {
+                writer.close();
+            }
+
+            return run;
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Iterator<Entry> read(final File run) {
+        final LDIFReader reader;
+
+        try {
+            reader = new LDIFReader(run);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        readers.add(reader);
+
+        return new AbstractIterator<Entry>() {
+            @Override
+            protected Entry computeNext() {
+                try {
+                    final Entry entry = reader.readEntry();
+                    return entry != null ? entry : endOfData();
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                } catch (final LDIFException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private static long estimateSize(final Entry entry) {
+        long size = ENTRY_OVERHEAD + 4L * entry.getDN().length();
+
+        for (final Attribute attribute : entry.getAttributes()) {
+            size += ATTRIBUTE_OVERHEAD + 2L * attribute.getName().length();
+
+            for (final ASN1OctetString value : attribute.getRawValues()) {
+                size += VALUE_OVERHEAD + 3L * value.getValueLength();
+            }
+        }
+
+        return size;
+    }
+
+}
@@ -1,58 +1,174 @@
 package com.zimory.ldapunit.core;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
-import com.google.common.base.Functions;
-import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.io.InputSupplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.unboundid.ldap.listener.InMemoryDirectoryServer;
-import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerSnapshot;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.DN;
 import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
 import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchResultListener;
+import com.unboundid.ldap.sdk.SearchResultReference;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.controls.ManageDsaITRequestControl;
+import com.unboundid.ldif.LDIFException;
 import com.unboundid.ldif.LDIFReader;
-import com.unboundid.ldif.LDIFWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static org.hamcrest.Matchers.equalTo;
-import static org.junit.Assert.assertThat;
-
 /**
- * Provides access to an {@link com.unboundid.ldap.listener.InMemoryDirectoryServer}.
+ * Provides access to an {@link com.unboundid.ldap.listener.InMemoryDirectoryServer}. Instances are thread-safe, and so
+ * is the state they share, which is kept per server; tests running concurrently should still use separate servers
+ * though, e.g. by leasing them from an {@link InMemoryDirectoryServerPool}.
  */
-public class InMemoryDirectoryServerAccess implements DirectoryServerAccess {
+public class InMemoryDirectoryServerAccess implements DirectoryServerAccess, ParsedDataSetSupport, SnapshotSupport,
+        ChangeTrackingSupport, RollbackSupport, ParallelComparisonSupport, DeltaComparisonSupport, BulkDeleteSupport,
+        StreamingComparisonSupport, DigestComparisonSupport {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryDirectoryServerAccess.class);
 
+    /**
+     * Snapshots are kept per server rather than per instance, as a new instance is usually created for every test.
+     */
+    private static final ConcurrentMap<InMemoryDirectoryServer, ConcurrentMap<String, InMemoryDirectoryServerSnapshot>>
+            SNAPSHOTS = new MapMaker().weakKeys().makeMap();
+
+    private static final int PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int IMPORT_BATCH_SIZE = 1000;
+
+    private static final int COMPARISON_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int COMPARISON_PARTITIONS = COMPARISON_THREADS * 4;
+
+    /**
+     * Shared by all the instances, its daemon threads only living while there's work to do.
+     */
+    private static final ExecutorService COMPARISON_EXECUTOR = createComparisonExecutor();
+
+    private static final Filter ALL_ENTRIES_FILTER = Filter.createPresenceFilter("objectClass");
+
+    /**
+     * The number of differences of each kind reported by the streaming comparison.
+     */
+    private static final int MAX_REPORTED_DIFFERENCES = 100;
+
     private final InMemoryDirectoryServer server;
-    private final String rootContextDn;
+    private final DN rootContextDn;
+    private final AttributeProjection projection;
 
     public InMemoryDirectoryServerAccess(final InMemoryDirectoryServer server, final String rootContextDn) {
+        this(server, rootContextDn, AttributeProjection.defaults());
+    }
+
+    /**
+     * @param projection determines which attributes of the entries are compared
+     */
+    public InMemoryDirectoryServerAccess(final InMemoryDirectoryServer server, final String rootContextDn,
+            final AttributeProjection projection) {
         this.server = server;
-        this.rootContextDn = rootContextDn;
+        this.rootContextDn = parseDn(rootContextDn);
+        this.projection = Preconditions.checkNotNull(projection, "projection cannot be null");
+    }
+
+    /**
+     * Installs a {@link ChangeTracker} into the given configuration, which is required for
+     * {@link MatchMode#INCREMENTAL}. Must be called before the server is created.
+     * @param config the configuration of the server to track the changes of
+     * @return the installed tracker
+     */
+    public static ChangeTracker installChangeTracker(final InMemoryDirectoryServerConfig config) {
+        final ChangeTracker changeTracker = new ChangeTracker();
+        config.addInMemoryOperationInterceptor(changeTracker);
+
+        return changeTracker;
+    }
+
+    /**
+     * Installs an {@link UndoLog} into the given configuration, which is required for
+     * {@link CleanupStrategy#ROLLBACK}. Must be called before the server is created.
+     * @param config the configuration of the server to journal the changes of
+     * @return the installed undo log
+     */
+    public static UndoLog installUndoLog(final InMemoryDirectoryServerConfig config) {
+        final UndoLog undoLog = new UndoLog();
+        config.addInMemoryOperationInterceptor(undoLog);
+
+        return undoLog;
+    }
+
+    /**
+     * Installs a {@link ContentDigestTracker} into the given configuration, which lets {@link #compareEntriesByDigest(List)}
+     * recognize matching contents by their digest alone. Must be called before the server is created.
+     * @param config the configuration of the server to track the digest of
+     * @return the installed tracker
+     */
+    public static ContentDigestTracker installContentDigestTracker(final InMemoryDirectoryServerConfig config) {
+        final ContentDigestTracker tracker = new ContentDigestTracker();
+        config.addInMemoryOperationInterceptor(tracker);
+
+        return tracker;
     }
 
     @Override
     public void importLdif(final InputSupplier<? extends InputStream> ldif) throws IOException {
         LOGGER.debug("Importing LDIF into LDAP server");
 
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(ldif.getInput()));
-        Preconditions.checkNotNull(reader, "reader cannot be null");
+        final long start = Metrics.start();
+
+        // the reader decodes the stream as UTF-8 and parses the entries on several threads while retaining their order
+        final LDIFReader reader = new LDIFReader(ldif.getInput(), PARSE_THREADS);
 
         try {
-            server.importFromLDIF(false, new LDIFReader(reader));
+            // adding the entries one by one, as every call to addEntries() copies the whole server contents first
+            final ContentDigestTracker tracker = findInterceptor(ContentDigestTracker.class);
+            final List<DN> written = Lists.newArrayListWithCapacity(IMPORT_BATCH_SIZE);
+            int count = 0;
+
+            for (Entry entry = reader.readEntry(); entry != null; entry = reader.readEntry()) {
+                server.add(entry);
+                count++;
+
+                if (tracker != null) {
+                    written.add(Entries.getParsedDn(entry));
+
+                    if (written.size() == IMPORT_BATCH_SIZE) {
+                        tracker.recordWrittenEntries(written);
+                        written.clear();
+                    }
+                }
+            }
+
+            if (tracker != null && !written.isEmpty()) {
+                tracker.recordWrittenEntries(written);
+            }
+
+            LOGGER.debug("Imported {} entries into LDAP server", count);
+            Metrics.record(Phase.IMPORT, start, count);
+        } catch (final LDIFException e) {
+            throw new RuntimeException(e);
         } catch (final LDAPException e) {
             throw new RuntimeException(e);
         } finally {
@@ -64,106 +180,588 @@ public class InMemoryDirectoryServerAccess implements DirectoryServerAccess {
     public void compareContents(InputSupplier<? extends InputStream> expectedLdif) throws IOException {
         LOGGER.debug("Matching expected LDIF against LDAP contents");
 
-        assertEntriesMatch(readEntries(expectedLdif.getInput()), readEntriesFromServer());
+        final long start = Metrics.start();
+        final List<Entry> expectedEntries = readEntries(expectedLdif.getInput());
+        Metrics.record(Phase.PARSE, start, expectedEntries.size());
+
+        compare(expectedEntries, readEntriesFromServer());
     }
 
-    private static List<Entry> readEntries(final InputStream in) throws IOException {
+    @Override
+    public void importEntries(final List<Entry> entries) {
+        LOGGER.debug("Importing {} entries into LDAP server", entries.size());
+
+        final long start = Metrics.start();
+
         try {
-            return LDIFReader.readEntries(in);
-        } catch (final Exception e) {
+            server.addEntries(entries);
+        } catch (final LDAPException e) {
             throw new RuntimeException(e);
+        }
+
+        recordWrittenEntries(entries);
+        Metrics.record(Phase.IMPORT, start, entries.size());
+    }
+
+    @Override
+    public void compareEntries(final List<Entry> expectedEntries) {
+        LOGGER.debug("Matching {} expected entries against LDAP contents", expectedEntries.size());
+
+        compare(expectedEntries, readEntriesFromServer());
+    }
+
+    @Override
+    public void compareEntriesByDigest(final List<Entry> expectedEntries) {
+        final ContentDigestTracker tracker = findInterceptor(ContentDigestTracker.class);
+
+        if (tracker != null && projection.isDefault()) {
+            final ContentDigest expectedDigest = ContentDigest.forDataSet(expectedEntries);
+
+            if (expectedDigest != null) {
+                LOGGER.debug("Matching {} expected entries against LDAP contents by digest", expectedEntries.size());
+
+                compareDigests(expectedEntries, expectedDigest, updateDigest(tracker));
+                return;
+            }
+        }
+
+        compareEntries(expectedEntries);
+    }
+
+    @Override
+    public void compareEntriesInParallel(final List<Entry> expectedEntries) {
+        LOGGER.debug("Matching {} expected entries against LDAP contents on {} threads", expectedEntries.size(),
+                COMPARISON_THREADS);
+
+        final List<Entry> actualEntries = readEntriesFromServer();
+
+        final long start = Metrics.start();
+        final DataSetDiff diff = DataSetDiff.compute(projection.applyAll(expectedEntries), actualEntries,
+                COMPARISON_EXECUTOR, COMPARISON_PARTITIONS);
+        Metrics.record(Phase.COMPARE, start, expectedEntries.size());
+
+        diff.assertEmpty();
+    }
+
+    @Override
+    public void compareEntriesStreaming(final Iterable<? extends Entry> expectedEntries, final long memoryBudget) {
+        LOGGER.debug("Matching expected entries against LDAP contents within {} bytes", memoryBudget);
+
+        // both sides are held until they're compared, so each of them gets half of the budget
+        final ExternalEntrySorter expectedSorter = new ExternalEntrySorter(memoryBudget / 2);
+        final ExternalEntrySorter actualSorter = new ExternalEntrySorter(memoryBudget / 2);
+
+        try {
+            long start = Metrics.start();
+
+            for (final Entry entry : expectedEntries) {
+                expectedSorter.add(projection.isDefault() ? entry : projection.apply(entry));
+            }
+
+            Metrics.record(Phase.PARSE, start, expectedSorter.size());
+
+            start = Metrics.start();
+            readEntriesFromServer(actualSorter);
+            Metrics.record(Phase.EXPORT, start, actualSorter.size());
+
+            start = Metrics.start();
+            final DataSetDiff diff = DataSetDiff.computeSorted(expectedSorter.sorted(), actualSorter.sorted(),
+                    MAX_REPORTED_DIFFERENCES);
+            Metrics.record(Phase.COMPARE, start, expectedSorter.size());
+
+            diff.assertEmpty();
         } finally {
-            in.close();
+            expectedSorter.close();
+            actualSorter.close();
         }
     }
 
-    private List<Entry> readEntriesFromServer() {
+    @Override
+    public void compareAffectedEntries(final Set<DN> dns, final List<Entry> expectedEntries) {
+        LOGGER.debug("Matching {} affected entries against LDAP contents", dns.size());
+
+        final long start = Metrics.start();
+        final List<Entry> actualEntries = Lists.newArrayListWithCapacity(dns.size());
+
+        for (final DN dn : dns) {
+            final Entry entry = getEntry(dn);
+
+            if (entry != null && !rootContextDn.equals(dn)) {
+                actualEntries.add(projection.apply(entry));
+            }
+        }
+
+        Metrics.record(Phase.EXPORT, start, actualEntries.size());
+
+        compare(expectedEntries, actualEntries);
+    }
+
+    @Override
+    public void startRecording() {
+        final UndoLog undoLog = findInterceptor(UndoLog.class);
+        Preconditions.checkState(undoLog != null, "no undo log installed, see installUndoLog()");
+
+        undoLog.start(server);
+    }
+
+    @Override
+    public void rollback() {
+        final UndoLog undoLog = findInterceptor(UndoLog.class);
+        Preconditions.checkState(undoLog != null, "no undo log installed, see installUndoLog()");
+
+        final long start = Metrics.start();
+
         try {
-            final ByteArrayOutputStream out = new ByteArrayOutputStream();
-            server.exportToLDIF(new LDIFWriter(out), true, true, true);
+            undoLog.rollback();
+        } finally {
+            // the undo log writes to the server directly
+            final ContentDigestTracker tracker = findInterceptor(ContentDigestTracker.class);
 
-            return withoutRootContextEntry(LDIFReader.readEntries(new ByteArrayInputStream(out.toByteArray())));
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
+            if (tracker != null) {
+                tracker.invalidate();
+            }
+        }
+
+        Metrics.record(Phase.RESET, start, -1);
+    }
+
+    @Override
+    public void resetChanges() {
+        final ChangeTracker changeTracker = findInterceptor(ChangeTracker.class);
+
+        if (changeTracker != null) {
+            changeTracker.reset();
         }
     }
 
-    private static void assertEntriesMatch(final List<Entry> expectedEntries, final List<Entry> actualEntries) {
-        sortEntries(expectedEntries);
-        sortEntries(actualEntries);
+    @Override
+    public void compareChangedEntries(final List<Entry> baselineEntries, final List<Entry> expectedEntries) {
+        final ChangeTracker changeTracker = findInterceptor(ChangeTracker.class);
+        Preconditions.checkState(changeTracker != null, "no change tracker installed, see installChangeTracker()");
 
-        final int actualSize = actualEntries.size();
-        final int expectedSize = expectedEntries.size();
+        final Set<DN> changedDns = Sets.newHashSet(changeTracker.getChangedDns());
+        changedDns.addAll(ExpectedChanges.between(baselineEntries, expectedEntries));
 
-        assertThat(String.format("Number of entries differs: %n" +
-                "\tExpected entries: %n\t\t%s%n" +
-                "\tActual entries: %n\t\t%s",
-                Joiner.on("\n\t\t").join(Lists.transform(expectedEntries, Functions.toStringFunction())),
-                Joiner.on("\n\t\t").join(Lists.transform(actualEntries, Functions.toStringFunction()))),
-                actualSize,
-                equalTo(expectedSize));
+        final Set<DN> movedSubtrees = changeTracker.getMovedSubtrees();
 
-        for (int i = 0; i < expectedSize; i++) {
-            final Entry actual = actualEntries.get(i);
-            final Entry expected = expectedEntries.get(i);
+        LOGGER.debug("Matching {} changed entries and {} moved subtrees against LDAP contents", changedDns.size(),
+                movedSubtrees.size());
 
-            assertThat(String.format("Entries' DNs differ at index %d", i), actual.getDN(), equalTo(expected.getDN()));
+        final List<Entry> expectedChangedEntries = Lists.newArrayList();
 
-            final List<Attribute> actualAttributes = Lists.newArrayList(actual.getAttributes());
-            final List<Attribute> expectedAttributes = Lists.newArrayList(expected.getAttributes());
+        for (final Entry entry : expectedEntries) {
+            final DN dn = Entries.getParsedDn(entry);
 
-            assertAttributesMatch(i, actualAttributes, expectedAttributes);
+            if (changedDns.contains(dn) || isInAnySubtree(dn, movedSubtrees)) {
+                expectedChangedEntries.add(entry);
+            }
+        }
+
+        final long start = Metrics.start();
+        final Map<DN, Entry> actualChangedEntries = Maps.newHashMap();
+
+        for (final DN dn : changedDns) {
+            final Entry entry = getEntry(dn);
+
+            if (entry != null && !rootContextDn.equals(dn)) {
+                actualChangedEntries.put(dn, projection.apply(entry));
+            }
+        }
+
+        for (final DN subtree : movedSubtrees) {
+            for (final Entry entry : readSubtree(subtree)) {
+                actualChangedEntries.put(Entries.getParsedDn(entry), entry);
+            }
+        }
+
+        Metrics.record(Phase.EXPORT, start, actualChangedEntries.size());
+
+        compare(expectedChangedEntries, actualChangedEntries.values());
+
+        // only untracked adds and deletes are detected here; untracked modifies and renames go unnoticed
+        final int actualSize = countEntries();
+
+        if (actualSize != expectedEntries.size()) {
+            throw new AssertionError(String.format(
+                    "Number of entries differs: expected %d, actual %d; the difference is outside of the entries " +
+                    "changed through the LDAP protocol", expectedEntries.size(), actualSize));
+        }
+    }
+
+    @Override
+    public void createSnapshot(final String key) {
+        LOGGER.debug("Creating snapshot '{}'", key);
+
+        getSnapshots().put(key, server.createSnapshot());
+
+        final ContentDigestTracker tracker = findInterceptor(ContentDigestTracker.class);
+
+        if (tracker != null) {
+            // the digest is only computed from the entries as the default projection sees them
+            tracker.saveSnapshot(key, projection.isDefault() ? updateDigest(tracker) : null);
         }
     }
 
-    private static void assertAttributesMatch(
-            final int entryIdx, final List<Attribute> actualAttributes, final List<Attribute> expectedAttributes) {
-        sortAttributes(actualAttributes);
-        sortAttributes(expectedAttributes);
+    @Override
+    public boolean restoreSnapshot(final String key) {
+        final InMemoryDirectoryServerSnapshot snapshot = getSnapshots().get(key);
+
+        if (snapshot == null) {
+            return false;
+        }
 
-        final int actualSize = actualAttributes.size();
-        final int expectedSize = expectedAttributes.size();
+        LOGGER.debug("Restoring snapshot '{}'", key);
 
-        assertThat(String.format("Number of attributes differs for entry at index %d: %n" +
-                "\tExpected attributes: %s%n" +
-                "\tActual attributes: %s",
-                entryIdx,
-                actualAttributes,
-                expectedAttributes), actualSize, equalTo(expectedSize));
+        final long start = Metrics.start();
+        server.restoreSnapshot(snapshot);
+        Metrics.record(Phase.RESET, start, -1);
 
-        for (int i = 0; i < expectedSize; i++) {
-            final Attribute actualAttribute = actualAttributes.get(i);
-            final Attribute expectedAttribute = expectedAttributes.get(i);
+        final ContentDigestTracker tracker = findInterceptor(ContentDigestTracker.class);
 
-            assertThat("Attributes differ for entry at index " + entryIdx, actualAttribute, equalTo(expectedAttribute));
+        if (tracker != null) {
+            tracker.restoreSnapshot(key);
         }
+
+        return true;
     }
 
-    private static void sortEntries(final List<Entry> entries) {
-        Collections.sort(entries, new Comparator<Entry>() {
+    @Override
+    public void deleteAll() {
+        LOGGER.debug("Deleting all entries below '{}'", rootContextDn);
+
+        final List<DN> children = Lists.newArrayList();
+
+        final SearchResultListener listener = new SearchResultListener() {
+            @Override
+            public void searchEntryReturned(final SearchResultEntry searchEntry) {
+                children.add(Entries.getParsedDn(searchEntry));
+            }
+
             @Override
-            public int compare(final Entry o1, final Entry o2) {
-                return o1.getDN().compareTo(o2.getDN());
+            public void searchReferenceReturned(final SearchResultReference searchReference) {
             }
-        });
+        };
+
+        search(listener, rootContextDn, SearchScope.ONE, SearchRequest.NO_ATTRIBUTES);
+
+        deleteSubtrees(children);
     }
 
-    private static void sortAttributes(final List<Attribute> attributes) {
-        Collections.sort(attributes, new Comparator<Attribute>() {
+    /**
+     * Deletes the subtrees directly in the server, without going through the LDAP protocol, meaning that neither the
+     * {@link ChangeTracker} nor the {@link UndoLog} see the deletes.
+     */
+    @Override
+    public void deleteSubtrees(final Collection<DN> dns) {
+        final long start = Metrics.start();
+        int count = 0;
+
+        try {
+            for (final DN dn : dns) {
+                if (searchForEntry(dn, SearchRequest.NO_ATTRIBUTES) != null) {
+                    count += server.deleteSubtree(dn.toString());
+                }
+            }
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+
+        final ContentDigestTracker tracker = findInterceptor(ContentDigestTracker.class);
+
+        if (tracker != null) {
+            tracker.recordWrittenSubtrees(dns);
+        }
+
+        LOGGER.debug("Deleted {} entries in {} subtrees", count, dns.size());
+        Metrics.record(Phase.RESET, start, count);
+    }
+
+    private void compare(final Collection<Entry> expectedEntries, final Collection<Entry> actualEntries) {
+        final long start = Metrics.start();
+        final DataSetDiff diff = DataSetDiff.compute(projection.applyAll(expectedEntries), actualEntries);
+        Metrics.record(Phase.COMPARE, start, expectedEntries.size());
+
+        diff.assertEmpty();
+    }
+
+    /**
+     * Matches the digests first, only comparing the entries of the subtrees whose digests differ if they don't match.
+     */
+    private void compareDigests(final List<Entry> expectedEntries, final ContentDigest expectedDigest,
+            final ContentDigest actualDigest) {
+        final long start = Metrics.start();
+
+        if (actualDigest.matches(expectedDigest)) {
+            Metrics.record(Phase.COMPARE, start, expectedEntries.size());
+            return;
+        }
+
+        final Set<DN> dns = actualDigest.getDifferingDns(expectedDigest);
+
+        LOGGER.debug("Digests differ, matching {} differing entries against LDAP contents", dns.size());
+
+        final List<Entry> expectedDifferingEntries = Lists.newArrayList();
+
+        for (final Entry entry : expectedEntries) {
+            if (dns.contains(Entries.getParsedDn(entry))) {
+                expectedDifferingEntries.add(entry);
+            }
+        }
+
+        final List<Entry> actualDifferingEntries = Lists.newArrayListWithCapacity(dns.size());
+
+        for (final DN dn : dns) {
+            final Entry entry = getEntry(dn);
+
+            if (entry != null && !rootContextDn.equals(dn)) {
+                actualDifferingEntries.add(projection.apply(entry));
+            }
+        }
+
+        Metrics.record(Phase.EXPORT, start, actualDifferingEntries.size());
+
+        compare(expectedDifferingEntries, actualDifferingEntries);
+    }
+
+    /**
+     * Brings the digest of the tracker up to date by reading back only the entries written since it was last updated,
+     * computing it from scratch if it's not known or if the number of entries it holds is off, e.g. because of entries
+     * written directly to the server. Only called with the default projection.
+     */
+    private ContentDigest updateDigest(final ContentDigestTracker tracker) {
+        synchronized (tracker) {
+            ContentDigest digest = tracker.getDigest();
+
+            if (digest != null) {
+                final long start = Metrics.start();
+                final Set<DN> writtenDns = tracker.getWrittenEntries();
+                final Set<DN> writtenSubtrees = tracker.getWrittenSubtrees();
+
+                // entries written from now on are recorded again
+                tracker.setDigest(digest);
+
+                for (final DN subtree : writtenSubtrees) {
+                    digest.removeSubtree(subtree);
+
+                    for (final Entry entry : readSubtree(subtree)) {
+                        digest.put(entry);
+                    }
+                }
+
+                for (final DN dn : writtenDns) {
+                    final Entry entry = getEntry(dn);
+
+                    if (entry == null || rootContextDn.equals(dn)) {
+                        digest.remove(dn);
+                    } else {
+                        digest.put(projection.apply(entry));
+                    }
+                }
+
+                Metrics.record(Phase.EXPORT, start, writtenDns.size());
+            }
+
+            if (digest == null || digest.size() != countEntries()) {
+                digest = ContentDigest.of(readEntriesFromServer());
+                tracker.setDigest(digest);
+            }
+
+            return digest;
+        }
+    }
+
+    private void recordWrittenEntries(final List<Entry> entries) {
+        final ContentDigestTracker tracker = findInterceptor(ContentDigestTracker.class);
+
+        if (tracker == null) {
+            return;
+        }
+
+        final List<DN> dns = Lists.newArrayListWithCapacity(entries.size());
+
+        for (final Entry entry : entries) {
+            dns.add(Entries.getParsedDn(entry));
+        }
+
+        tracker.recordWrittenEntries(dns);
+    }
+
+    /**
+     * @return the number of entries on the server, not counting the root context entry
+     */
+    private int countEntries() {
+        return server.countEntries(false) - (getEntry(rootContextDn) != null ? 1 : 0);
+    }
+
+    private <T extends InMemoryOperationInterceptor> T findInterceptor(final Class<T> type) {
+        for (final InMemoryOperationInterceptor interceptor : server.getConfig().getOperationInterceptors()) {
+            if (type.isInstance(interceptor)) {
+                return type.cast(interceptor);
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isInAnySubtree(final DN dn, final Set<DN> subtrees) {
+        for (final DN subtree : subtrees) {
+            if (dn.isDescendantOf(subtree, true)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Entry getEntry(final DN dn) {
+        try {
+            return searchForEntry(dn, projection.getRequestedAttributes());
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Same as {@link InMemoryDirectoryServer#getEntry(String, String...)}, but returning referral entries too.
+     */
+    private Entry searchForEntry(final DN dn, final String... attributes) throws LDAPException {
+        final SearchRequest request = new SearchRequest(dn.toString(), SearchScope.BASE, ALL_ENTRIES_FILTER,
+                attributes);
+        request.addControl(new ManageDsaITRequestControl());
+
+        try {
+            return server.searchForEntry(request);
+        } catch (final LDAPSearchException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                throw e;
+            }
+
+            return null;
+        }
+    }
+
+    private ConcurrentMap<String, InMemoryDirectoryServerSnapshot> getSnapshots() {
+        final ConcurrentMap<String, InMemoryDirectoryServerSnapshot> snapshots = SNAPSHOTS.get(server);
+
+        if (snapshots != null) {
+            return snapshots;
+        }
+
+        final ConcurrentMap<String, InMemoryDirectoryServerSnapshot> newSnapshots = Maps.newConcurrentMap();
+        final ConcurrentMap<String, InMemoryDirectoryServerSnapshot> existing =
+                SNAPSHOTS.putIfAbsent(server, newSnapshots);
+
+        return existing != null ? existing : newSnapshots;
+    }
+
+    private static List<Entry> readEntries(final InputStream in) throws IOException {
+        try {
+            return LDIFReader.readEntries(in);
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the entries below all the base DNs of the server, skipping the root context entry and projecting the
+     * attributes of each entry as it's returned, without going through an intermediate LDIF export.
+     */
+    private List<Entry> readEntriesFromServer() {
+        final long start = Metrics.start();
+        final List<Entry> entries = Lists.newArrayListWithExpectedSize(server.countEntries());
+
+        for (final DN baseDn : server.getBaseDNs()) {
+            readSubtree(baseDn, entries);
+        }
+
+        Metrics.record(Phase.EXPORT, start, entries.size());
+
+        return entries;
+    }
+
+    /**
+     * Same as {@link #readEntriesFromServer()}, but handing the entries to the sorter as they're returned.
+     */
+    private void readEntriesFromServer(final ExternalEntrySorter sorter) {
+        final SearchResultListener listener = new SearchResultListener() {
+            @Override
+            public void searchEntryReturned(final SearchResultEntry searchEntry) {
+                if (!rootContextDn.equals(Entries.getParsedDn(searchEntry))) {
+                    sorter.add(projection.apply(searchEntry));
+                }
+            }
+
             @Override
-            public int compare(final Attribute o1, final Attribute o2) {
-                return o1.getName().compareTo(o2.getName());
+            public void searchReferenceReturned(final SearchResultReference searchReference) {
             }
-        });
+        };
+
+        for (final DN baseDn : server.getBaseDNs()) {
+            search(listener, baseDn, SearchScope.SUB, projection.getRequestedAttributes());
+        }
+    }
+
+    private List<Entry> readSubtree(final DN baseDn) {
+        final List<Entry> entries = Lists.newArrayList();
+        readSubtree(baseDn, entries);
+
+        return entries;
     }
 
-    private List<Entry> withoutRootContextEntry(final List<Entry> entries) {
-        return Lists.newArrayList(Iterables.filter(entries, new Predicate<Entry>() {
+    private void readSubtree(final DN baseDn, final List<Entry> entries) {
+        final SearchResultListener listener = new SearchResultListener() {
+            @Override
+            public void searchEntryReturned(final SearchResultEntry searchEntry) {
+                if (!rootContextDn.equals(Entries.getParsedDn(searchEntry))) {
+                    entries.add(projection.apply(searchEntry));
+                }
+            }
+
             @Override
-            public boolean apply(final Entry input) {
-                return !rootContextDn.equals(input.getDN());
+            public void searchReferenceReturned(final SearchResultReference searchReference) {
             }
-        }));
+        };
+
+        search(listener, baseDn, SearchScope.SUB, projection.getRequestedAttributes());
+    }
+
+    /**
+     * Searches for all the entries in the given scope, including the referral entries, which are returned as ordinary
+     * entries rather than as search references thanks to the ManageDsaIT control, just like an LDIF export would
+     * contain them. A missing base entry just yields no entries.
+     */
+    private void search(final SearchResultListener listener, final DN baseDn, final SearchScope scope,
+            final String... attributes) {
+        final SearchRequest request = new SearchRequest(listener, baseDn.toString(), scope, ALL_ENTRIES_FILTER,
+                attributes);
+        request.addControl(new ManageDsaITRequestControl());
+
+        try {
+            server.search(request);
+        } catch (final LDAPSearchException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static ExecutorService createComparisonExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(COMPARISON_THREADS, COMPARISON_THREADS, 10,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("ldapunit-compare-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    private static DN parseDn(final String dn) {
+        try {
+            return new DN(dn);
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
     }
 
 }
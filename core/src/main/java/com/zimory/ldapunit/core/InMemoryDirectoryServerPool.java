@@ -0,0 +1,156 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerSnapshot;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.LDAPException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed-size pool of isolated {@link InMemoryDirectoryServer}s, each with its own port, base DN and baseline
+ * contents, so that concurrently running tests don't interfere with each other. All the servers are created up front;
+ * a leased server is reset to its baseline contents when it's returned to the pool.
+ * <p>
+ * Use {@link PooledServer} to lease a server for the duration of a test.
+ */
+public final class InMemoryDirectoryServerPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryDirectoryServerPool.class);
+
+    private final List<InMemoryDirectoryServer> servers;
+    private final Map<InMemoryDirectoryServer, InMemoryDirectoryServerSnapshot> baselines;
+    private final BlockingQueue<InMemoryDirectoryServer> idleServers;
+
+    /**
+     * Creates the pool along with all of its servers.
+     * @param size the number of servers in the pool, e.g. the number of tests that are run concurrently
+     * @param serverFactory creates the servers
+     */
+    public InMemoryDirectoryServerPool(final int size, final ServerFactory serverFactory) {
+        Preconditions.checkArgument(size > 0, "size must be positive");
+
+        final ImmutableList.Builder<InMemoryDirectoryServer> servers = ImmutableList.builder();
+        final ImmutableMap.Builder<InMemoryDirectoryServer, InMemoryDirectoryServerSnapshot> baselines =
+                ImmutableMap.builder();
+
+        for (int i = 0; i < size; i++) {
+            final InMemoryDirectoryServer server = createServer(serverFactory, i);
+
+            servers.add(server);
+            baselines.put(server, server.createSnapshot());
+        }
+
+        this.servers = servers.build();
+        this.baselines = baselines.build();
+        this.idleServers = new LinkedBlockingQueue<InMemoryDirectoryServer>(this.servers);
+
+        LOGGER.debug("Started a pool of {} LDAP servers", size);
+    }
+
+    /**
+     * Leases a server, waiting for one to be returned to the pool if all of them are currently leased.
+     * @return the lease, to be {@link Lease#release() released} once the server is not needed anymore
+     */
+    public Lease lease() {
+        try {
+            return new Lease(idleServers.take());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Shuts all the servers in the pool down, regardless of whether they're leased or not.
+     */
+    public void shutDown() {
+        for (final InMemoryDirectoryServer server : servers) {
+            server.shutDown(true);
+        }
+    }
+
+    private static InMemoryDirectoryServer createServer(final ServerFactory serverFactory, final int index) {
+        try {
+            return serverFactory.create(index);
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates the servers of an {@link InMemoryDirectoryServerPool}.
+     */
+    public interface ServerFactory {
+
+        /**
+         * Creates a server that is ready to be used by tests, i.e. listening (e.g. on a port chosen by the system, see
+         * {@link com.unboundid.ldap.listener.InMemoryListenerConfig#createLDAPConfig(String, int)}) and populated
+         * with the baseline contents every test starts with. The first base DN of the server is considered to be the
+         * root context.
+         * @param index the index of the server in the pool, which can be used to make e.g. the base DN unique
+         * @return the new server
+         */
+        InMemoryDirectoryServer create(int index) throws LDAPException;
+
+    }
+
+    /**
+     * Exclusive access to one of the servers of the pool.
+     */
+    public final class Lease {
+
+        private final InMemoryDirectoryServer server;
+        private final DirectoryServerAccess access;
+
+        private boolean released;
+
+        private Lease(final InMemoryDirectoryServer server) {
+            this.server = server;
+            this.access = new InMemoryDirectoryServerAccess(server, getRootContextDn());
+        }
+
+        public InMemoryDirectoryServer getServer() {
+            return server;
+        }
+
+        public String getRootContextDn() {
+            return server.getBaseDNs().get(0).toString();
+        }
+
+        public DirectoryServerAccess getAccess() {
+            return access;
+        }
+
+        /**
+         * Resets the server to its baseline contents and returns it to the pool. Subsequent calls have no effect.
+         */
+        public synchronized void release() {
+            if (released) {
+                return;
+            }
+
+            released = true;
+
+            server.restoreSnapshot(baselines.get(server));
+
+            for (final InMemoryOperationInterceptor interceptor : server.getConfig().getOperationInterceptors()) {
+                if (interceptor instanceof ContentDigestTracker) {
+                    ((ContentDigestTracker) interceptor).invalidate();
+                }
+            }
+
+            idleServers.add(server);
+        }
+
+    }
+
+}
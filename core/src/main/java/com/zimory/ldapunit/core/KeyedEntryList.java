@@ -0,0 +1,36 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.google.common.collect.ForwardingList;
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * The entries of a data set along with a key identifying its contents, such as the path and the hash of an LDIF file
+ * or the parameters of a {@link DataSetGenerator}, letting the results computed from the data set be cached without
+ * holding on to the entries themselves.
+ */
+final class KeyedEntryList extends ForwardingList<Entry> implements RandomAccess {
+
+    private final String key;
+    private final List<Entry> entries;
+
+    KeyedEntryList(final String key, final List<Entry> entries) {
+        this.key = key;
+        this.entries = entries;
+    }
+
+    /**
+     * @return the key of the given entries, or null if they don't have one
+     */
+    static String getKey(final List<Entry> entries) {
+        return entries instanceof KeyedEntryList ? ((KeyedEntryList) entries).key : null;
+    }
+
+    @Override
+    protected List<Entry> delegate() {
+        return entries;
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.zimory.ldapunit.core;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link org.junit.ClassRule} importing the data set declared by a {@link UsingLdapDataSet} on the test class once
+ * for the whole class, rather than once per test. The result is kept as a snapshot, which the {@link LdapWatcher}s
+ * created by {@link #methodWatcher()} restore before every test, importing the data sets of the test on top of it:
+ *
+ * <pre>
+ *     {@literal @}UsingLdapDataSet("shared/users")
+ *     public class SomeIT {
+ *
+ *         {@literal @}ClassRule
+ *         public static LdapClassWatcher classWatcher = new LdapClassWatcher(ldapServer);
+ *
+ *         {@literal @}Rule
+ *         public LdapWatcher ldapWatcher = classWatcher.methodWatcher();
+ *
+ *         ...
+ *     }
+ * </pre>
+ * If the annotation doesn't specify the data set, it's constructed from the name of the test class, e.g.:
+ * {@code /TestClass/TestClass}. Requires the {@link DirectoryServerAccess} to implement {@link SnapshotSupport}.
+ */
+public final class LdapClassWatcher extends TestWatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapClassWatcher.class);
+
+    private static final String SNAPSHOT_KEY_PREFIX = "class:";
+
+    private final Supplier<DirectoryServerAccess> ldapServer;
+    private final List<MetricsListener> metricsListeners;
+
+    private volatile List<String> importedPaths = ImmutableList.of();
+    private volatile String snapshotKey;
+
+    /**
+     * @param metricsListeners the listeners to report the metrics of the tests to, in addition to the ones registered
+     * as services
+     */
+    public LdapClassWatcher(final Supplier<DirectoryServerAccess> ldapServer,
+            final MetricsListener... metricsListeners) {
+        this.ldapServer = ldapServer;
+        this.metricsListeners = ImmutableList.<MetricsListener>builder()
+                .addAll(LdapWatcher.DISCOVERED_METRICS_LISTENERS)
+                .add(metricsListeners)
+                .build();
+    }
+
+    /**
+     * @return a new {@link LdapWatcher} with {@link ResetMode#SNAPSHOT} resetting the server to the contents imported
+     * for the class before every test
+     */
+    public LdapWatcher methodWatcher() {
+        return new LdapWatcher(ldapServer, ResetMode.SNAPSHOT, this, metricsListeners);
+    }
+
+    @Override
+    protected void starting(final Description description) {
+        final Class<?> testClass = description.getTestClass();
+        final UsingLdapDataSet dataSet = testClass.getAnnotation(UsingLdapDataSet.class);
+
+        final List<String> relativePaths = dataSet != null
+                ? ImmutableList.of(LdapWatcher.getRelativeLdifPath(testClass, testClass.getSimpleName(), dataSet))
+                : ImmutableList.<String>of();
+        final List<String> dataSetNames = LdapWatcher.getDataSetNames(relativePaths, null);
+
+        final String key = relativePaths.isEmpty() ? LdapWatcher.BASELINE_SNAPSHOT_KEY
+                : SNAPSHOT_KEY_PREFIX + Joiner.on(',').join(dataSetNames);
+
+        LOGGER.debug("Importing {} for all the tests of {}", relativePaths, testClass.getName());
+
+        Metrics.begin(description, metricsListeners);
+        Metrics.setDataSets(dataSetNames);
+
+        try {
+            LdapWatcher.resetFromSnapshot(ldapServer.get(), LdapWatcher.BASELINE_SNAPSHOT_KEY, key, relativePaths,
+                    null);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.end();
+        }
+
+        importedPaths = relativePaths;
+        snapshotKey = key;
+    }
+
+    @Override
+    protected void finished(final Description description) {
+        importedPaths = ImmutableList.of();
+        snapshotKey = null;
+    }
+
+    /**
+     * @return the relative paths of the data sets imported for the class
+     */
+    List<String> getImportedPaths() {
+        return importedPaths;
+    }
+
+    /**
+     * @return the key of the snapshot of the contents imported for the class
+     */
+    String getSnapshotKey() {
+        Preconditions.checkState(snapshotKey != null, "%s must be used as a @ClassRule",
+                LdapClassWatcher.class.getSimpleName());
+
+        return snapshotKey;
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.zimory.ldapunit.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Selects how the LDAP server is cleaned up after the test, to be used in conjunction with {@link LdapWatcher}. Can be
+ * put on a test class, in which case it applies to all of its tests, and overridden on particular test methods:
+ *
+ * <pre>
+ *     {@literal @}LdapCleanup(CleanupStrategy.ROLLBACK)
+ *     public class SomeIT {
+ *         ...
+ *     }
+ * </pre>
+ */
+@Inherited
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface LdapCleanup {
+
+    /**
+     * @return the strategy to clean up the LDAP server with
+     */
+    CleanupStrategy value();
+
+}
@@ -0,0 +1,629 @@
+package com.zimory.ldapunit.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.InputSupplier;
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.AddRequest;
+import com.unboundid.ldap.sdk.AsyncRequestID;
+import com.unboundid.ldap.sdk.AsyncResultListener;
+import com.unboundid.ldap.sdk.Control;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.DeleteRequest;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPResult;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.RootDSE;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchResultListener;
+import com.unboundid.ldap.sdk.SearchResultReference;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.controls.ManageDsaITRequestControl;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+import com.unboundid.ldap.sdk.controls.SubtreeDeleteRequestControl;
+import com.unboundid.ldif.LDIFException;
+import com.unboundid.ldif.LDIFReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides access to any directory server over the LDAP protocol, through an {@link LDAPConnectionPool}. Entries are
+ * added asynchronously, with up to a configurable number of adds in flight at once, so that importing isn't bound by
+ * the round trip time to the server; an entry is only sent once the add of its parent has completed though. Contents
+ * are read back page by page with the simple paged results control.
+ * <p>
+ * Subtrees are deleted with the subtree delete control if the server supports it, or otherwise leaf first, the entries
+ * of each level being deleted in the same pipelined fashion as they're added.
+ * <p>
+ * The pool is not closed by this class. Its connections must not be in synchronous mode.
+ */
+public class LdapConnectionPoolAccess implements DirectoryServerAccess, ParsedDataSetSupport, DeltaComparisonSupport,
+        BulkDeleteSupport, StreamingComparisonSupport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LdapConnectionPoolAccess.class);
+
+    public static final int DEFAULT_MAX_OUTSTANDING_ADDS = 64;
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private static final int PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final Filter ALL_ENTRIES_FILTER = Filter.createPresenceFilter("objectClass");
+
+    /**
+     * The number of differences of each kind reported by the streaming comparison.
+     */
+    private static final int MAX_REPORTED_DIFFERENCES = 100;
+
+    private final LDAPConnectionPool pool;
+    private final DN rootContextDn;
+    private final int maxOutstandingAdds;
+    private final int pageSize;
+    private final AttributeProjection projection;
+
+    private Boolean subtreeDeleteSupported;
+
+    public LdapConnectionPoolAccess(final LDAPConnectionPool pool, final String rootContextDn) {
+        this(pool, rootContextDn, DEFAULT_MAX_OUTSTANDING_ADDS, DEFAULT_PAGE_SIZE);
+    }
+
+    public LdapConnectionPoolAccess(final LDAPConnectionPool pool, final String rootContextDn,
+            final int maxOutstandingAdds, final int pageSize) {
+        this(pool, rootContextDn, maxOutstandingAdds, pageSize, AttributeProjection.defaults());
+    }
+
+    /**
+     * @param pool the pool to take the connections from
+     * @param rootContextDn the DN of the root context entry, which is neither imported nor compared
+     * @param maxOutstandingAdds the maximum number of adds sent without having received their results yet
+     * @param pageSize the number of entries to request per page when reading the contents
+     * @param projection determines which attributes of the entries are compared
+     */
+    public LdapConnectionPoolAccess(final LDAPConnectionPool pool, final String rootContextDn,
+            final int maxOutstandingAdds, final int pageSize, final AttributeProjection projection) {
+        Preconditions.checkNotNull(pool, "pool cannot be null");
+        Preconditions.checkArgument(maxOutstandingAdds > 0, "maxOutstandingAdds must be positive");
+        Preconditions.checkArgument(pageSize > 0, "pageSize must be positive");
+
+        this.pool = pool;
+        this.rootContextDn = parseDn(rootContextDn);
+        this.maxOutstandingAdds = maxOutstandingAdds;
+        this.pageSize = pageSize;
+        this.projection = Preconditions.checkNotNull(projection, "projection cannot be null");
+    }
+
+    @Override
+    public void importLdif(final InputSupplier<? extends InputStream> ldif) throws IOException {
+        LOGGER.debug("Importing LDIF into LDAP server");
+
+        final long start = Metrics.start();
+        final LDIFReader reader = new LDIFReader(ldif.getInput(), PARSE_THREADS);
+
+        try {
+            final Pipeline pipeline = new Pipeline();
+            int count = 0;
+
+            try {
+                for (Entry entry = reader.readEntry(); entry != null; entry = reader.readEntry()) {
+                    pipeline.add(entry);
+                    count++;
+                }
+            } finally {
+                pipeline.close();
+            }
+
+            LOGGER.debug("Imported {} entries into LDAP server", count);
+            Metrics.record(Phase.IMPORT, start, count);
+        } catch (final LDIFException e) {
+            throw new RuntimeException(e);
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public void compareContents(final InputSupplier<? extends InputStream> expectedLdif) throws IOException {
+        LOGGER.debug("Matching expected LDIF against LDAP contents");
+
+        final long start = Metrics.start();
+        final List<Entry> expectedEntries = readEntries(expectedLdif.getInput());
+        Metrics.record(Phase.PARSE, start, expectedEntries.size());
+
+        compare(expectedEntries, readEntriesFromServer());
+    }
+
+    @Override
+    public void importEntries(final List<Entry> entries) {
+        LOGGER.debug("Importing {} entries into LDAP server", entries.size());
+
+        final long start = Metrics.start();
+
+        try {
+            final Pipeline pipeline = new Pipeline();
+
+            try {
+                for (final Entry entry : entries) {
+                    pipeline.add(entry);
+                }
+            } finally {
+                pipeline.close();
+            }
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+
+        Metrics.record(Phase.IMPORT, start, entries.size());
+    }
+
+    @Override
+    public void compareEntries(final List<Entry> expectedEntries) {
+        LOGGER.debug("Matching {} expected entries against LDAP contents", expectedEntries.size());
+
+        compare(expectedEntries, readEntriesFromServer());
+    }
+
+    @Override
+    public void compareEntriesStreaming(final Iterable<? extends Entry> expectedEntries, final long memoryBudget) {
+        LOGGER.debug("Matching expected entries against LDAP contents within {} bytes", memoryBudget);
+
+        // both sides are held until they're compared, so each of them gets half of the budget
+        final ExternalEntrySorter expectedSorter = new ExternalEntrySorter(memoryBudget / 2);
+        final ExternalEntrySorter actualSorter = new ExternalEntrySorter(memoryBudget / 2);
+
+        try {
+            long start = Metrics.start();
+
+            for (final Entry entry : expectedEntries) {
+                expectedSorter.add(projection.isDefault() ? entry : projection.apply(entry));
+            }
+
+            Metrics.record(Phase.PARSE, start, expectedSorter.size());
+
+            start = Metrics.start();
+            readEntriesFromServer(actualSorter);
+            Metrics.record(Phase.EXPORT, start, actualSorter.size());
+
+            start = Metrics.start();
+            final DataSetDiff diff = DataSetDiff.computeSorted(expectedSorter.sorted(), actualSorter.sorted(),
+                    MAX_REPORTED_DIFFERENCES);
+            Metrics.record(Phase.COMPARE, start, expectedSorter.size());
+
+            diff.assertEmpty();
+        } finally {
+            expectedSorter.close();
+            actualSorter.close();
+        }
+    }
+
+    @Override
+    public void compareAffectedEntries(final Set<DN> dns, final List<Entry> expectedEntries) {
+        LOGGER.debug("Matching {} affected entries against LDAP contents", dns.size());
+
+        final long start = Metrics.start();
+        final List<Entry> actualEntries = Lists.newArrayListWithCapacity(dns.size());
+
+        try {
+            for (final DN dn : dns) {
+                final Entry entry = searchForEntry(dn, projection.getRequestedAttributes());
+
+                if (entry != null && !rootContextDn.equals(dn)) {
+                    actualEntries.add(projection.apply(entry));
+                }
+            }
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+
+        Metrics.record(Phase.EXPORT, start, actualEntries.size());
+
+        compare(expectedEntries, actualEntries);
+    }
+
+    private void compare(final Collection<Entry> expectedEntries, final Collection<Entry> actualEntries) {
+        final long start = Metrics.start();
+        final DataSetDiff diff = DataSetDiff.compute(projection.applyAll(expectedEntries), actualEntries);
+        Metrics.record(Phase.COMPARE, start, expectedEntries.size());
+
+        diff.assertEmpty();
+    }
+
+    private static List<Entry> readEntries(final InputStream in) throws IOException {
+        try {
+            return LDIFReader.readEntries(in);
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the entries below the root context, skipping the root context entry itself and projecting the attributes
+     * of each entry as it's returned. Each page is handed to the listener as it arrives rather than being collected by
+     * the SDK first.
+     */
+    private List<Entry> readEntriesFromServer() {
+        final long start = Metrics.start();
+        final List<Entry> entries = Lists.newArrayList();
+
+        final SearchResultListener listener = new SearchResultListener() {
+            @Override
+            public void searchEntryReturned(final SearchResultEntry searchEntry) {
+                if (!rootContextDn.equals(Entries.getParsedDn(searchEntry))) {
+                    entries.add(projection.apply(searchEntry));
+                }
+            }
+
+            @Override
+            public void searchReferenceReturned(final SearchResultReference searchReference) {
+            }
+        };
+
+        try {
+            searchPaged(new SearchRequest(listener, rootContextDn.toString(), SearchScope.SUB, ALL_ENTRIES_FILTER,
+                    projection.getRequestedAttributes()));
+        } catch (final LDAPException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        Metrics.record(Phase.EXPORT, start, entries.size());
+
+        return entries;
+    }
+
+    /**
+     * Same as {@link #readEntriesFromServer()}, but handing the entries to the sorter as they're returned.
+     */
+    private void readEntriesFromServer(final ExternalEntrySorter sorter) {
+        final SearchResultListener listener = new SearchResultListener() {
+            @Override
+            public void searchEntryReturned(final SearchResultEntry searchEntry) {
+                if (!rootContextDn.equals(Entries.getParsedDn(searchEntry))) {
+                    sorter.add(projection.apply(searchEntry));
+                }
+            }
+
+            @Override
+            public void searchReferenceReturned(final SearchResultReference searchReference) {
+            }
+        };
+
+        try {
+            searchPaged(new SearchRequest(listener, rootContextDn.toString(), SearchScope.SUB, ALL_ENTRIES_FILTER,
+                    projection.getRequestedAttributes()));
+        } catch (final LDAPException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    @Override
+    public void deleteAll() {
+        LOGGER.debug("Deleting all entries below '{}'", rootContextDn);
+
+        try {
+            deleteSubtrees(findDns(rootContextDn, SearchScope.ONE));
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void deleteSubtrees(final Collection<DN> dns) {
+        final long start = Metrics.start();
+
+        try {
+            if (isSubtreeDeleteSupported()) {
+                for (final DN dn : dns) {
+                    deleteSubtree(dn);
+                }
+            } else {
+                deleteLeafFirst(dns);
+            }
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+
+        LOGGER.debug("Deleted {} subtrees", dns.size());
+        Metrics.record(Phase.RESET, start, -1);
+    }
+
+    private boolean isSubtreeDeleteSupported() throws LDAPException {
+        if (subtreeDeleteSupported == null) {
+            final RootDSE rootDse = pool.getRootDSE();
+            subtreeDeleteSupported = rootDse != null
+                    && rootDse.supportsControl(SubtreeDeleteRequestControl.SUBTREE_DELETE_REQUEST_OID);
+        }
+
+        return subtreeDeleteSupported;
+    }
+
+    private void deleteSubtree(final DN dn) throws LDAPException {
+        try {
+            pool.delete(new DeleteRequest(dn, new Control[] { new SubtreeDeleteRequestControl() }));
+        } catch (final LDAPException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Deletes the entries of the subtrees level by level, starting with the deepest one.
+     */
+    private void deleteLeafFirst(final Collection<DN> dns) throws LDAPException {
+        final SortedMap<Integer, Set<DN>> levels = new TreeMap<Integer, Set<DN>>(Collections.reverseOrder());
+
+        for (final DN dn : dns) {
+            for (final DN entryDn : findDns(dn, SearchScope.SUB)) {
+                final int depth = entryDn.getRDNs().length;
+                Set<DN> level = levels.get(depth);
+
+                if (level == null) {
+                    level = Sets.newLinkedHashSet();
+                    levels.put(depth, level);
+                }
+
+                level.add(entryDn);
+            }
+        }
+
+        final Pipeline pipeline = new Pipeline();
+
+        try {
+            for (final Set<DN> level : levels.values()) {
+                for (final DN dn : level) {
+                    pipeline.delete(dn);
+                }
+
+                pipeline.awaitAll();
+            }
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    private List<DN> findDns(final DN baseDn, final SearchScope scope) throws LDAPException {
+        final List<DN> dns = Lists.newArrayList();
+
+        final SearchResultListener listener = new SearchResultListener() {
+            @Override
+            public void searchEntryReturned(final SearchResultEntry searchEntry) {
+                dns.add(Entries.getParsedDn(searchEntry));
+            }
+
+            @Override
+            public void searchReferenceReturned(final SearchResultReference searchReference) {
+            }
+        };
+
+        try {
+            searchPaged(new SearchRequest(listener, baseDn.toString(), scope, ALL_ENTRIES_FILTER,
+                    SearchRequest.NO_ATTRIBUTES));
+        } catch (final LDAPException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                throw e;
+            }
+        }
+
+        return dns;
+    }
+
+    /**
+     * Same as {@link LDAPConnectionPool#getEntry(String, String...)}, but returning referral entries too.
+     */
+    private Entry searchForEntry(final DN dn, final String... attributes) throws LDAPException {
+        final SearchRequest request = new SearchRequest(dn.toString(), SearchScope.BASE, ALL_ENTRIES_FILTER,
+                attributes);
+        request.addControl(new ManageDsaITRequestControl());
+
+        try {
+            return pool.searchForEntry(request);
+        } catch (final LDAPSearchException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                throw e;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Runs the search page by page, all of them over the same connection of the pool, as the cookie of a paged search
+     * is only valid on the connection it was returned on.
+     */
+    private void searchPaged(final SearchRequest request) throws LDAPException {
+        final LDAPConnection connection = pool.getConnection();
+        boolean defunct = false;
+
+        try {
+            ASN1OctetString cookie = null;
+
+            do {
+                request.setControls(new SimplePagedResultsControl(pageSize, cookie));
+
+                final SearchResult result = connection.search(request);
+                final SimplePagedResultsControl control = SimplePagedResultsControl.get(result);
+
+                cookie = control != null && control.moreResultsToReturn() ? control.getCookie() : null;
+            } while (cookie != null);
+        } catch (final LDAPException e) {
+            defunct = !e.getResultCode().isConnectionUsable();
+            throw e;
+        } finally {
+            if (defunct) {
+                pool.releaseDefunctConnection(connection);
+            } else {
+                pool.releaseConnection(connection);
+            }
+        }
+    }
+
+    private static DN parseDn(final String dn) {
+        try {
+            return new DN(dn);
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sends requests over a single connection of the pool without waiting for their results, as long as there are fewer
+     * than {@link #maxOutstandingAdds} of them in flight and, for adds, the parent of the entry isn't one of them.
+     */
+    private final class Pipeline {
+
+        private final LDAPConnection connection;
+        private final Set<DN> outstanding = Sets.newHashSet();
+        private LDAPResult failure;
+
+        private Pipeline() throws LDAPException {
+            connection = pool.getConnection();
+        }
+
+        void add(final Entry entry) throws LDAPException {
+            final DN dn = Entries.getParsedDn(entry);
+            acquire(dn, dn.getParent());
+
+            try {
+                connection.asyncAdd(new AddRequest(entry), new Listener(dn, false));
+            } catch (final LDAPException e) {
+                release(dn);
+                throw e;
+            }
+        }
+
+        /**
+         * Deletes the entry, which is expected to have no children by the time the delete is processed; entries that
+         * don't exist are skipped.
+         */
+        void delete(final DN dn) throws LDAPException {
+            acquire(dn, null);
+
+            try {
+                connection.asyncDelete(new DeleteRequest(dn), new Listener(dn, true));
+            } catch (final LDAPException e) {
+                release(dn);
+                throw e;
+            }
+        }
+
+        /**
+         * Waits for all the outstanding requests.
+         */
+        synchronized void awaitAll() throws LDAPException {
+            while (!outstanding.isEmpty()) {
+                awaitResult();
+            }
+
+            checkFailure();
+        }
+
+        /**
+         * Waits for all the outstanding requests and gives the connection back to the pool.
+         */
+        void close() throws LDAPException {
+            boolean defunct = true;
+
+            try {
+                synchronized (this) {
+                    while (!outstanding.isEmpty()) {
+                        awaitResult();
+                    }
+
+                    defunct = false;
+                    checkFailure();
+                }
+            } finally {
+                if (defunct) {
+                    pool.releaseDefunctConnection(connection);
+                } else {
+                    pool.releaseConnection(connection);
+                }
+            }
+        }
+
+        private synchronized void acquire(final DN dn, final DN dependency) throws LDAPException {
+            while (failure == null
+                    && (outstanding.size() >= maxOutstandingAdds || outstanding.contains(dependency))) {
+                awaitResult();
+            }
+
+            checkFailure();
+            outstanding.add(dn);
+        }
+
+        private synchronized void release(final DN dn) {
+            outstanding.remove(dn);
+        }
+
+        private synchronized void completed(final DN dn, final LDAPResult result, final boolean ignoreMissing) {
+            outstanding.remove(dn);
+
+            final ResultCode resultCode = result.getResultCode();
+
+            if (resultCode != ResultCode.SUCCESS && !(ignoreMissing && resultCode == ResultCode.NO_SUCH_OBJECT)
+                    && failure == null) {
+                LOGGER.debug("Writing {} failed: {}", dn, result);
+                failure = result;
+            }
+
+            notifyAll();
+        }
+
+        private void awaitResult() throws LDAPException {
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LDAPException(ResultCode.LOCAL_ERROR, "interrupted while waiting for results", e);
+            }
+        }
+
+        private void checkFailure() throws LDAPException {
+            if (failure != null) {
+                throw new LDAPException(failure);
+            }
+        }
+
+        private final class Listener implements AsyncResultListener {
+
+            private final DN dn;
+            private final boolean ignoreMissing;
+
+            private Listener(final DN dn, final boolean ignoreMissing) {
+                this.dn = dn;
+                this.ignoreMissing = ignoreMissing;
+            }
+
+            @Override
+            public void ldapResultReceived(final AsyncRequestID requestID, final LDAPResult result) {
+                completed(dn, result, ignoreMissing);
+            }
+
+        }
+
+    }
+
+}
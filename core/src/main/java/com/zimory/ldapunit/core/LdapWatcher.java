@@ -1,176 +1,785 @@
 package com.zimory.ldapunit.core;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.annotation.Annotation;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceLoader;
 import java.util.Set;
 
 import com.google.common.base.Charsets;
-import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Closer;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
-import com.google.common.primitives.Bytes;
-import org.junit.After;
-import org.junit.Before;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldif.LDIFChangeRecord;
+import com.unboundid.ldif.LDIFException;
+import com.unboundid.ldif.LDIFReader;
+import com.unboundid.util.StaticUtils;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
-import org.junit.runners.model.FrameworkMethod;
-import org.junit.runners.model.TestClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static com.google.common.collect.Collections2.filter;
-import static com.google.common.collect.Lists.transform;
-
 public final class LdapWatcher extends TestWatcher {
 
     public static final String LDIF_DIR = "/ldifs";
     public static final String EXPECTED_PREFIX = "expected-";
 
+    /**
+     * The system property that can be used to override the total size in bytes of the data sets of a test, above which
+     * they're streamed into the server rather than parsed into (and served from) the {@link DataSetCache};
+     * {@value #DEFAULT_STREAMING_IMPORT_THRESHOLD} by default. Note that streamed data sets are not merged by DN.
+     */
+    public static final String STREAMING_IMPORT_THRESHOLD_PROPERTY = "ldapunit.streamingImportThreshold";
+    public static final long DEFAULT_STREAMING_IMPORT_THRESHOLD = 16 * 1024 * 1024;
+
+    /**
+     * The system property that can be used to override the estimated size in bytes of the entries held in memory by
+     * {@link MatchMode#STREAMING}, beyond which they're spilled to temporary files;
+     * {@value #DEFAULT_STREAMING_COMPARISON_MEMORY_BUDGET} by default.
+     */
+    public static final String STREAMING_COMPARISON_MEMORY_BUDGET_PROPERTY = "ldapunit.streamingComparisonMemoryBudget";
+    public static final long DEFAULT_STREAMING_COMPARISON_MEMORY_BUDGET = 64 * 1024 * 1024;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(LdapWatcher.class);
 
-    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes(Charsets.UTF_8);
-    private static final byte[] ENTRY_SEPARATOR = Bytes.concat(LINE_SEPARATOR, LINE_SEPARATOR);
+    static final String BASELINE_SNAPSHOT_KEY = "";
+
+    private static final long STREAMING_IMPORT_THRESHOLD =
+            Long.getLong(STREAMING_IMPORT_THRESHOLD_PROPERTY, DEFAULT_STREAMING_IMPORT_THRESHOLD);
+
+    private static final long STREAMING_COMPARISON_MEMORY_BUDGET =
+            Long.getLong(STREAMING_COMPARISON_MEMORY_BUDGET_PROPERTY, DEFAULT_STREAMING_COMPARISON_MEMORY_BUDGET);
+
+    private static final InputSupplier<? extends InputStream> ENTRY_SEPARATOR =
+            ByteStreams.newInputStreamSupplier("\n\n".getBytes(Charsets.UTF_8));
+
+    static final List<MetricsListener> DISCOVERED_METRICS_LISTENERS = discoverMetricsListeners();
+
+    /**
+     * The resolver shared by all the instances, so that the classpath is only indexed once per class loader.
+     */
+    private static final DataSetResolver DATA_SET_RESOLVER =
+            Iterables.getFirst(ServiceLoader.load(DataSetResolver.class), new ClasspathDataSetResolver());
+
+    /**
+     * The compiled data sets found to be older than the LDIF they were compiled from, which have been warned about.
+     */
+    private static final Set<String> STALE_COMPILED_DATA_SETS =
+            Collections.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
 
     private final Supplier<DirectoryServerAccess> ldapServer;
+    private final ResetMode resetMode;
+    private final LdapClassWatcher classWatcher;
+    private final List<MetricsListener> metricsListeners;
+
+    private List<String> importedPaths = ImmutableList.of();
+    private DataSetGenerator importedGenerator;
 
     public LdapWatcher(final Supplier<DirectoryServerAccess> ldapServer) {
+        this(ldapServer, ResetMode.NONE);
+    }
+
+    public LdapWatcher(final Supplier<DirectoryServerAccess> ldapServer, final ResetMode resetMode) {
+        this(ldapServer, resetMode, new MetricsListener[0]);
+    }
+
+    /**
+     * @param metricsListeners the listeners to report the metrics of the tests to, in addition to the ones registered
+     * as services
+     */
+    public LdapWatcher(final Supplier<DirectoryServerAccess> ldapServer, final ResetMode resetMode,
+            final MetricsListener... metricsListeners) {
+        this(ldapServer, resetMode, null, ImmutableList.<MetricsListener>builder()
+                .addAll(DISCOVERED_METRICS_LISTENERS)
+                .add(metricsListeners)
+                .build());
+    }
+
+    /**
+     * @see LdapClassWatcher#methodWatcher()
+     */
+    LdapWatcher(final Supplier<DirectoryServerAccess> ldapServer, final ResetMode resetMode,
+            final LdapClassWatcher classWatcher, final List<MetricsListener> metricsListeners) {
         this.ldapServer = ldapServer;
+        this.resetMode = Preconditions.checkNotNull(resetMode, "resetMode cannot be null");
+        this.classWatcher = classWatcher;
+        this.metricsListeners = metricsListeners;
     }
 
     @Override
     protected void starting(final Description description) {
-        final Set<Description> descriptions = Sets.newLinkedHashSet();
-        descriptions.addAll(getDescriptionsFromAnnotatedMethods(description, Before.class));
-        descriptions.add(description);
+        Metrics.begin(description, metricsListeners);
 
         try {
-            maybeImportLdifs(filterRelevantDescriptions(descriptions, UsingLdapDataSet.class));
-        } catch (final IOException e) {
-            throw new RuntimeException(e);
+            prepare(description);
+        } finally {
+            Metrics.end();
         }
     }
 
     @Override
     protected void succeeded(final Description description) {
-        final Set<Description> descriptions = Sets.newLinkedHashSet();
-        descriptions.add(description);
-        descriptions.addAll(getDescriptionsFromAnnotatedMethods(description, After.class));
+        Metrics.begin(description, metricsListeners);
 
         try {
-            maybeMatchLdifs(filterRelevantDescriptions(descriptions, ShouldMatchLdapDataSet.class));
+            maybeMatchLdifs(description);
         } catch (final IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            Metrics.end();
         }
     }
 
-    private void maybeImportLdifs(final Collection<Description> descriptions) throws IOException {
-        if (descriptions.isEmpty()) {
+    @Override
+    protected void finished(final Description description) {
+        final CleanupStrategy cleanupStrategy = getCleanupStrategy(description);
+
+        if (cleanupStrategy == CleanupStrategy.NONE) {
             return;
         }
 
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Metrics.begin(description, metricsListeners);
+
+        try {
+            cleanUp(ldapServer.get(), cleanupStrategy);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            Metrics.end();
+        }
+    }
+
+    private void prepare(final Description description) {
+        Preconditions.checkState(classWatcher != null
+                || !description.getTestClass().isAnnotationPresent(UsingLdapDataSet.class),
+                "%s is annotated with @UsingLdapDataSet, which requires the LdapWatcher to be created by an " +
+                "LdapClassWatcher, see LdapClassWatcher.methodWatcher()", description.getTestClass().getName());
+
+        final TestClassMetadata metadata = TestClassMetadata.of(description.getTestClass());
+        final UsingLdapDataSet dataSet = description.getAnnotation(UsingLdapDataSet.class);
+
+        final List<String> relativePaths = Lists.newArrayList(metadata.getBeforeDataSetPaths());
+
+        if (dataSet != null) {
+            relativePaths.add(getRelativeLdifPath(description.getTestClass(), description.getMethodName(), dataSet));
+        }
+
+        final UsingGeneratedDataSet generatedDataSet = description.getAnnotation(UsingGeneratedDataSet.class);
+        final DataSetGenerator generator = generatedDataSet != null ? DataSetGenerator.of(generatedDataSet) : null;
+
+        final DirectoryServerAccess server = ldapServer.get();
+        final List<String> classPaths = classWatcher != null ? classWatcher.getImportedPaths()
+                : ImmutableList.<String>of();
+
+        importedPaths = ImmutableList.copyOf(Iterables.concat(classPaths, relativePaths));
+        importedGenerator = generator;
+        Metrics.setDataSets(getDataSetNames(relativePaths, generator));
 
-        for (final Description description : descriptions) {
-            final String relativePath = getRelativeLdifPath(description,
-                    description.getAnnotation(UsingLdapDataSet.class));
+        try {
+            if (resetMode == ResetMode.SNAPSHOT) {
+                final String baselineKey = classWatcher != null ? classWatcher.getSnapshotKey() : BASELINE_SNAPSHOT_KEY;
+                final String key = getSnapshotKey(baselineKey, getDataSetNames(relativePaths, generator));
+
+                resetFromSnapshot(server, baselineKey, key, relativePaths, generator);
+            } else {
+                importDataSets(server, relativePaths, generator);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
 
-            LOGGER.debug("Importing LDIF from '{}'", relativePath);
+        if (server instanceof ChangeTrackingSupport) {
+            ((ChangeTrackingSupport) server).resetChanges();
+        }
 
-            ByteStreams.copy(getLdifFileStreamSupplier(relativePath), out);
-            out.write(ENTRY_SEPARATOR);
+        if (getCleanupStrategy(description) == CleanupStrategy.ROLLBACK) {
+            getRollbackSupport(server).startRecording();
         }
+    }
 
-        ldapServer.get().importLdif(ByteStreams.newInputStreamSupplier(out.toByteArray()));
+    private void cleanUp(final DirectoryServerAccess server, final CleanupStrategy cleanupStrategy)
+            throws IOException {
+        switch (cleanupStrategy) {
+            case ROLLBACK:
+                getRollbackSupport(server).rollback();
+                break;
+            case DELETE_ALL:
+                getBulkDeleteSupport(server).deleteAll();
+                break;
+            case DELETE_INSERTED:
+                getBulkDeleteSupport(server).deleteSubtrees(getTopLevelDns(importedPaths, importedGenerator));
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported cleanup strategy: " + cleanupStrategy);
+        }
     }
 
-    private Collection<Description> filterRelevantDescriptions(
-            final Collection<Description> descriptions, final Class<? extends Annotation> annotation) {
-        return filter(descriptions, new Predicate<Description>() {
-            @Override
-            public boolean apply(final Description input) {
-                return input.getAnnotation(annotation) != null;
+    /**
+     * @return the DNs of the imported entries whose parents were not imported as well, i.e. the roots of the subtrees
+     * the imported entries make up; the generated entries are all found in the subtrees of the ones right below the
+     * base DN of the generator, so only these are taken into account rather than generating the whole data set
+     */
+    private static Set<DN> getTopLevelDns(final List<String> relativePaths, final DataSetGenerator generator)
+            throws IOException {
+        final Set<DN> dns = Sets.newHashSet();
+
+        for (final Entry entry : getEntries(relativePaths)) {
+            dns.add(Entries.getParsedDn(entry));
+        }
+
+        if (generator != null) {
+            dns.addAll(generator.getTopLevelDns());
+        }
+
+        final Set<DN> topLevelDns = Sets.newLinkedHashSet();
+
+        for (final DN dn : dns) {
+            if (!dns.contains(dn.getParent())) {
+                topLevelDns.add(dn);
             }
-        });
+        }
+
+        return topLevelDns;
+    }
+
+    private static BulkDeleteSupport getBulkDeleteSupport(final DirectoryServerAccess server) {
+        Preconditions.checkState(server instanceof BulkDeleteSupport, "%s does not support bulk deletes",
+                server.getClass().getName());
+
+        return (BulkDeleteSupport) server;
+    }
+
+    private static CleanupStrategy getCleanupStrategy(final Description description) {
+        final LdapCleanup cleanup = description.getAnnotation(LdapCleanup.class);
+
+        if (cleanup != null) {
+            return cleanup.value();
+        }
+
+        return TestClassMetadata.of(description.getTestClass()).getCleanupStrategy();
+    }
+
+    private static RollbackSupport getRollbackSupport(final DirectoryServerAccess server) {
+        Preconditions.checkState(server instanceof RollbackSupport, "%s does not support rollbacks",
+                server.getClass().getName());
+
+        return (RollbackSupport) server;
+    }
+
+    /**
+     * @return the key of the snapshot of the given data sets imported on top of the given baseline
+     */
+    static String getSnapshotKey(final String baselineKey, final List<String> dataSetNames) {
+        final String key = Joiner.on(',').join(dataSetNames);
+
+        if (baselineKey.isEmpty() || key.isEmpty()) {
+            return baselineKey + key;
+        }
+
+        return baselineKey + ';' + key;
     }
 
-    private void maybeMatchLdifs(final Collection<Description> descriptions) throws IOException {
-        if (descriptions.isEmpty()) {
+    /**
+     * Restores the snapshot of the given key, or otherwise restores the baseline (taking the global baseline first if
+     * there's none), imports the data sets and takes a snapshot of the result under the given key.
+     */
+    static void resetFromSnapshot(final DirectoryServerAccess server, final String baselineKey, final String key,
+            final List<String> relativePaths, final DataSetGenerator generator) throws IOException {
+        Preconditions.checkState(server instanceof SnapshotSupport, "%s does not support snapshots",
+                server.getClass().getName());
+
+        final SnapshotSupport snapshots = (SnapshotSupport) server;
+
+        if (snapshots.restoreSnapshot(key)) {
             return;
         }
 
-        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!snapshots.restoreSnapshot(baselineKey)) {
+            Preconditions.checkState(BASELINE_SNAPSHOT_KEY.equals(baselineKey), "no snapshot '%s' to restore",
+                    baselineKey);
+
+            snapshots.createSnapshot(BASELINE_SNAPSHOT_KEY);
+        }
+
+        if (!relativePaths.isEmpty() || generator != null) {
+            importDataSets(server, relativePaths, generator);
+            snapshots.createSnapshot(key);
+        }
+    }
+
+    static void importDataSets(final DirectoryServerAccess server, final List<String> relativePaths,
+            final DataSetGenerator generator) throws IOException {
+        maybeImportLdifs(server, relativePaths);
+
+        if (generator != null) {
+            LOGGER.debug("Importing {}", generator);
+
+            // the entries are generated one by one as the server reads them
+            importEntries(server, generator.asList());
+        }
+    }
+
+    private static void maybeImportLdifs(final DirectoryServerAccess server, final List<String> relativePaths)
+            throws IOException {
+        if (relativePaths.isEmpty()) {
+            return;
+        }
+
+        final List<ResolvedDataSet> dataSets = resolveDataSets(relativePaths);
+        long totalSize = 0;
+
+        for (final ResolvedDataSet dataSet : dataSets) {
+            LOGGER.debug("Importing LDIF from '{}'", dataSet.path);
+
+            if (dataSet.compiled) {
+                // compiled data sets are cheap enough to read that they're never worth streaming
+                importEntries(server, readDataSets(dataSets));
+                return;
+            }
+
+            totalSize += dataSet.resource.getSize();
+        }
+
+        if (totalSize > STREAMING_IMPORT_THRESHOLD) {
+            LOGGER.debug("Streaming {} bytes of LDIF into the server", totalSize);
+
+            final List<InputSupplier<? extends InputStream>> ldifs = Lists.newArrayList();
+
+            for (final ResolvedDataSet dataSet : dataSets) {
+                ldifs.add(getInput(dataSet.resource));
+                ldifs.add(ENTRY_SEPARATOR);
+            }
+
+            server.importLdif(ByteStreams.join(ldifs));
+        } else {
+            importEntries(server, readDataSets(dataSets));
+        }
+    }
+
+    private void maybeMatchLdifs(final Description description) throws IOException {
+        final TestClassMetadata metadata = TestClassMetadata.of(description.getTestClass());
+        final ShouldMatchLdapDataSet dataSet = description.getAnnotation(ShouldMatchLdapDataSet.class);
 
-        for (final Description description : descriptions) {
-            final String relativePath = getRelativeLdifPath(description,
-                    description.getAnnotation(ShouldMatchLdapDataSet.class));
+        final List<String> relativePaths = Lists.newArrayList();
+        MatchMode mode = metadata.getAfterMatchMode();
 
+        if (dataSet != null) {
+            relativePaths.add(getRelativeLdifPath(description.getTestClass(), description.getMethodName(), dataSet));
+
+            // the mode declared by the test method takes precedence over those of the @After methods
+            mode = dataSet.mode();
+        }
+
+        relativePaths.addAll(metadata.getAfterExpectedDataSetPaths());
+
+        final ShouldMatchGeneratedDataSet generatedDataSet =
+                description.getAnnotation(ShouldMatchGeneratedDataSet.class);
+        final DataSetGenerator generator = generatedDataSet != null ? DataSetGenerator.of(generatedDataSet) : null;
+
+        if (generatedDataSet != null && dataSet == null) {
+            mode = generatedDataSet.mode();
+        }
+
+        if (relativePaths.isEmpty() && generator == null) {
+            return;
+        }
+
+        for (final String relativePath : relativePaths) {
             LOGGER.debug("Using LDIF from '{}' to match against LDAP contents", relativePath);
+        }
+
+        Metrics.setDataSets(getDataSetNames(relativePaths, generator));
+
+        final DirectoryServerAccess server = ldapServer.get();
+
+        if (mode == MatchMode.INCREMENTAL) {
+            Preconditions.checkState(server instanceof ChangeTrackingSupport, "%s does not support change tracking",
+                    server.getClass().getName());
+
+            final ChangeTrackingSupport changeTracking = (ChangeTrackingSupport) server;
+            changeTracking.compareChangedEntries(getEntries(importedPaths, importedGenerator),
+                    getEntries(relativePaths, generator));
+        } else if (mode == MatchMode.DELTA) {
+            Preconditions.checkState(server instanceof DeltaComparisonSupport, "%s does not support delta comparison",
+                    server.getClass().getName());
+            Preconditions.checkState(generator == null, "generated data sets cannot be used as change records");
+
+            final ExpectedDelta delta = ExpectedDelta.apply(getEntries(importedPaths, importedGenerator),
+                    getChangeRecords(relativePaths));
+            ((DeltaComparisonSupport) server).compareAffectedEntries(delta.getAffectedDns(),
+                    delta.getExpectedEntries());
+        } else if (mode == MatchMode.PARALLEL) {
+            Preconditions.checkState(server instanceof ParallelComparisonSupport,
+                    "%s does not support parallel comparison", server.getClass().getName());
+
+            ((ParallelComparisonSupport) server).compareEntriesInParallel(getEntries(relativePaths, generator));
+        } else if (mode == MatchMode.STREAMING) {
+            Preconditions.checkState(server instanceof StreamingComparisonSupport,
+                    "%s does not support streaming comparison", server.getClass().getName());
+
+            final Closer closer = Closer.create();
+
+            try {
+                ((StreamingComparisonSupport) server).compareEntriesStreaming(
+                        getStreamedEntries(relativePaths, generator, closer), STREAMING_COMPARISON_MEMORY_BUDGET);
+            } catch (final Throwable e) {
+                throw closer.rethrow(e);
+            } finally {
+                closer.close();
+            }
+        } else if (mode == MatchMode.DIGEST) {
+            Preconditions.checkState(server instanceof DigestComparisonSupport,
+                    "%s does not support digest comparison", server.getClass().getName());
 
-            ByteStreams.copy(getLdifFileStreamSupplier(relativePath), out);
-            out.write(ENTRY_SEPARATOR);
+            ((DigestComparisonSupport) server).compareEntriesByDigest(getEntries(relativePaths, generator));
+        } else {
+            compareEntries(server, getEntries(relativePaths, generator));
         }
+    }
 
-        ldapServer.get().compareContents(ByteStreams.newInputStreamSupplier(out.toByteArray()));
+    private static void importEntries(final DirectoryServerAccess server, final List<Entry> entries)
+            throws IOException {
+        if (server instanceof ParsedDataSetSupport) {
+            ((ParsedDataSetSupport) server).importEntries(entries);
+        } else {
+            server.importLdif(toLdif(entries));
+        }
     }
 
-    private static InputSupplier<? extends InputStream> getLdifFileStreamSupplier(final String relativePath) {
-        final String path = formatLdifPath(LDIF_DIR, relativePath);
+    private static void compareEntries(final DirectoryServerAccess server, final List<Entry> expectedEntries)
+            throws IOException {
+        if (server instanceof ParsedDataSetSupport) {
+            ((ParsedDataSetSupport) server).compareEntries(expectedEntries);
+        } else {
+            server.compareContents(toLdif(expectedEntries));
+        }
+    }
 
-        try {
-            final URL resource = LdapWatcher.class.getResource(path);
-            Preconditions.checkNotNull(resource, "resource not found: %s", path);
+    /**
+     * @return the given entries written back to LDIF, for the servers that don't implement
+     * {@link ParsedDataSetSupport}
+     */
+    private static InputSupplier<? extends InputStream> toLdif(final List<Entry> entries) {
+        final StringBuilder sb = new StringBuilder();
 
-            return Files.newInputStreamSupplier(new File(resource.toURI()));
-        } catch (final URISyntaxException e) {
-            throw new RuntimeException(e);
+        for (final Entry entry : entries) {
+            entry.toLDIFString(sb, 0);
+            sb.append(StaticUtils.EOL);
+        }
+
+        return ByteStreams.newInputStreamSupplier(sb.toString().getBytes(Charsets.UTF_8));
+    }
+
+    private static List<Entry> getEntries(final List<String> relativePaths) throws IOException {
+        return readDataSets(resolveDataSets(relativePaths));
+    }
+
+    private static List<Entry> readDataSets(final List<ResolvedDataSet> resolvedDataSets) throws IOException {
+        final List<List<Entry>> dataSets = Lists.newArrayListWithCapacity(resolvedDataSets.size());
+
+        for (final ResolvedDataSet dataSet : resolvedDataSets) {
+            if (dataSet.compiled) {
+                dataSets.add(DataSetCache.shared().getCompiledEntries(dataSet.path, dataSet.resource));
+            } else {
+                dataSets.add(DataSetCache.shared().getEntries(dataSet.path, dataSet.resource,
+                        getInput(dataSet.resource)));
+            }
+        }
+
+        return Entries.mergeByDn(dataSets);
+    }
+
+    /**
+     * Reads the change records of the given data sets, which are always LDIF, in order.
+     */
+    private static List<LDIFChangeRecord> getChangeRecords(final List<String> relativePaths) throws IOException {
+        final List<LDIFChangeRecord> changes = Lists.newArrayList();
+
+        for (final String relativePath : relativePaths) {
+            final String path = formatLdifPath(LDIF_DIR, relativePath);
+            final DataSetResource resource = resolveLdif(path);
+
+            final long start = Metrics.start();
+            final LDIFReader reader = new LDIFReader(getInput(resource).getInput());
+            final int count = changes.size();
+
+            try {
+                for (LDIFChangeRecord change = reader.readChangeRecord(); change != null;
+                        change = reader.readChangeRecord()) {
+                    changes.add(change);
+                }
+            } catch (final LDIFException e) {
+                throw new RuntimeException(e);
+            } finally {
+                reader.close();
+            }
+
+            Metrics.record(Phase.PARSE, path, start, changes.size() - count, -1);
+        }
+
+        return changes;
+    }
+
+    /**
+     * Merges the generated data set, if any, into the given ones; a generated data set alone is not materialized.
+     */
+    private static List<Entry> getEntries(final List<String> relativePaths, final DataSetGenerator generator)
+            throws IOException {
+        if (generator == null) {
+            return getEntries(relativePaths);
+        }
+
+        if (relativePaths.isEmpty()) {
+            return generator.asList();
+        }
+
+        return Entries.mergeByDn(ImmutableList.of(generator.asList(), getEntries(relativePaths)));
+    }
+
+    /**
+     * Reads the data sets one entry at a time, every time they're iterated, neither caching nor merging them; compiled
+     * data sets are preferred over the LDIF like in the other modes. The inputs opened are registered with the given
+     * closer, so that they're closed even if the iteration doesn't get to the end.
+     */
+    private static Iterable<Entry> getStreamedEntries(final List<String> relativePaths,
+            final DataSetGenerator generator, final Closer closer) {
+        final List<Iterable<Entry>> dataSets = Lists.newArrayList();
+
+        if (generator != null) {
+            dataSets.add(generator.asList());
+        }
+
+        for (final ResolvedDataSet dataSet : resolveDataSets(relativePaths)) {
+            if (dataSet.compiled) {
+                dataSets.add(readCompiledLazily(dataSet.resource));
+            } else {
+                dataSets.add(readLazily(dataSet.resource, closer));
+            }
         }
+
+        return Iterables.concat(dataSets);
     }
 
-    private static Collection<? extends Description> getDescriptionsFromAnnotatedMethods(
-            final Description description,
-            final Class<? extends Annotation> annotation) {
-        final TestClass testClass = new TestClass(description.getTestClass());
+    private static Iterable<Entry> readCompiledLazily(final DataSetResource resource) {
+        return new Iterable<Entry>() {
+            @Override
+            public Iterator<Entry> iterator() {
+                try {
+                    return BinaryDataSetFormat.readLazily(resource.getContents());
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
 
-        return transform(testClass.getAnnotatedMethods(annotation), new Function<FrameworkMethod, Description>() {
+    private static Iterable<Entry> readLazily(final DataSetResource resource, final Closer closer) {
+        return new Iterable<Entry>() {
             @Override
-            public Description apply(final FrameworkMethod input) {
-                return Description.createTestDescription(input.getMethod().getDeclaringClass(), input.getName(),
-                        input.getAnnotations());
+            public Iterator<Entry> iterator() {
+                final LDIFReader reader;
+
+                try {
+                    reader = new LDIFReader(closer.register(getInput(resource).getInput()));
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+
+                return new AbstractIterator<Entry>() {
+                    @Override
+                    protected Entry computeNext() {
+                        try {
+                            final Entry entry = reader.readEntry();
+
+                            if (entry != null) {
+                                return entry;
+                            }
+
+                            // closed right away rather than along with the other inputs once the comparison is done
+                            reader.close();
+                            return endOfData();
+                        } catch (final IOException e) {
+                            throw new RuntimeException(e);
+                        } catch (final LDIFException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    private static List<ResolvedDataSet> resolveDataSets(final List<String> relativePaths) {
+        final List<ResolvedDataSet> dataSets = Lists.newArrayListWithCapacity(relativePaths.size());
+
+        for (final String relativePath : relativePaths) {
+            dataSets.add(resolveDataSet(relativePath));
+        }
+
+        return dataSets;
+    }
+
+    /**
+     * Resolves the compiled form of the data set if there is one, or the LDIF, possibly compressed, otherwise.
+     */
+    private static ResolvedDataSet resolveDataSet(final String relativePath) {
+        final long start = Metrics.start();
+        final String path = formatLdifPath(LDIF_DIR, relativePath);
+
+        DataSetResource resource = DATA_SET_RESOLVER.resolve(LdifCompression.stripExtension(path)
+                + BinaryDataSetFormat.EXTENSION);
+        boolean compiled = resource != null;
+
+        if (compiled) {
+            final DataSetResource ldif = findLdif(path);
+
+            if (ldif != null && resource.getLastModified() >= 0
+                    && ldif.getLastModified() > resource.getLastModified()) {
+                if (STALE_COMPILED_DATA_SETS.add(resource.getPath())) {
+                    LOGGER.warn("Compiled data set '{}' is older than '{}', using the latter; recompile the data sets " +
+                            "to get rid of this warning", resource.getPath(), ldif.getPath());
+                }
+
+                resource = ldif;
+                compiled = false;
             }
-        });
+        } else {
+            resource = resolveLdif(path);
+        }
+
+        final ResolvedDataSet dataSet = new ResolvedDataSet(path, resource, compiled);
+        Metrics.record(Phase.RESOLVE, path, start, -1, resource.getSize());
+
+        return dataSet;
+    }
+
+    /**
+     * Resolves the LDIF at the given path or, unless the path names a compressed LDIF already, its compressed form if
+     * there's no plain one.
+     */
+    private static DataSetResource resolveLdif(final String path) {
+        final DataSetResource resource = findLdif(path);
+        Preconditions.checkNotNull(resource, "resource not found: %s", path);
+
+        return resource;
     }
 
-    private static String getRelativeLdifPath(final Description d, final UsingLdapDataSet a) {
+    /**
+     * @return the LDIF data set at the given path, looking for the compressed variants too unless the path has an
+     * extension of its own; null if there's none
+     */
+    private static DataSetResource findLdif(final String path) {
+        DataSetResource resource = DATA_SET_RESOLVER.resolve(path);
+
+        if (LdifCompression.of(path) == LdifCompression.NONE) {
+            for (final LdifCompression compression : LdifCompression.values()) {
+                if (resource == null && compression != LdifCompression.NONE) {
+                    resource = DATA_SET_RESOLVER.resolve(path + compression.getExtension());
+                }
+            }
+        }
+
+        return resource;
+    }
+
+    /**
+     * @return a supplier of the contents of the given LDIF resource, decompressed as they're read if it's compressed
+     */
+    private static InputSupplier<InputStream> getInput(final DataSetResource resource) {
+        return LdifCompression.of(resource.getPath()).decompressing(resource);
+    }
+
+    static String getRelativeLdifPath(final Class<?> testClass, final String methodName, final UsingLdapDataSet a) {
         if (!Strings.isNullOrEmpty(a.value())) {
             return a.value();
         }
 
-        return d.getTestClass().getSimpleName() + "/" + d.getMethodName();
+        return testClass.getSimpleName() + "/" + methodName;
     }
 
-    private static String getRelativeLdifPath(final Description d, final ShouldMatchLdapDataSet a) {
+    static String getRelativeLdifPath(final Class<?> testClass, final String methodName,
+            final ShouldMatchLdapDataSet a) {
         if (!Strings.isNullOrEmpty(a.value())) {
             return a.value();
         }
 
-        return d.getTestClass().getSimpleName() + "/" + EXPECTED_PREFIX + d.getMethodName();
+        return testClass.getSimpleName() + "/" + EXPECTED_PREFIX + methodName;
+    }
+
+    static List<String> getDataSetNames(final List<String> relativePaths, final DataSetGenerator generator) {
+        final List<String> names = Lists.newArrayListWithCapacity(relativePaths.size() + 1);
+
+        for (final String relativePath : relativePaths) {
+            names.add(formatLdifPath(LDIF_DIR, relativePath));
+        }
+
+        if (generator != null) {
+            names.add(generator.toString());
+        }
+
+        return names;
     }
 
     private static String formatLdifPath(final String baseDir, final String relativePath) {
-        final String extension = "ldif".equals(Files.getFileExtension(relativePath)) ? "" : ".ldif";
+        final String ldifPath = LdifCompression.stripExtension(relativePath);
+        final String extension = "ldif".equals(Files.getFileExtension(ldifPath)) ? "" : ".ldif";
         return String.format("%s/%s%s", baseDir, relativePath, extension);
     }
 
+    /**
+     * Loads the listeners registered as services, closing the ones that are {@link Closeable} (such as the
+     * {@link MetricsReport}) when the JVM shuts down.
+     */
+    private static List<MetricsListener> discoverMetricsListeners() {
+        final List<MetricsListener> listeners = ImmutableList.copyOf(ServiceLoader.load(MetricsListener.class));
+        final List<Closeable> closeables = Lists.newArrayList(Iterables.filter(listeners, Closeable.class));
+
+        if (!closeables.isEmpty()) {
+            Runtime.getRuntime().addShutdownHook(new Thread("ldapunit-metrics-listeners") {
+                @Override
+                public void run() {
+                    for (final Closeable closeable : closeables) {
+                        try {
+                            closeable.close();
+                        } catch (final IOException e) {
+                            LOGGER.error("Could not close metrics listener " + closeable, e);
+                        }
+                    }
+                }
+            });
+        }
+
+        return listeners;
+    }
+
+    private static final class ResolvedDataSet {
+
+        private final String path;
+        private final DataSetResource resource;
+        private final boolean compiled;
+
+        private ResolvedDataSet(final String path, final DataSetResource resource, final boolean compiled) {
+            this.path = path;
+            this.resource = resource;
+            this.compiled = compiled;
+        }
+
+    }
+
 }
@@ -0,0 +1,131 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * The configuration of a server managed by {@link ManagedServers}. Instances are immutable, each {@code with...} method
+ * returning a modified copy; servers are shared by all the tests using equal configurations.
+ */
+public final class ManagedServerConfig {
+
+    private final String rootContextDn;
+    private final boolean schemaEnabled;
+    private final List<String> schemaResources;
+    private final boolean listening;
+    private final Map<String, String> bindCredentials;
+
+    private ManagedServerConfig(final String rootContextDn, final boolean schemaEnabled,
+            final List<String> schemaResources, final boolean listening, final Map<String, String> bindCredentials) {
+        this.rootContextDn = rootContextDn;
+        this.schemaEnabled = schemaEnabled;
+        this.schemaResources = schemaResources;
+        this.listening = listening;
+        this.bindCredentials = bindCredentials;
+    }
+
+    /**
+     * Creates the configuration of a server with the given root context, the standard schema and a listener on a free
+     * port.
+     * @param rootContextDn the DN of the root context, whose entry is created along with the server
+     */
+    public static ManagedServerConfig forRootContext(final String rootContextDn) {
+        try {
+            return new ManagedServerConfig(new DN(rootContextDn).toNormalizedString(), true,
+                    ImmutableList.<String>of(), true, ImmutableMap.<String, String>of());
+        } catch (final LDAPException e) {
+            throw new IllegalArgumentException("Invalid DN: " + rootContextDn, e);
+        }
+    }
+
+    /**
+     * @param enabled whether the server should enforce a schema, or accept any entries
+     */
+    public ManagedServerConfig withSchema(final boolean enabled) {
+        return new ManagedServerConfig(rootContextDn, enabled, schemaResources, listening, bindCredentials);
+    }
+
+    /**
+     * Enables the schema, extending the standard one with the definitions in the given classpath resources.
+     * @param resources the paths of the LDIF resources containing the subschema subentries to add
+     */
+    public ManagedServerConfig withSchemaResources(final String... resources) {
+        return new ManagedServerConfig(rootContextDn, true, ImmutableList.copyOf(resources), listening,
+                bindCredentials);
+    }
+
+    /**
+     * @param enabled whether the server should accept connections on a free port, which isn't needed for tests only
+     * using the server in-process
+     */
+    public ManagedServerConfig withListener(final boolean enabled) {
+        return new ManagedServerConfig(rootContextDn, schemaEnabled, schemaResources, enabled, bindCredentials);
+    }
+
+    /**
+     * Adds credentials that can be used to bind to the server.
+     */
+    public ManagedServerConfig withBindCredentials(final String dn, final String password) {
+        return new ManagedServerConfig(rootContextDn, schemaEnabled, schemaResources, listening,
+                ImmutableMap.<String, String>builder().putAll(bindCredentials).put(dn, password).build());
+    }
+
+    public String getRootContextDn() {
+        return rootContextDn;
+    }
+
+    public boolean isSchemaEnabled() {
+        return schemaEnabled;
+    }
+
+    public List<String> getSchemaResources() {
+        return schemaResources;
+    }
+
+    public boolean isListening() {
+        return listening;
+    }
+
+    public Map<String, String> getBindCredentials() {
+        return bindCredentials;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof ManagedServerConfig)) {
+            return false;
+        }
+
+        final ManagedServerConfig other = (ManagedServerConfig) o;
+        return rootContextDn.equals(other.rootContextDn) && schemaEnabled == other.schemaEnabled
+                && schemaResources.equals(other.schemaResources) && listening == other.listening
+                && bindCredentials.equals(other.bindCredentials);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(rootContextDn, schemaEnabled, schemaResources, listening, bindCredentials);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("rootContextDn", rootContextDn)
+                .add("schemaEnabled", schemaEnabled)
+                .add("schemaResources", schemaResources)
+                .add("listening", listening)
+                .add("bindCredentials", bindCredentials.keySet())
+                .toString();
+    }
+
+}
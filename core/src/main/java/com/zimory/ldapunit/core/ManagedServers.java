@@ -0,0 +1,212 @@
+package com.zimory.ldapunit.core;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.RDN;
+import com.unboundid.ldap.sdk.schema.Schema;
+import com.unboundid.ldif.LDIFReader;
+import com.unboundid.util.StaticUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages embedded {@link InMemoryDirectoryServer}s for the whole JVM, so that tests don't have to set them up
+ * themselves:
+ *
+ * <pre>
+ *     {@literal @}Rule
+ *     public LdapWatcher ldapWatcher = new LdapWatcher(
+ *             ManagedServers.access(ManagedServerConfig.forRootContext("dc=example,dc=com")), ResetMode.SNAPSHOT);
+ * </pre>
+ * A server is only started when it's first used, and then reused by all the tests using an equal
+ * {@link ManagedServerConfig}, in any test class. The servers are shut down when the JVM exits. The schemas are parsed
+ * only once per JVM as well.
+ * <p>
+ * Every server has the root context entry, a {@link ChangeTracker} and an {@link UndoLog}, and its contents right after
+ * being started are captured as the baseline that {@link ResetMode#SNAPSHOT} restores, so that the contents left over
+ * by the tests of another class never leak into those of the next one.
+ */
+public final class ManagedServers {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManagedServers.class);
+
+    private static final Map<ManagedServerConfig, InMemoryDirectoryServer> SERVERS = Maps.newHashMap();
+
+    private static final LoadingCache<List<String>, Schema> SCHEMAS = CacheBuilder.newBuilder()
+            .build(new CacheLoader<List<String>, Schema>() {
+                @Override
+                public Schema load(final List<String> resources) throws Exception {
+                    return parseSchema(resources);
+                }
+            });
+
+    private static boolean shutdownHookInstalled;
+
+    private ManagedServers() {
+        throw new UnsupportedOperationException("Non-instantiable");
+    }
+
+    /**
+     * @param config the configuration of the server
+     * @return a supplier starting the server on first use
+     */
+    public static Supplier<DirectoryServerAccess> access(final ManagedServerConfig config) {
+        Preconditions.checkNotNull(config, "config cannot be null");
+
+        return new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(getServer(config), config.getRootContextDn());
+            }
+        };
+    }
+
+    /**
+     * @param config the configuration of the server
+     * @return the server, started if it's not running yet
+     */
+    public static synchronized InMemoryDirectoryServer getServer(final ManagedServerConfig config) {
+        InMemoryDirectoryServer server = SERVERS.get(config);
+
+        if (server == null) {
+            server = startServer(config);
+            SERVERS.put(config, server);
+
+            if (!shutdownHookInstalled) {
+                Runtime.getRuntime().addShutdownHook(new Thread("ldapunit-managed-servers-shutdown") {
+                    @Override
+                    public void run() {
+                        shutDownAll();
+                    }
+                });
+
+                shutdownHookInstalled = true;
+            }
+        }
+
+        return server;
+    }
+
+    /**
+     * Shuts all the servers down; they're started again when used next.
+     */
+    public static synchronized void shutDownAll() {
+        for (final InMemoryDirectoryServer server : SERVERS.values()) {
+            server.shutDown(true);
+        }
+
+        SERVERS.clear();
+    }
+
+    /**
+     * @param resources the paths of the LDIF resources containing the subschema subentries to extend the standard
+     * schema with
+     * @return the schema, only parsed the first time it's requested
+     */
+    public static Schema getSchema(final List<String> resources) {
+        return SCHEMAS.getUnchecked(resources);
+    }
+
+    private static InMemoryDirectoryServer startServer(final ManagedServerConfig config) {
+        LOGGER.debug("Starting LDAP server {}", config);
+
+        try {
+            final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(config.getRootContextDn());
+            cfg.setSchema(config.isSchemaEnabled() ? getSchema(config.getSchemaResources()) : null);
+            cfg.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("ldapunit-managed", 0));
+
+            for (final Map.Entry<String, String> credentials : config.getBindCredentials().entrySet()) {
+                cfg.addAdditionalBindCredentials(credentials.getKey(), credentials.getValue());
+            }
+
+            InMemoryDirectoryServerAccess.installChangeTracker(cfg);
+            InMemoryDirectoryServerAccess.installUndoLog(cfg);
+
+            final InMemoryDirectoryServer server = new InMemoryDirectoryServer(cfg);
+
+            if (config.isListening()) {
+                server.startListening();
+            }
+
+            server.add(createRootContextEntry(config.getRootContextDn()));
+
+            new InMemoryDirectoryServerAccess(server, config.getRootContextDn())
+                    .createSnapshot(LdapWatcher.BASELINE_SNAPSHOT_KEY);
+
+            return server;
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates an entry with a structural object class suitable for the attribute of the RDN, e.g. {@code domain} for
+     * {@code dc}.
+     */
+    private static Entry createRootContextEntry(final String rootContextDn) throws LDAPException {
+        final RDN rdn = new DN(rootContextDn).getRDN();
+        final String attributeName = StaticUtils.toLowerCase(rdn.getAttributeNames()[0]);
+
+        final String objectClass;
+
+        if ("dc".equals(attributeName)) {
+            objectClass = "domain";
+        } else if ("o".equals(attributeName)) {
+            objectClass = "organization";
+        } else if ("ou".equals(attributeName)) {
+            objectClass = "organizationalUnit";
+        } else if ("c".equals(attributeName)) {
+            objectClass = "country";
+        } else {
+            objectClass = "extensibleObject";
+        }
+
+        final Entry entry = new Entry(rootContextDn);
+        entry.addAttribute("objectClass", "top", objectClass);
+
+        for (int i = 0; i < rdn.getAttributeNames().length; i++) {
+            entry.addAttribute(rdn.getAttributeNames()[i], rdn.getAttributeValues()[i]);
+        }
+
+        return entry;
+    }
+
+    private static Schema parseSchema(final List<String> resources) throws Exception {
+        LOGGER.debug("Parsing schema {}", resources);
+
+        final List<Schema> schemas = Lists.newArrayList(Schema.getDefaultStandardSchema());
+
+        for (final String resource : resources) {
+            final InputStream in = ManagedServers.class.getResourceAsStream(resource);
+            Preconditions.checkArgument(in != null, "resource not found: %s", resource);
+
+            final LDIFReader reader = new LDIFReader(in);
+
+            try {
+                for (Entry entry = reader.readEntry(); entry != null; entry = reader.readEntry()) {
+                    schemas.add(new Schema(entry));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        return schemas.size() == 1 ? schemas.get(0) : Schema.mergeSchemas(schemas.toArray(new Schema[schemas.size()]));
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.zimory.ldapunit.core;
+
+/**
+ * Determines how the contents of the LDAP server are matched against a {@link ShouldMatchLdapDataSet}.
+ */
+public enum MatchMode {
+
+    /**
+     * Every entry on the server is compared to the expected data set. This is the default.
+     */
+    FULL,
+
+    /**
+     * Only the entries written during the test, along with the ones the expected data set says should have been
+     * written, are compared; the rest of the server is only checked for the number of entries. The cost of the
+     * verification therefore depends on the size of the changes rather than the size of the directory. Writes the
+     * change tracking doesn't see, e.g. those invoked directly on the
+     * {@link com.unboundid.ldap.listener.InMemoryDirectoryServer}, are only detected if they add or delete entries.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link ChangeTrackingSupport} and assumes that the server
+     * contained nothing but the imported data sets (and the root context entry) when the test started, e.g. by using
+     * {@link ResetMode#SNAPSHOT}.
+     */
+    INCREMENTAL,
+
+    /**
+     * Every entry on the server is compared to the expected data set like with {@link #FULL}, but on all the available
+     * processors, which pays off for very large directories. The differences reported are the same.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link ParallelComparisonSupport}.
+     */
+    PARALLEL,
+
+    /**
+     * The expected data set consists of LDIF change records (adds, modifies, deletes and modify DNs) rather than
+     * entries. The changes are applied to the data sets imported before the test, and only the entries they affect are
+     * compared, so that both the expected data set and the cost of the verification depend on the size of the changes
+     * alone. Entries the test changed without the expected data set saying so go unnoticed.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link DeltaComparisonSupport}.
+     */
+    DELTA,
+
+    /**
+     * Every entry on the server is compared to the expected data set like with {@link #FULL}, but neither side is ever
+     * held in memory as a whole: both are sorted by DN, spilling to temporary files beyond a memory budget (see
+     * {@link LdapWatcher#STREAMING_COMPARISON_MEMORY_BUDGET_PROPERTY}), and compared in a single pass. Meant for
+     * directories too large for the heap; only the first differences of each kind are reported.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link StreamingComparisonSupport}.
+     */
+    STREAMING,
+
+    /**
+     * The contents of the server are recognized as matching by comparing their digest to the one of the expected data
+     * set, without reading a single entry; otherwise only the subtrees whose digests differ are read and compared. The
+     * differences reported are the same as with {@link #FULL}.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link DigestComparisonSupport} and a
+     * {@link ContentDigestTracker} to be installed. Entries written directly to the
+     * {@link com.unboundid.ldap.listener.InMemoryDirectoryServer} rather than through a connection go unnoticed unless
+     * {@link ContentDigestTracker#invalidate()} is called afterwards.
+     */
+    DIGEST
+
+}
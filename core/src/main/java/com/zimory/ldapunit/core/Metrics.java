@@ -0,0 +1,84 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import org.junit.runner.Description;
+
+/**
+ * Reports {@link PhaseMetrics} to the {@link MetricsListener}s of the test currently being set up or verified on the
+ * calling thread, so that the code doing the work doesn't have to know about the test. Outside of a test, or if there
+ * are no listeners, recording does nothing.
+ */
+final class Metrics {
+
+    private static final ThreadLocal<Context> CURRENT = new ThreadLocal<Context>();
+
+    private Metrics() {
+        throw new UnsupportedOperationException("Non-instantiable");
+    }
+
+    /**
+     * Starts reporting the phases run on the calling thread for the given test, until {@link #end()} is called.
+     */
+    static void begin(final Description test, final List<MetricsListener> listeners) {
+        CURRENT.set(listeners.isEmpty() ? null : new Context(test, listeners));
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Sets the data sets the phases that don't know which data sets they operate on are reported with.
+     */
+    static void setDataSets(final List<String> relativePaths) {
+        final Context context = CURRENT.get();
+
+        if (context != null) {
+            context.dataSets = relativePaths.isEmpty() ? null : Joiner.on(',').join(relativePaths);
+        }
+    }
+
+    /**
+     * @return the start time to be passed to {@link #record}
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    static void record(final Phase phase, final long startNanos, final int entryCount) {
+        record(phase, null, startNanos, entryCount, -1);
+    }
+
+    static void record(final Phase phase, final String dataSet, final long startNanos, final int entryCount,
+            final long byteCount) {
+        final Context context = CURRENT.get();
+
+        if (context == null) {
+            return;
+        }
+
+        final PhaseMetrics metrics = new PhaseMetrics(context.test, phase, dataSet != null ? dataSet : context.dataSets,
+                System.nanoTime() - startNanos, entryCount, byteCount);
+
+        for (final MetricsListener listener : context.listeners) {
+            listener.phaseCompleted(metrics);
+        }
+    }
+
+    private static final class Context {
+
+        private final Description test;
+        private final List<MetricsListener> listeners;
+        private String dataSets;
+
+        private Context(final Description test, final List<MetricsListener> listeners) {
+            this.test = test;
+            this.listeners = ImmutableList.copyOf(listeners);
+        }
+
+    }
+
+}
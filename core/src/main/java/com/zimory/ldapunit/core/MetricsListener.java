@@ -0,0 +1,17 @@
+package com.zimory.ldapunit.core;
+
+/**
+ * Receives the duration of every {@link Phase} of every test run through an {@link LdapWatcher}. Listeners can either
+ * be passed to the {@link LdapWatcher} or registered for all of them in
+ * {@code META-INF/services/com.zimory.ldapunit.core.MetricsListener}; see {@link java.util.ServiceLoader}.
+ * <p>
+ * Implementations must be thread-safe, as tests may run concurrently.
+ */
+public interface MetricsListener {
+
+    /**
+     * @param metrics the metrics of the phase that has just completed
+     */
+    void phaseCompleted(PhaseMetrics metrics);
+
+}
@@ -0,0 +1,233 @@
+package com.zimory.ldapunit.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import org.junit.runner.Description;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MetricsListener} that collects the metrics of a whole run and reports the slowest data sets and phases once
+ * it's closed, either to a file (see {@link #REPORT_FILE_PROPERTY}) or to the log. The instance registered in
+ * {@code META-INF/services/com.zimory.ldapunit.core.MetricsListener} is closed when the JVM shuts down. Data sets taking
+ * longer than a threshold (see {@link #LOAD_TIME_THRESHOLD_PROPERTY}) to load, i.e. to be resolved, parsed and imported
+ * in total, are logged as soon as that happens and flagged in the report.
+ */
+public class MetricsReport implements MetricsListener, Closeable {
+
+    /**
+     * The system property that can be used to override the time in milliseconds a data set may take to load before
+     * being flagged, {@value #DEFAULT_LOAD_TIME_THRESHOLD} by default.
+     */
+    public static final String LOAD_TIME_THRESHOLD_PROPERTY = "ldapunit.metrics.loadTimeThreshold";
+    public static final long DEFAULT_LOAD_TIME_THRESHOLD = 1000;
+
+    /**
+     * The system property that can be used to set the file to write the report to instead of logging it.
+     */
+    public static final String REPORT_FILE_PROPERTY = "ldapunit.metrics.reportFile";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsReport.class);
+
+    private static final int SLOWEST_COUNT = 10;
+
+    private static final Comparator<PhaseMetrics> SLOWEST_FIRST = new Comparator<PhaseMetrics>() {
+        @Override
+        public int compare(final PhaseMetrics o1, final PhaseMetrics o2) {
+            return o1.getDurationNanos() > o2.getDurationNanos() ? -1
+                    : o1.getDurationNanos() < o2.getDurationNanos() ? 1 : 0;
+        }
+    };
+
+    private final long loadTimeThresholdNanos;
+    private final File reportFile;
+
+    private final Map<Phase, PhaseTotals> phaseTotals = new EnumMap<Phase, PhaseTotals>(Phase.class);
+    private final Map<String, Long> dataSetLoadNanos = Maps.newHashMap();
+    private final Map<String, CurrentLoad> currentLoads = Maps.newHashMap();
+    private final List<PhaseMetrics> slowestPhases = Lists.newArrayList();
+    private final Set<String> flaggedDataSets = Sets.newTreeSet();
+
+    /**
+     * Creates a report configured by the system properties.
+     */
+    public MetricsReport() {
+        this(Long.getLong(LOAD_TIME_THRESHOLD_PROPERTY, DEFAULT_LOAD_TIME_THRESHOLD),
+                System.getProperty(REPORT_FILE_PROPERTY) != null ? new File(System.getProperty(REPORT_FILE_PROPERTY))
+                        : null);
+    }
+
+    /**
+     * @param loadTimeThresholdMillis the time a data set may take to load before being flagged
+     * @param reportFile the file to write the report to, or {@code null} to log it
+     */
+    public MetricsReport(final long loadTimeThresholdMillis, final File reportFile) {
+        this.loadTimeThresholdNanos = TimeUnit.MILLISECONDS.toNanos(loadTimeThresholdMillis);
+        this.reportFile = reportFile;
+    }
+
+    @Override
+    public synchronized void phaseCompleted(final PhaseMetrics metrics) {
+        PhaseTotals totals = phaseTotals.get(metrics.getPhase());
+
+        if (totals == null) {
+            totals = new PhaseTotals();
+            phaseTotals.put(metrics.getPhase(), totals);
+        }
+
+        totals.add(metrics);
+
+        slowestPhases.add(metrics);
+        Collections.sort(slowestPhases, SLOWEST_FIRST);
+
+        if (slowestPhases.size() > SLOWEST_COUNT) {
+            slowestPhases.remove(SLOWEST_COUNT);
+        }
+
+        if (metrics.getDataSet() == null || !isLoadPhase(metrics.getPhase())) {
+            return;
+        }
+
+        final Long loadNanos = dataSetLoadNanos.get(metrics.getDataSet());
+        dataSetLoadNanos.put(metrics.getDataSet(), (loadNanos != null ? loadNanos : 0) + metrics.getDurationNanos());
+
+        // the phases of loading a data set for a test are added up, until it's loaded for another test
+        CurrentLoad load = currentLoads.get(metrics.getDataSet());
+
+        if (load == null || !Objects.equal(load.test, metrics.getTest())) {
+            load = new CurrentLoad(metrics.getTest());
+            currentLoads.put(metrics.getDataSet(), load);
+        }
+
+        load.nanos += metrics.getDurationNanos();
+
+        if (load.nanos > loadTimeThresholdNanos && flaggedDataSets.add(metrics.getDataSet())) {
+            LOGGER.warn("Data set '{}' took {} ms to load in {}", new Object[] { metrics.getDataSet(),
+                    toMillis(load.nanos), metrics.getTest() });
+        }
+    }
+
+    /**
+     * @return the report of the metrics collected so far
+     */
+    public synchronized String getReport() {
+        final StringBuilder sb = new StringBuilder("LdapUnit metrics report\n");
+
+        sb.append("\nPhases:\n");
+
+        for (final Map.Entry<Phase, PhaseTotals> e : phaseTotals.entrySet()) {
+            final PhaseTotals totals = e.getValue();
+
+            sb.append(String.format("  %-8s %8d ms in %d runs, %d entries, %d bytes%n", e.getKey(),
+                    toMillis(totals.nanos), totals.count, totals.entryCount, totals.byteCount));
+        }
+
+        final List<Map.Entry<String, Long>> dataSets = Lists.newArrayList(dataSetLoadNanos.entrySet());
+        Collections.sort(dataSets, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(final Map.Entry<String, Long> o1, final Map.Entry<String, Long> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+
+        sb.append("\nSlowest data sets to load:\n");
+
+        for (final Map.Entry<String, Long> e : dataSets.subList(0, Math.min(SLOWEST_COUNT, dataSets.size()))) {
+            sb.append(String.format("  %8d ms  %s%s%n", toMillis(e.getValue()), e.getKey(),
+                    flaggedDataSets.contains(e.getKey()) ? "  (over threshold)" : ""));
+        }
+
+        sb.append("\nSlowest phases:\n");
+
+        for (final PhaseMetrics metrics : slowestPhases) {
+            sb.append(String.format("  %8d ms  %-8s %s  %s%n", toMillis(metrics.getDurationNanos()),
+                    metrics.getPhase(), metrics.getDataSet() != null ? metrics.getDataSet() : "-", metrics.getTest()));
+        }
+
+        if (!flaggedDataSets.isEmpty()) {
+            sb.append(String.format("%nData sets taking longer than %d ms to load:%n",
+                    toMillis(loadTimeThresholdNanos)));
+
+            for (final String dataSet : flaggedDataSets) {
+                sb.append("  ").append(dataSet).append('\n');
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Writes the report, unless no metrics have been collected.
+     */
+    @Override
+    public void close() throws IOException {
+        final String report;
+
+        synchronized (this) {
+            if (phaseTotals.isEmpty()) {
+                return;
+            }
+
+            report = getReport();
+        }
+
+        if (reportFile == null) {
+            LOGGER.info(report);
+            return;
+        }
+
+        Files.createParentDirs(reportFile);
+        Files.write(report, reportFile, Charsets.UTF_8);
+    }
+
+    private static boolean isLoadPhase(final Phase phase) {
+        return phase == Phase.RESOLVE || phase == Phase.PARSE || phase == Phase.IMPORT;
+    }
+
+    private static long toMillis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static final class CurrentLoad {
+
+        private final Description test;
+        private long nanos;
+
+        private CurrentLoad(final Description test) {
+            this.test = test;
+        }
+
+    }
+
+    private static final class PhaseTotals {
+
+        private long nanos;
+        private int count;
+        private long entryCount;
+        private long byteCount;
+
+        private void add(final PhaseMetrics metrics) {
+            nanos += metrics.getDurationNanos();
+            count++;
+            entryCount += Math.max(metrics.getEntryCount(), 0);
+            byteCount += Math.max(metrics.getByteCount(), 0);
+        }
+
+    }
+
+}
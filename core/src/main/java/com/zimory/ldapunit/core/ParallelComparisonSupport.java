@@ -0,0 +1,20 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that is able to compare the contents of the directory server
+ * against the expected entries on several threads. Required by {@link MatchMode#PARALLEL}.
+ */
+public interface ParallelComparisonSupport {
+
+    /**
+     * Same as {@link ParsedDataSetSupport#compareEntries(List)}, but splitting the work among several threads. Must
+     * report the same differences as the sequential comparison.
+     * @param expectedEntries the entries expected to be found on the server
+     */
+    void compareEntriesInParallel(List<Entry> expectedEntries);
+
+}
@@ -0,0 +1,28 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that is able to import and compare data sets that have been
+ * parsed already, letting the {@link LdapWatcher} serve them from the {@link DataSetCache}. Without it, the entries are
+ * written back to LDIF and handed to {@link DirectoryServerAccess#importLdif} and
+ * {@link DirectoryServerAccess#compareContents} instead.
+ */
+public interface ParsedDataSetSupport {
+
+    /**
+     * Imports the given entries into the directory server.
+     * @param entries the entries to import, parents before their children; must not be modified
+     */
+    void importEntries(List<Entry> entries);
+
+    /**
+     * Compares the given entries to the contents of the server.
+     * @param expectedEntries the expected entries; must not be modified
+     * @throws AssertionError if the contents don't match
+     */
+    void compareEntries(List<Entry> expectedEntries);
+
+}
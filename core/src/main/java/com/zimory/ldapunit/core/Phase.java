@@ -0,0 +1,38 @@
+package com.zimory.ldapunit.core;
+
+/**
+ * The phases of setting up and verifying the LDAP server contents that are reported to a {@link MetricsListener}.
+ */
+public enum Phase {
+
+    /**
+     * Looking up a data set on the classpath.
+     */
+    RESOLVE,
+
+    /**
+     * Parsing (or reading the compiled form of) a data set that wasn't cached yet.
+     */
+    PARSE,
+
+    /**
+     * Adding the entries of the data sets to the server.
+     */
+    IMPORT,
+
+    /**
+     * Resetting the server, i.e. restoring a snapshot or rolling back the changes made by a test.
+     */
+    RESET,
+
+    /**
+     * Reading the entries to verify back from the server.
+     */
+    EXPORT,
+
+    /**
+     * Comparing the entries read from the server with the expected ones.
+     */
+    COMPARE
+
+}
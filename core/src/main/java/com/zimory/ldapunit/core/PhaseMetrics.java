@@ -0,0 +1,74 @@
+package com.zimory.ldapunit.core;
+
+import com.google.common.base.Objects;
+import org.junit.runner.Description;
+
+/**
+ * The duration of a single {@link Phase} of a test along with the amount of data it processed.
+ */
+public final class PhaseMetrics {
+
+    private final Description test;
+    private final Phase phase;
+    private final String dataSet;
+    private final long durationNanos;
+    private final int entryCount;
+    private final long byteCount;
+
+    public PhaseMetrics(final Description test, final Phase phase, final String dataSet, final long durationNanos,
+            final int entryCount, final long byteCount) {
+        this.test = test;
+        this.phase = phase;
+        this.dataSet = dataSet;
+        this.durationNanos = durationNanos;
+        this.entryCount = entryCount;
+        this.byteCount = byteCount;
+    }
+
+    public Description getTest() {
+        return test;
+    }
+
+    public Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the relative path of the data set (or the comma-separated paths of the data sets) the phase operated on,
+     * or {@code null} if not applicable
+     */
+    public String getDataSet() {
+        return dataSet;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return the number of entries processed, or -1 if unknown
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return the number of bytes processed, or -1 if unknown
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("test", test)
+                .add("phase", phase)
+                .add("dataSet", dataSet)
+                .add("durationNanos", durationNanos)
+                .add("entryCount", entryCount)
+                .add("byteCount", byteCount)
+                .toString();
+    }
+
+}
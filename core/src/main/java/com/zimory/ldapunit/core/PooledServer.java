@@ -0,0 +1,60 @@
+package com.zimory.ldapunit.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import org.junit.rules.ExternalResource;
+
+/**
+ * Leases a server from an {@link InMemoryDirectoryServerPool} for the duration of each test. Has to be applied before
+ * the {@link LdapWatcher} it supplies the server to, which can be ensured with a {@link org.junit.rules.RuleChain}:
+ *
+ * <pre>
+ *     private final PooledServer server = new PooledServer(POOL);
+ *
+ *     {@literal @}{@link org.junit.Rule}
+ *     public {@link org.junit.rules.TestRule} rules = RuleChain.outerRule(server).around(new LdapWatcher(server));
+ * </pre>
+ */
+public final class PooledServer extends ExternalResource implements Supplier<DirectoryServerAccess> {
+
+    private final InMemoryDirectoryServerPool pool;
+
+    private volatile InMemoryDirectoryServerPool.Lease lease;
+
+    public PooledServer(final InMemoryDirectoryServerPool pool) {
+        this.pool = Preconditions.checkNotNull(pool, "pool cannot be null");
+    }
+
+    @Override
+    protected void before() {
+        lease = pool.lease();
+    }
+
+    @Override
+    protected void after() {
+        lease.release();
+        lease = null;
+    }
+
+    @Override
+    public DirectoryServerAccess get() {
+        return getLease().getAccess();
+    }
+
+    public InMemoryDirectoryServer getServer() {
+        return getLease().getServer();
+    }
+
+    public String getRootContextDn() {
+        return getLease().getRootContextDn();
+    }
+
+    private InMemoryDirectoryServerPool.Lease getLease() {
+        final InMemoryDirectoryServerPool.Lease current = lease;
+        Preconditions.checkState(current != null, "no server leased, the rule has to be applied first");
+
+        return current;
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.zimory.ldapunit.core;
+
+/**
+ * Determines how {@link LdapWatcher} prepares the LDAP server contents before each test.
+ */
+public enum ResetMode {
+
+    /**
+     * The data sets are imported on top of whatever the server currently contains. This is the default.
+     */
+    NONE,
+
+    /**
+     * The server is reset to a snapshot before each test. The first time a particular combination of data sets is
+     * encountered, the baseline contents of the server (i.e. the contents before any data set was imported) are
+     * restored, the data sets are imported and a snapshot of the result is taken; every subsequent test using the same
+     * combination of data sets only restores that snapshot. Tests without any data sets are reset to the baseline.
+     * <p>
+     * Requires the {@link DirectoryServerAccess} to implement {@link SnapshotSupport}.
+     */
+    SNAPSHOT
+
+}
@@ -0,0 +1,20 @@
+package com.zimory.ldapunit.core;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that is able to revert the changes made to the directory
+ * server. Required by {@link CleanupStrategy#ROLLBACK}.
+ */
+public interface RollbackSupport {
+
+    /**
+     * Starts recording the changes made to the directory server; called by {@link LdapWatcher} once the data sets have
+     * been imported.
+     */
+    void startRecording();
+
+    /**
+     * Reverts the changes made since {@link #startRecording()} and stops recording.
+     */
+    void rollback();
+
+}
@@ -0,0 +1,68 @@
+package com.zimory.ldapunit.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indicates that the contents of the LDAP server should match a generated data set, described by the same parameters
+ * as a {@link UsingGeneratedDataSet}, rather than an LDIF. To be used in conjunction with {@link LdapWatcher},
+ * possibly along with a {@link ShouldMatchLdapDataSet}, in which case the entries of the LDIF are merged into the
+ * generated ones:
+ *
+ * <pre>
+ *     {@literal @}Test
+ *     {@literal @}UsingGeneratedDataSet(baseDn = "dc=example,dc=com", entryCount = 100000)
+ *     {@literal @}ShouldMatchLdapDataSet("expected-newEntry")
+ *     {@literal @}ShouldMatchGeneratedDataSet(baseDn = "dc=example,dc=com", entryCount = 100000)
+ *     public void addsNewEntry() {
+ *         ...
+ *     }
+ * </pre>
+ * The expected entries are generated one by one while they're compared, and never all held in memory at once.
+ */
+@Inherited
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ShouldMatchGeneratedDataSet {
+
+    /**
+     * @return the DN of the existing entry the entries were generated below
+     */
+    String baseDn();
+
+    /**
+     * @return the number of entries generated
+     */
+    int entryCount();
+
+    /**
+     * @return the maximum number of children of each entry, including the base entry
+     */
+    int fanOut() default DataSetGenerator.DEFAULT_FAN_OUT;
+
+    /**
+     * @return the template of the RDN of each entry
+     */
+    String rdn() default DataSetGenerator.DEFAULT_RDN;
+
+    /**
+     * @return the templates of the attributes of each entry, in the {@code name: value} form of LDIF
+     */
+    String[] attributes() default { "objectClass: top", "objectClass: person", "sn: {random}" };
+
+    /**
+     * @return the seed of the random values
+     */
+    long seed() default 0;
+
+    /**
+     * @return how the contents of the LDAP server are matched against the data set
+     */
+    MatchMode mode() default MatchMode.FULL;
+
+}
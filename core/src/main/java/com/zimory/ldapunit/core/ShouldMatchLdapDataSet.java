@@ -37,4 +37,9 @@ public @interface ShouldMatchLdapDataSet {
      */
     String value() default "";
 
+    /**
+     * @return how the contents of the LDAP server are matched against the data set
+     */
+    MatchMode mode() default MatchMode.FULL;
+
 }
@@ -0,0 +1,26 @@
+package com.zimory.ldapunit.core;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that is able to capture the complete contents of the directory
+ * server and to restore them later on. Required by {@link ResetMode#SNAPSHOT}.
+ * <p>
+ * Snapshots must outlive the {@link DirectoryServerAccess} instance they were created with, as {@link LdapWatcher} is
+ * usually handed a new instance for every test.
+ */
+public interface SnapshotSupport {
+
+    /**
+     * Captures the current contents of the directory server under the given key, replacing any snapshot previously
+     * taken under the same key.
+     * @param key the key to store the snapshot under
+     */
+    void createSnapshot(String key);
+
+    /**
+     * Restores the contents of the directory server from the snapshot taken under the given key.
+     * @param key the key the snapshot was stored under
+     * @return {@code true} if the snapshot existed and was restored, {@code false} otherwise
+     */
+    boolean restoreSnapshot(String key);
+
+}
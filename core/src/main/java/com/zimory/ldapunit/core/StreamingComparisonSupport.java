@@ -0,0 +1,21 @@
+package com.zimory.ldapunit.core;
+
+import com.unboundid.ldap.sdk.Entry;
+
+/**
+ * Optional capability of a {@link DirectoryServerAccess} that is able to compare the contents of the directory server
+ * against the expected entries within a bounded amount of memory, no matter how many entries there are. Required by
+ * {@link MatchMode#STREAMING}.
+ */
+public interface StreamingComparisonSupport {
+
+    /**
+     * Same as {@link ParsedDataSetSupport#compareEntries(java.util.List)}, but sorting both the expected and the
+     * actual entries by DN, spilling them to disk beyond the memory budget, and comparing them in a single pass. Only a
+     * bounded number of the differences are reported, the rest being counted.
+     * @param expectedEntries the entries expected to be found on the server, which are iterated only once
+     * @param memoryBudget the estimated size in bytes of the entries that may be held in memory at once
+     */
+    void compareEntriesStreaming(Iterable<? extends Entry> expectedEntries, long memoryBudget);
+
+}
@@ -0,0 +1,105 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.TestClass;
+
+/**
+ * The data sets declared by the {@link Before} and {@link After} methods of a test class along with the class-level
+ * annotations, so that the class hierarchy is only scanned once per test class rather than twice per test. Instances
+ * are cached by the (weakly referenced) test class.
+ */
+final class TestClassMetadata {
+
+    private static final LoadingCache<Class<?>, TestClassMetadata> CACHE = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<Class<?>, TestClassMetadata>() {
+                @Override
+                public TestClassMetadata load(final Class<?> key) {
+                    return new TestClassMetadata(new TestClass(key));
+                }
+            });
+
+    private final List<String> beforeDataSetPaths;
+    private final List<String> afterExpectedDataSetPaths;
+    private final MatchMode afterMatchMode;
+    private final CleanupStrategy cleanupStrategy;
+
+    private TestClassMetadata(final TestClass testClass) {
+        final ImmutableList.Builder<String> beforePaths = ImmutableList.builder();
+
+        for (final FrameworkMethod method : testClass.getAnnotatedMethods(Before.class)) {
+            final UsingLdapDataSet dataSet = method.getAnnotation(UsingLdapDataSet.class);
+
+            if (dataSet != null) {
+                beforePaths.add(LdapWatcher.getRelativeLdifPath(method.getMethod().getDeclaringClass(),
+                        method.getName(), dataSet));
+            }
+        }
+
+        final ImmutableList.Builder<String> afterPaths = ImmutableList.builder();
+        MatchMode mode = null;
+
+        for (final FrameworkMethod method : testClass.getAnnotatedMethods(After.class)) {
+            final ShouldMatchLdapDataSet dataSet = method.getAnnotation(ShouldMatchLdapDataSet.class);
+
+            if (dataSet != null) {
+                afterPaths.add(LdapWatcher.getRelativeLdifPath(method.getMethod().getDeclaringClass(),
+                        method.getName(), dataSet));
+
+                if (mode == null) {
+                    mode = dataSet.mode();
+                }
+            }
+        }
+
+        final LdapCleanup cleanup = testClass.getJavaClass().getAnnotation(LdapCleanup.class);
+
+        beforeDataSetPaths = beforePaths.build();
+        afterExpectedDataSetPaths = afterPaths.build();
+        afterMatchMode = mode;
+        cleanupStrategy = cleanup != null ? cleanup.value() : CleanupStrategy.NONE;
+    }
+
+    static TestClassMetadata of(final Class<?> testClass) {
+        return CACHE.getUnchecked(testClass);
+    }
+
+    /**
+     * @return the relative paths of the data sets to import declared by the {@link Before} methods, in the order the
+     * methods are run
+     */
+    List<String> getBeforeDataSetPaths() {
+        return beforeDataSetPaths;
+    }
+
+    /**
+     * @return the relative paths of the expected data sets declared by the {@link After} methods
+     */
+    List<String> getAfterExpectedDataSetPaths() {
+        return afterExpectedDataSetPaths;
+    }
+
+    /**
+     * @return the match mode of the first {@link After} method declaring an expected data set, or {@code null} if
+     * there's no such method
+     */
+    MatchMode getAfterMatchMode() {
+        return afterMatchMode;
+    }
+
+    /**
+     * @return the cleanup strategy declared by the test class
+     */
+    CleanupStrategy getCleanupStrategy() {
+        return cleanupStrategy;
+    }
+
+}
@@ -0,0 +1,331 @@
+package com.zimory.ldapunit.core;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedAddRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedAddResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedDeleteRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedDeleteResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyDNRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyDNResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedModifyResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedResult;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.DeleteRequest;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPResult;
+import com.unboundid.ldap.sdk.LDAPSearchException;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModifyDNRequest;
+import com.unboundid.ldap.sdk.ModifyRequest;
+import com.unboundid.ldap.sdk.RDN;
+import com.unboundid.ldap.sdk.ReadOnlyModifyDNRequest;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.ldap.sdk.controls.ManageDsaITRequestControl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Journals the pre-images of the entries written through the LDAP protocol while enabled, so that the changes can be
+ * rolled back by replaying the inverse operations in reverse order. The cost of a rollback therefore depends on what
+ * the test touched rather than on the size of the directory. Like {@link ChangeTracker}, it doesn't see the operations
+ * invoked directly on the {@link InMemoryDirectoryServer}; the rollback fails if the number of entries differs from the
+ * one when journaling started, which is what such operations usually leave behind.
+ * <p>
+ * Has to be installed into the server configuration before the server is created, see
+ * {@link InMemoryDirectoryServerAccess#installUndoLog(InMemoryDirectoryServerConfig)}.
+ */
+public final class UndoLog extends InMemoryOperationInterceptor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UndoLog.class);
+
+    private static final String PENDING_RECORD_PROPERTY = UndoLog.class.getName() + ".pendingRecord";
+
+    private static final Filter ALL_ENTRIES_FILTER = Filter.createPresenceFilter("objectClass");
+
+    private final List<UndoRecord> records = Lists.newArrayList();
+
+    private volatile InMemoryDirectoryServer server;
+    private int entryCount;
+
+    /**
+     * Starts journaling the changes made to the given server, discarding the records journaled so far.
+     * @param server the server this log is installed into, used to read the pre-images
+     */
+    public synchronized void start(final InMemoryDirectoryServer server) {
+        this.server = Preconditions.checkNotNull(server, "server cannot be null");
+        records.clear();
+        entryCount = server.countEntries();
+    }
+
+    /**
+     * Reverts the changes journaled since {@link #start(InMemoryDirectoryServer)} and stops journaling.
+     * @throws IllegalStateException if the number of entries differs from the one when journaling started once the
+     * changes have been reverted, e.g. because entries were added or deleted directly on the server
+     */
+    public synchronized void rollback() {
+        final InMemoryDirectoryServer target = server;
+        Preconditions.checkState(target != null, "not started");
+
+        server = null;
+
+        LOGGER.debug("Rolling back {} operations", records.size());
+
+        try {
+            for (final UndoRecord record : Lists.reverse(records)) {
+                record.undo(target);
+            }
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        } finally {
+            records.clear();
+        }
+
+        final int count = target.countEntries();
+        Preconditions.checkState(count == entryCount, "%s entries after the rollback rather than the %s there were " +
+                "before the test; entries written directly to the InMemoryDirectoryServer are not rolled back",
+                count, entryCount);
+    }
+
+    @Override
+    public void processAddRequest(final InMemoryInterceptedAddRequest add) {
+        if (server != null) {
+            add.setProperty(PENDING_RECORD_PROPERTY, new UndoAdd(parseDn(add.getRequest().getDN())));
+        }
+    }
+
+    @Override
+    public void processAddResult(final InMemoryInterceptedAddResult add) {
+        journal(add, add.getResult());
+    }
+
+    @Override
+    public void processDeleteRequest(final InMemoryInterceptedDeleteRequest delete) throws LDAPException {
+        final InMemoryDirectoryServer target = server;
+
+        if (target != null) {
+            try {
+                // the whole subtree is captured in case the subtree delete control is used
+                final SearchRequest request = new SearchRequest(delete.getRequest().getDN(), SearchScope.SUB,
+                        ALL_ENTRIES_FILTER);
+                request.addControl(new ManageDsaITRequestControl());
+
+                final List<SearchResultEntry> subtree = target.search(request).getSearchEntries();
+
+                delete.setProperty(PENDING_RECORD_PROPERTY, new UndoDelete(subtree));
+            } catch (final LDAPSearchException e) {
+                if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void processDeleteResult(final InMemoryInterceptedDeleteResult delete) {
+        journal(delete, delete.getResult());
+    }
+
+    @Override
+    public void processModifyRequest(final InMemoryInterceptedModifyRequest modify) throws LDAPException {
+        final InMemoryDirectoryServer target = server;
+
+        if (target != null) {
+            final Entry preImage = getEntry(target, modify.getRequest().getDN());
+
+            if (preImage != null) {
+                modify.setProperty(PENDING_RECORD_PROPERTY, new UndoModify(preImage));
+            }
+        }
+    }
+
+    @Override
+    public void processModifyResult(final InMemoryInterceptedModifyResult modify) {
+        journal(modify, modify.getResult());
+    }
+
+    @Override
+    public void processModifyDNRequest(final InMemoryInterceptedModifyDNRequest modifyDn) throws LDAPException {
+        final InMemoryDirectoryServer target = server;
+
+        if (target == null) {
+            return;
+        }
+
+        final ReadOnlyModifyDNRequest request = modifyDn.getRequest();
+        final Entry preImage = getEntry(target, request.getDN());
+
+        if (preImage != null) {
+            final DN oldDn = preImage.getParsedDN();
+            final DN newParentDn = request.getNewSuperiorDN() == null
+                    ? oldDn.getParent() : parseDn(request.getNewSuperiorDN());
+
+            modifyDn.setProperty(PENDING_RECORD_PROPERTY,
+                    new UndoModifyDn(preImage, new DN(new RDN(request.getNewRDN()), newParentDn)));
+        }
+    }
+
+    @Override
+    public void processModifyDNResult(final InMemoryInterceptedModifyDNResult modifyDn) {
+        journal(modifyDn, modifyDn.getResult());
+    }
+
+    private void journal(final InMemoryInterceptedResult intercepted, final LDAPResult result) {
+        final UndoRecord record = (UndoRecord) intercepted.getProperty(PENDING_RECORD_PROPERTY);
+
+        if (record != null && result.getResultCode() == ResultCode.SUCCESS) {
+            synchronized (this) {
+                if (server != null) {
+                    records.add(record);
+                }
+            }
+        }
+    }
+
+    private static DN parseDn(final String dn) {
+        try {
+            return new DN(dn);
+        } catch (final LDAPException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Same as {@link InMemoryDirectoryServer#getEntry(String)}, but returning referral entries too.
+     */
+    private static Entry getEntry(final InMemoryDirectoryServer server, final String dn) throws LDAPException {
+        final SearchRequest request = new SearchRequest(dn, SearchScope.BASE, ALL_ENTRIES_FILTER, "*", "+");
+        request.addControl(new ManageDsaITRequestControl());
+
+        try {
+            return server.searchForEntry(request);
+        } catch (final LDAPSearchException e) {
+            if (e.getResultCode() != ResultCode.NO_SUCH_OBJECT) {
+                throw e;
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the attributes of the existing entry with those of the pre-image.
+     */
+    private static void restoreAttributes(final InMemoryDirectoryServer server, final Entry preImage)
+            throws LDAPException {
+        final Entry current = getEntry(server, preImage.getDN());
+        final List<Modification> modifications = Entry.diff(Entries.withoutGeneratedAttributes(current),
+                Entries.withoutGeneratedAttributes(preImage), true);
+
+        if (!modifications.isEmpty()) {
+            final ModifyRequest request = new ModifyRequest(preImage.getDN(), modifications);
+            request.addControl(new ManageDsaITRequestControl());
+
+            server.modify(request);
+        }
+    }
+
+    private interface UndoRecord {
+
+        void undo(InMemoryDirectoryServer server) throws LDAPException;
+
+    }
+
+    private static final class UndoAdd implements UndoRecord {
+
+        private final DN dn;
+
+        private UndoAdd(final DN dn) {
+            this.dn = dn;
+        }
+
+        @Override
+        public void undo(final InMemoryDirectoryServer server) throws LDAPException {
+            final DeleteRequest request = new DeleteRequest(dn.toString());
+            request.addControl(new ManageDsaITRequestControl());
+
+            server.delete(request);
+        }
+
+    }
+
+    private static final class UndoDelete implements UndoRecord {
+
+        private static final Comparator<Entry> PARENTS_FIRST = new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry o1, final Entry o2) {
+                return Entries.getParsedDn(o1).getRDNs().length - Entries.getParsedDn(o2).getRDNs().length;
+            }
+        };
+
+        private final List<Entry> subtree;
+
+        private UndoDelete(final List<? extends Entry> subtree) {
+            this.subtree = Lists.newArrayList(subtree);
+            Collections.sort(this.subtree, PARENTS_FIRST);
+        }
+
+        @Override
+        public void undo(final InMemoryDirectoryServer server) throws LDAPException {
+            for (final Entry entry : subtree) {
+                server.add(Entries.withoutGeneratedAttributes(entry));
+            }
+        }
+
+    }
+
+    private static final class UndoModify implements UndoRecord {
+
+        private final Entry preImage;
+
+        private UndoModify(final Entry preImage) {
+            this.preImage = preImage;
+        }
+
+        @Override
+        public void undo(final InMemoryDirectoryServer server) throws LDAPException {
+            restoreAttributes(server, preImage);
+        }
+
+    }
+
+    private static final class UndoModifyDn implements UndoRecord {
+
+        private final Entry preImage;
+        private final DN newDn;
+
+        private UndoModifyDn(final Entry preImage, final DN newDn) {
+            this.preImage = preImage;
+            this.newDn = newDn;
+        }
+
+        @Override
+        public void undo(final InMemoryDirectoryServer server) throws LDAPException {
+            final DN oldDn = preImage.getParsedDN();
+
+            final ModifyDNRequest request = oldDn.getParent().equals(newDn.getParent())
+                    ? new ModifyDNRequest(newDn.toString(), oldDn.getRDNString(), true)
+                    : new ModifyDNRequest(newDn.toString(), oldDn.getRDNString(), true, oldDn.getParentString());
+            request.addControl(new ManageDsaITRequestControl());
+
+            server.modifyDN(request);
+
+            restoreAttributes(server, preImage);
+        }
+
+    }
+
+}
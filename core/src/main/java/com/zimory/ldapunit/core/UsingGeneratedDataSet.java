@@ -0,0 +1,61 @@
+package com.zimory.ldapunit.core;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Indicates that the test should pre-populate the LDAP server with a generated data set rather than with an LDIF, e.g.
+ * for testing at a scale at which committing the LDIF is impractical. To be used in conjunction with
+ * {@link LdapWatcher}, possibly along with a {@link UsingLdapDataSet}, in which case the generated entries are imported
+ * after those of the LDIF:
+ *
+ * <pre>
+ *     {@literal @}Test
+ *     {@literal @}UsingGeneratedDataSet(baseDn = "dc=example,dc=com", entryCount = 100000, fanOut = 1000)
+ *     public void syncsEverything() {
+ *         ...
+ *     }
+ * </pre>
+ * The entries are generated on the fly, one by one, by a {@link DataSetGenerator}; see there for the details.
+ */
+@Inherited
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface UsingGeneratedDataSet {
+
+    /**
+     * @return the DN of the existing entry to generate the entries below
+     */
+    String baseDn();
+
+    /**
+     * @return the number of entries to generate
+     */
+    int entryCount();
+
+    /**
+     * @return the maximum number of children of each entry, including the base entry
+     */
+    int fanOut() default DataSetGenerator.DEFAULT_FAN_OUT;
+
+    /**
+     * @return the template of the RDN of each entry
+     */
+    String rdn() default DataSetGenerator.DEFAULT_RDN;
+
+    /**
+     * @return the templates of the attributes of each entry, in the {@code name: value} form of LDIF
+     */
+    String[] attributes() default { "objectClass: top", "objectClass: person", "sn: {random}" };
+
+    /**
+     * @return the seed of the random values
+     */
+    long seed() default 0;
+
+}
@@ -21,12 +21,14 @@ import java.lang.annotation.Target;
  *     });
  * </pre>
  * Note that it's also possible to annotate the {@link org.junit.Before} methods: in this case, the importing will be
- * done before that of each {@link org.junit.Test} method.
+ * done before that of each {@link org.junit.Test} method. Annotating the test class imports the data set once for the
+ * whole class, which requires the {@link LdapWatcher} to be created by an {@link LdapClassWatcher} (see
+ * {@link LdapClassWatcher#methodWatcher()}); any other {@link LdapWatcher} fails the tests of such a class.
  */
 @Inherited
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
-@Target(ElementType.METHOD)
+@Target({ElementType.TYPE, ElementType.METHOD})
 public @interface UsingLdapDataSet {
 
     /**
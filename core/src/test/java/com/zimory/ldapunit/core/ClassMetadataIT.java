@@ -0,0 +1,102 @@
+package com.zimory.ldapunit.core;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link TestClassMetadata}, which isn't visible outside of its package.
+ */
+public class ClassMetadataIT {
+
+    public static class BaseTest {
+
+        @Before
+        @UsingLdapDataSet
+        public void setUp() {
+        }
+
+        @After
+        @ShouldMatchLdapDataSet(mode = MatchMode.INCREMENTAL)
+        public void tearDown() {
+        }
+
+    }
+
+    public static class OverridingTest extends BaseTest {
+
+        @Before
+        @Override
+        @UsingLdapDataSet("OverridingTest/custom")
+        public void setUp() {
+        }
+
+        @After
+        @Override
+        public void tearDown() {
+        }
+
+    }
+
+    public static class InheritingTest extends BaseTest {
+    }
+
+    @LdapCleanup(CleanupStrategy.DELETE_ALL)
+    public static class PlainTest {
+    }
+
+    @Test
+    public void scansClassOnce() {
+        assertThat(TestClassMetadata.of(BaseTest.class), sameInstance(TestClassMetadata.of(BaseTest.class)));
+    }
+
+    @Test
+    public void readsDeclaredDataSets() {
+        final TestClassMetadata metadata = TestClassMetadata.of(BaseTest.class);
+
+        assertThat(metadata.getBeforeDataSetPaths(), equalTo((Object) ImmutableList.of("BaseTest/setUp")));
+        assertThat(metadata.getAfterExpectedDataSetPaths(),
+                equalTo((Object) ImmutableList.of("BaseTest/" + LdapWatcher.EXPECTED_PREFIX + "tearDown")));
+        assertThat(metadata.getAfterMatchMode(), equalTo(MatchMode.INCREMENTAL));
+        assertThat(metadata.getCleanupStrategy(), equalTo(CleanupStrategy.NONE));
+    }
+
+    @Test
+    public void scansSubclassesSeparately() {
+        final TestClassMetadata metadata = TestClassMetadata.of(InheritingTest.class);
+
+        assertThat(metadata, not(sameInstance(TestClassMetadata.of(BaseTest.class))));
+        // named after the class declaring the method
+        assertThat(metadata.getBeforeDataSetPaths(), equalTo((Object) ImmutableList.of("BaseTest/setUp")));
+    }
+
+    @Test
+    public void usesAnnotationsOfOverridingMethods() {
+        final TestClassMetadata metadata = TestClassMetadata.of(OverridingTest.class);
+
+        assertThat(metadata.getBeforeDataSetPaths(), equalTo((Object) ImmutableList.of("OverridingTest/custom")));
+        assertThat(metadata.getAfterExpectedDataSetPaths().isEmpty(), equalTo(true));
+        assertThat(metadata.getAfterMatchMode(), nullValue());
+
+        // the base class is unaffected
+        assertThat(TestClassMetadata.of(BaseTest.class).getBeforeDataSetPaths(),
+                equalTo((Object) ImmutableList.of("BaseTest/setUp")));
+    }
+
+    @Test
+    public void readsCleanupStrategy() {
+        final TestClassMetadata metadata = TestClassMetadata.of(PlainTest.class);
+
+        assertThat(metadata.getCleanupStrategy(), equalTo(CleanupStrategy.DELETE_ALL));
+        assertThat(metadata.getBeforeDataSetPaths().isEmpty(), equalTo(true));
+        assertThat(metadata.getAfterMatchMode(), nullValue());
+    }
+
+}
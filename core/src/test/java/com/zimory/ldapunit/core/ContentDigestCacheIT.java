@@ -0,0 +1,54 @@
+package com.zimory.ldapunit.core;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.unboundid.ldap.sdk.Entry;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests the caching of the digests of expected data sets by {@link ContentDigest}, which isn't visible outside of its
+ * package.
+ */
+public class ContentDigestCacheIT {
+
+    private static final String ROOT_CONTEXT_DN = "dc=example,dc=com";
+
+    @Test
+    public void digestsMergedDataSetOnce() {
+        final List<Entry> first = merge();
+        final List<Entry> second = merge();
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second, equalTo(first));
+
+        final ContentDigest digest = ContentDigest.forDataSet(first);
+
+        assertThat(digest, not(nullValue()));
+        assertThat(ContentDigest.forDataSet(second), sameInstance(digest));
+    }
+
+    @Test
+    public void digestsUnkeyedDataSetEveryTime() {
+        final List<Entry> entries = Lists.newArrayList(generator("users").asList());
+
+        assertThat(ContentDigest.forDataSet(entries), not(sameInstance(ContentDigest.forDataSet(entries))));
+    }
+
+    private static List<Entry> merge() {
+        return Entries.mergeByDn(ImmutableList.of(generator("users").asList(), generator("groups").asList()));
+    }
+
+    private static DataSetGenerator generator(final String description) {
+        return new DataSetGenerator(ROOT_CONTEXT_DN, 20, 5, "cn=entry{index}",
+                Lists.newArrayList("objectClass: top", "description: " + description), 1);
+    }
+
+}
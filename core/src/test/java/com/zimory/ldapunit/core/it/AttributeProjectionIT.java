@@ -0,0 +1,101 @@
+package com.zimory.ldapunit.core.it;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.zimory.ldapunit.core.AttributeProjection;
+import com.zimory.ldapunit.core.InMemoryDirectoryServerAccess;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AttributeProjectionIT {
+
+    private static final String USER_DN = "cn=SomeUser," + Constants.ROOT_CONTEXT_DN;
+
+    private InMemoryDirectoryServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(Constants.ROOT_CONTEXT_DN);
+        cfg.setSchema(null);
+
+        server = new InMemoryDirectoryServer(cfg);
+        server.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+        server.add(new Entry(USER_DN, new Attribute("objectClass", "top"), new Attribute("cn", "SomeUser"),
+                new Attribute("description", "Some Description"), new Attribute("telephoneNumber", "12345")));
+    }
+
+    @After
+    public void tearDown() {
+        server.shutDown(true);
+    }
+
+    @Test
+    public void comparesUserAttributesByDefault() {
+        assertMatches(AttributeProjection.defaults(), user("Some Description", "12345"), true);
+        assertMatches(AttributeProjection.defaults(), user("some description", "12345"), true);
+        assertMatches(AttributeProjection.defaults(), user("Some Description", "54321"), false);
+    }
+
+    @Test
+    public void comparesOnlyIncludedAttributes() {
+        final AttributeProjection projection = AttributeProjection.defaults().including("objectClass", "CN");
+
+        assertMatches(projection, user("Other Description", "54321"), true);
+        assertMatches(projection, new Entry(USER_DN, new Attribute("objectClass", "top"),
+                new Attribute("cn", "SomeUser")), true);
+    }
+
+    @Test
+    public void skipsExcludedAttributes() {
+        final AttributeProjection projection = AttributeProjection.defaults().excluding("telephoneNumber");
+
+        assertMatches(projection, user("Some Description", "54321"), true);
+        assertMatches(projection, user("Other Description", "54321"), false);
+    }
+
+    @Test
+    public void comparesOperationalAttributesOnRequest() {
+        assertMatches(AttributeProjection.defaults().withOperationalAttributes(true),
+                user("Some Description", "12345"), false);
+    }
+
+    @Test
+    public void usesMatchingRules() {
+        final AttributeProjection projection = AttributeProjection.defaults()
+                .withMatchingRule("description", "caseExactMatch");
+
+        assertMatches(projection, user("Some Description", "12345"), true);
+        assertMatches(projection, user("some description", "12345"), false);
+    }
+
+    private void assertMatches(final AttributeProjection projection, final Entry expected, final boolean matches) {
+        final InMemoryDirectoryServerAccess access = new InMemoryDirectoryServerAccess(server,
+                Constants.ROOT_CONTEXT_DN, projection);
+        final List<Entry> expectedEntries = ImmutableList.of(expected);
+
+        boolean matched = true;
+
+        try {
+            access.compareEntries(expectedEntries);
+        } catch (final AssertionError e) {
+            matched = false;
+        }
+
+        assertThat(matched, equalTo(matches));
+    }
+
+    private static Entry user(final String description, final String telephoneNumber) {
+        return new Entry(USER_DN, new Attribute("objectClass", "top"), new Attribute("cn", "SomeUser"),
+                new Attribute("description", description), new Attribute("telephoneNumber", telephoneNumber));
+    }
+
+}
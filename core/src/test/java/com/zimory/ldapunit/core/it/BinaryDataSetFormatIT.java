@@ -0,0 +1,73 @@
+package com.zimory.ldapunit.core.it;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldif.LDIFReader;
+import com.zimory.ldapunit.core.BinaryDataSetFormat;
+import com.zimory.ldapunit.core.DataSetDiff;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class BinaryDataSetFormatIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        final List<Entry> entries = readLdif("/ldifs/RollbackTest/initial.ldif");
+
+        final Entry binaryEntry = new Entry("cn=binary," + Constants.ROOT_CONTEXT_DN);
+        binaryEntry.addAttribute("objectClass", "top", "person");
+        binaryEntry.addAttribute("cn", "binary");
+        binaryEntry.addAttribute("userCertificate;binary", new byte[] { 0, 1, (byte) 0xff, 0x7f });
+        entries.add(binaryEntry);
+
+        final File file = folder.newFile("initial.ldif" + BinaryDataSetFormat.EXTENSION);
+        final OutputStream out = new FileOutputStream(file);
+
+        try {
+            BinaryDataSetFormat.write(entries, out);
+        } finally {
+            out.close();
+        }
+
+        final List<Entry> read = BinaryDataSetFormat.read(ByteBuffer.wrap(Files.toByteArray(file)));
+
+        assertThat(read, equalTo(entries));
+        DataSetDiff.compute(entries, read).assertEmpty();
+
+        final List<Entry> readLazily = Lists.newArrayList(BinaryDataSetFormat.readLazily(
+                ByteBuffer.wrap(Files.toByteArray(file))));
+
+        assertThat(readLazily, equalTo(entries));
+    }
+
+    private static List<Entry> readLdif(final String path) throws Exception {
+        final LDIFReader reader = new LDIFReader(BinaryDataSetFormatIT.class.getResourceAsStream(path));
+
+        try {
+            final List<Entry> entries = Lists.newArrayList();
+
+            for (Entry entry = reader.readEntry(); entry != null; entry = reader.readEntry()) {
+                entries.add(entry);
+            }
+
+            return entries;
+        } finally {
+            reader.close();
+        }
+    }
+
+}
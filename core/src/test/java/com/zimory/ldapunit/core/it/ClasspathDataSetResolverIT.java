@@ -0,0 +1,180 @@
+package com.zimory.ldapunit.core.it;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.Entry;
+import com.zimory.ldapunit.core.BinaryDataSetFormat;
+import com.zimory.ldapunit.core.ClasspathDataSetResolver;
+import com.zimory.ldapunit.core.DataSetCache;
+import com.zimory.ldapunit.core.DataSetResource;
+import com.zimory.ldapunit.core.DirectoryServerAccess;
+import com.zimory.ldapunit.core.InMemoryDirectoryServerAccess;
+import com.zimory.ldapunit.core.LdapWatcher;
+import com.zimory.ldapunit.core.ShouldMatchLdapDataSet;
+import com.zimory.ldapunit.core.UsingLdapDataSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ClasspathDataSetResolverIT {
+
+    private static final String USERS_LDIF =
+            "dn: cn=JarUser," + Constants.ROOT_CONTEXT_DN + "\n" +
+            "cn: JarUser\n" +
+            "objectClass: top\n";
+
+    private static InMemoryDirectoryServer ldapServer;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ClasspathDataSetResolver resolver = new ClasspathDataSetResolver();
+
+    private ClassLoader contextClassLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(Constants.ROOT_CONTEXT_DN);
+        cfg.setSchema(null);
+
+        ldapServer = new InMemoryDirectoryServer(cfg);
+        ldapServer.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+
+        contextClassLoader = Thread.currentThread().getContextClassLoader();
+    }
+
+    @After
+    public void tearDown() {
+        Thread.currentThread().setContextClassLoader(contextClassLoader);
+
+        ldapServer.shutDown(true);
+        ldapServer = null;
+    }
+
+    @Test
+    public void resolvesFromDirectories() throws Exception {
+        final String path = "/ldifs/InnerTest/findAndAddNewEntry.ldif";
+        final byte[] expected = Resources.toByteArray(ClasspathDataSetResolverIT.class.getResource(path));
+
+        final DataSetResource resource = resolver.resolve(path);
+
+        assertThat(resource.getPath(), equalTo(path));
+        assertThat(resource.getSize(), equalTo((long) expected.length));
+        assertThat(ByteStreams.toByteArray(resource), equalTo(expected));
+        assertThat(resource.getContents().remaining(), equalTo(expected.length));
+
+        assertThat(resolver.resolve("/ldifs/InnerTest/missing.ldif"), nullValue());
+    }
+
+    @Test
+    public void resolvesFromJars() throws Exception {
+        final byte[] compiled = compile(USERS_LDIF);
+        useJar(true, "ldifs/JarTest/users.ldif", USERS_LDIF.getBytes(Charsets.UTF_8),
+                "ldifs/JarTest/users.ldif" + BinaryDataSetFormat.EXTENSION, compiled);
+
+        final DataSetResource ldif = resolver.resolve("/ldifs/JarTest/users.ldif");
+        assertThat(new String(ByteStreams.toByteArray(ldif), Charsets.UTF_8), equalTo(USERS_LDIF));
+
+        final DataSetResource binary = resolver.resolve("/ldifs/JarTest/users.ldif" + BinaryDataSetFormat.EXTENSION);
+        assertThat(binary.getSize(), equalTo((long) compiled.length));
+
+        final List<Entry> entries = new DataSetCache(100).getCompiledEntries(binary.getPath(), binary);
+        assertThat(entries.size(), equalTo(1));
+        assertThat(entries.get(0).getDN(), equalTo("cn=JarUser," + Constants.ROOT_CONTEXT_DN));
+
+        assertThat(resolver.resolve("/ldifs/InnerTest/findAndAddNewEntry.ldif"), nullValue());
+    }
+
+    @Test
+    public void resolvesFromJarsWithoutDirectoryEntries() throws Exception {
+        useJar(false, "ldifs/JarTest/users.ldif", USERS_LDIF.getBytes(Charsets.UTF_8));
+
+        final DataSetResource ldif = resolver.resolve("/ldifs/JarTest/users.ldif");
+        assertThat(new String(ByteStreams.toByteArray(ldif), Charsets.UTF_8), equalTo(USERS_LDIF));
+    }
+
+    @Test
+    public void watcherReadsDataSetsFromJars() throws Exception {
+        useJar(true, "ldifs/JarTest/users.ldif", USERS_LDIF.getBytes(Charsets.UTF_8));
+
+        final Result result = JUnitCore.runClasses(JarTest.class);
+
+        assertThat(result.getFailures().toString(), result.wasSuccessful(), equalTo(true));
+        ldapServer.assertEntryExists("cn=JarUser," + Constants.ROOT_CONTEXT_DN);
+    }
+
+    /**
+     * Makes a new jar holding the given entries the only one on the classpath of the context class loader.
+     * @param pathsAndContents the path of every entry, followed by its contents
+     */
+    private void useJar(final boolean directoryEntries, final Object... pathsAndContents) throws Exception {
+        final File jar = folder.newFile("datasets.jar");
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+
+        try {
+            if (directoryEntries) {
+                out.putNextEntry(new JarEntry("ldifs/"));
+                out.putNextEntry(new JarEntry("ldifs/JarTest/"));
+            }
+
+            for (int i = 0; i < pathsAndContents.length; i += 2) {
+                out.putNextEntry(new JarEntry((String) pathsAndContents[i]));
+                out.write((byte[]) pathsAndContents[i + 1]);
+            }
+        } finally {
+            out.close();
+        }
+
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[] { jar.toURI().toURL() }, null));
+    }
+
+    private static byte[] compile(final String ldif) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final String[] lines = ldif.split("\n");
+        BinaryDataSetFormat.write(Collections.singletonList(new Entry(lines)), out);
+
+        return out.toByteArray();
+    }
+
+    public static final class JarTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Test
+        @UsingLdapDataSet("JarTest/users")
+        @ShouldMatchLdapDataSet("JarTest/users")
+        public void readsFromJar() throws Exception {
+            ldapServer.assertEntryExists("cn=JarUser," + Constants.ROOT_CONTEXT_DN);
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.zimory.ldapunit.core.it;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.zimory.ldapunit.core.ContentDigestTracker;
+import com.zimory.ldapunit.core.DataSetGenerator;
+import com.zimory.ldapunit.core.InMemoryDirectoryServerAccess;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ContentDigestIT {
+
+    private InMemoryDirectoryServer server;
+    private ContentDigestTracker tracker;
+    private LDAPConnection connection;
+    private InMemoryDirectoryServerAccess access;
+    private List<Entry> entries;
+
+    @Before
+    public void setUp() throws Exception {
+        final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(Constants.ROOT_CONTEXT_DN);
+        cfg.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("test-ldap-listener", 0));
+        cfg.setSchema(null);
+        tracker = InMemoryDirectoryServerAccess.installContentDigestTracker(cfg);
+
+        server = new InMemoryDirectoryServer(cfg);
+        server.startListening();
+        server.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+
+        connection = server.getConnection();
+        access = new InMemoryDirectoryServerAccess(server, Constants.ROOT_CONTEXT_DN);
+
+        entries = new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 200, 5, "cn=entry{index}",
+                Lists.newArrayList("objectClass: top", "sn: {random}"), 1).asList();
+        access.importEntries(entries);
+    }
+
+    @After
+    public void tearDown() {
+        connection.close();
+        server.shutDown(true);
+    }
+
+    @Test
+    public void followsModifications() throws Exception {
+        access.compareEntriesByDigest(entries);
+
+        final Entry entry = entries.get(42);
+        connection.modify(entry.getDN(), new Modification(ModificationType.REPLACE, "sn", "modified"));
+
+        assertDoesNotMatch(entries, "0 missing, 0 unexpected and 1 changed");
+
+        final List<Entry> expectedEntries = Lists.newArrayList(entries);
+        final Entry modified = entry.duplicate();
+        modified.setAttribute("sn", "MODIFIED");
+        expectedEntries.set(42, modified);
+
+        access.compareEntriesByDigest(expectedEntries);
+    }
+
+    @Test
+    public void followsAddsAndDeletes() throws Exception {
+        final Entry leaf = entries.get(entries.size() - 1);
+        connection.delete(leaf.getDN());
+        connection.add(new Entry("cn=added," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top"),
+                new Attribute("sn", "added")));
+
+        assertDoesNotMatch(entries, "1 missing, 1 unexpected and 0 changed");
+
+        connection.delete("cn=added," + Constants.ROOT_CONTEXT_DN);
+        connection.add(leaf);
+
+        access.compareEntriesByDigest(entries);
+    }
+
+    @Test
+    public void followsMovedSubtrees() throws Exception {
+        final Entry parent = entries.get(0);
+        final String movedDn = "cn=moved," + Constants.ROOT_CONTEXT_DN;
+
+        connection.modifyDN(parent.getDN(), "cn=moved", false);
+
+        assertDoesNotMatch(entries, "76 missing, 76 unexpected");
+
+        connection.modifyDN(movedDn, parent.getRDN().toString(), false);
+
+        access.compareEntriesByDigest(entries);
+    }
+
+    @Test
+    public void restoresDigestWithSnapshots() throws Exception {
+        access.createSnapshot("digest");
+
+        connection.modify(entries.get(7).getDN(), new Modification(ModificationType.DELETE, "sn"));
+        assertDoesNotMatch(entries, "0 missing, 0 unexpected and 1 changed");
+
+        access.restoreSnapshot("digest");
+        access.compareEntriesByDigest(entries);
+
+        access.deleteSubtrees(Lists.newArrayList(entries.get(1).getParsedDN()));
+        assertDoesNotMatch(entries, "31 missing, 0 unexpected");
+    }
+
+    @Test
+    public void recomputesDigestOnceInvalidated() throws Exception {
+        access.compareEntriesByDigest(entries);
+
+        server.modify(entries.get(3).getDN(), new Modification(ModificationType.REPLACE, "sn", "modified"));
+        tracker.invalidate();
+
+        assertDoesNotMatch(entries, "0 missing, 0 unexpected and 1 changed");
+
+        // entries added or deleted directly are detected even without invalidating
+        server.delete(entries.get(entries.size() - 1).getDN());
+
+        assertDoesNotMatch(entries, "1 missing, 0 unexpected and 1 changed");
+    }
+
+    @Test
+    public void fullComparisonSeesDirectModifications() throws Exception {
+        access.compareEntriesByDigest(entries);
+
+        server.modify(entries.get(3).getDN(), new Modification(ModificationType.REPLACE, "sn", "modified"));
+
+        // the digest can't see the modification, but only matching by digest is affected
+        access.compareEntriesByDigest(entries);
+
+        try {
+            access.compareEntries(entries);
+            fail("differences were not reported");
+        } catch (final AssertionError e) {
+            assertThat(e.getMessage(), containsString("0 missing, 0 unexpected and 1 changed"));
+        }
+    }
+
+    private void assertDoesNotMatch(final List<Entry> expectedEntries, final String message) {
+        try {
+            access.compareEntriesByDigest(expectedEntries);
+            fail("differences were not reported");
+        } catch (final AssertionError e) {
+            assertThat(e.getMessage(), containsString(message));
+        }
+    }
+
+}
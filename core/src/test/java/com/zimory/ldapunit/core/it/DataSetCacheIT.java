@@ -0,0 +1,179 @@
+package com.zimory.ldapunit.core.it;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.io.InputSupplier;
+import com.unboundid.ldap.sdk.Entry;
+import com.zimory.ldapunit.core.DataSetCache;
+import com.zimory.ldapunit.core.DataSetResource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class DataSetCacheIT {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parsesDataSetOnce() throws Exception {
+        final DataSetCache cache = new DataSetCache(100);
+
+        final List<Entry> entries = cache.getEntries("/ldifs/users.ldif", ldif("SomeUser", "OtherUser"));
+
+        assertThat(entries.size(), equalTo(2));
+        assertThat(entries.get(1).getDN(), equalTo("cn=OtherUser," + Constants.ROOT_CONTEXT_DN));
+        assertThat(cache.getEntries("/ldifs/users.ldif", ldif("SomeUser", "OtherUser")), sameInstance(entries));
+
+        assertThat(cache.stats().missCount(), equalTo(1L));
+        assertThat(cache.stats().hitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void parsesModifiedFileAgain() throws Exception {
+        final DataSetCache cache = new DataSetCache(100);
+        final File file = folder.newFile("users.ldif");
+
+        Files.write(toLdif("SomeUser"), file, Charsets.UTF_8);
+        final List<Entry> entries = cache.getEntries("/ldifs/users.ldif", Files.newInputStreamSupplier(file));
+
+        Files.write(toLdif("SomeUser", "OtherUser"), file, Charsets.UTF_8);
+        final List<Entry> modifiedEntries = cache.getEntries("/ldifs/users.ldif", Files.newInputStreamSupplier(file));
+
+        assertThat(modifiedEntries, not(sameInstance(entries)));
+        assertThat(modifiedEntries.size(), equalTo(2));
+        assertThat(cache.stats().missCount(), equalTo(2L));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedDataSets() throws Exception {
+        final DataSetCache cache = new DataSetCache(4);
+
+        cache.getEntries("/ldifs/a.ldif", ldif("A1", "A2"));
+        cache.getEntries("/ldifs/b.ldif", ldif("B1", "B2"));
+        cache.getEntries("/ldifs/a.ldif", ldif("A1", "A2"));
+        cache.getEntries("/ldifs/c.ldif", ldif("C1", "C2"));
+
+        assertThat(cache.stats().evictionCount(), equalTo(1L));
+
+        // a was used more recently than b, so b was evicted
+        cache.getEntries("/ldifs/a.ldif", ldif("A1", "A2"));
+        assertThat(cache.stats().hitCount(), equalTo(2L));
+
+        cache.getEntries("/ldifs/b.ldif", ldif("B1", "B2"));
+        assertThat(cache.stats().missCount(), equalTo(4L));
+    }
+
+    @Test
+    public void boundsTotalNumberOfEntries() throws Exception {
+        final DataSetCache cache = new DataSetCache(3);
+
+        cache.getEntries("/ldifs/a.ldif", ldif("A1", "A2"));
+        cache.getEntries("/ldifs/b.ldif", ldif("B1", "B2"));
+
+        assertThat(cache.stats().evictionCount(), equalTo(1L));
+
+        cache.getEntries("/ldifs/b.ldif", ldif("B1", "B2"));
+        cache.getEntries("/ldifs/a.ldif", ldif("A1", "A2"));
+
+        assertThat(cache.stats().hitCount(), equalTo(1L));
+        assertThat(cache.stats().missCount(), equalTo(3L));
+    }
+
+    @Test
+    public void cachesDataSetsLargerThanSegment() throws Exception {
+        final DataSetCache cache = new DataSetCache(100);
+        final String[] names = new String[60];
+
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "User" + i;
+        }
+
+        final List<Entry> entries = cache.getEntries("/ldifs/large.ldif", ldif(names));
+
+        assertThat(cache.getEntries("/ldifs/large.ldif", ldif(names)), sameInstance(entries));
+        assertThat(cache.stats().evictionCount(), equalTo(0L));
+    }
+
+    @Test
+    public void hashesResourceOnlyWhenModified() throws Exception {
+        final DataSetCache cache = new DataSetCache(100);
+        final CountingResource resource = new CountingResource(toLdif("SomeUser").getBytes(Charsets.UTF_8));
+
+        final List<Entry> entries = cache.getEntries("/ldifs/users.ldif", resource, resource);
+        assertThat(resource.reads, equalTo(2));
+
+        assertThat(cache.getEntries("/ldifs/users.ldif", resource, resource), sameInstance(entries));
+        assertThat(resource.reads, equalTo(2));
+
+        resource.lastModified++;
+
+        assertThat(cache.getEntries("/ldifs/users.ldif", resource, resource), sameInstance(entries));
+        assertThat(resource.reads, equalTo(3));
+    }
+
+    private static InputSupplier<? extends InputStream> ldif(final String... names) {
+        return ByteStreams.newInputStreamSupplier(toLdif(names).getBytes(Charsets.UTF_8));
+    }
+
+    private static String toLdif(final String... names) {
+        final StringBuilder sb = new StringBuilder();
+
+        for (final String name : names) {
+            sb.append(String.format("dn: cn=%s,%s%ncn: %1$s%nobjectClass: top%n%n", name, Constants.ROOT_CONTEXT_DN));
+        }
+
+        return sb.toString();
+    }
+
+    private static final class CountingResource implements DataSetResource {
+
+        private final byte[] contents;
+        private long lastModified = 1000;
+        private int reads;
+
+        private CountingResource(final byte[] contents) {
+            this.contents = contents;
+        }
+
+        @Override
+        public String getPath() {
+            return "/ldifs/users.ldif";
+        }
+
+        @Override
+        public long getSize() {
+            return contents.length;
+        }
+
+        @Override
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public ByteBuffer getContents() {
+            return ByteBuffer.wrap(contents);
+        }
+
+        @Override
+        public InputStream getInput() {
+            reads++;
+            return new ByteArrayInputStream(contents);
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.zimory.ldapunit.core.it;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.zimory.ldapunit.core.DataSetDiff;
+import com.zimory.ldapunit.core.DataSetGenerator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class DataSetDiffIT {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws Exception {
+        final List<String> attributes = Lists.newArrayList("objectClass: top", "sn: {random}");
+
+        final List<Entry> expected = new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 20000, 100, "cn=entry{index}",
+                attributes, 1).asList();
+        final List<Entry> actual = Lists.newArrayList(new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 20500, 100,
+                "cn=entry{index}", attributes, 1).asList());
+
+        for (int i = 0; i < 300; i++) {
+            actual.remove(i * 50);
+        }
+
+        for (int i = 0; i < 200; i++) {
+            final Entry changed = actual.get(i * 70).duplicate();
+            changed.setAttribute("sn", "changed");
+            actual.set(i * 70, changed);
+        }
+
+        Collections.shuffle(actual);
+
+        final DataSetDiff sequential = DataSetDiff.compute(expected, actual);
+
+        for (final int partitionCount : new int[] { 1, 7, 64 }) {
+            final DataSetDiff parallel = DataSetDiff.compute(expected, actual, executor, partitionCount);
+
+            assertThat(parallel.getMissingEntries(), equalTo(sequential.getMissingEntries()));
+            assertThat(parallel.getUnexpectedEntries(), equalTo(sequential.getUnexpectedEntries()));
+            assertThat(getExpectedEntries(parallel.getChangedEntries()),
+                    equalTo(getExpectedEntries(sequential.getChangedEntries())));
+            assertThat(parallel.toString(), equalTo(sequential.toString()));
+        }
+
+        assertThat(sequential.getMissingEntries().size(), equalTo(300));
+        assertThat(sequential.getUnexpectedEntries().size(), equalTo(500));
+        assertThat(sequential.getChangedEntries().size(), equalTo(200));
+    }
+
+    @Test
+    public void reportsMissingUnexpectedAndChangedEntries() {
+        final List<Entry> expected = ImmutableList.of(user("Missing", "a"), user("Changed", "expected"),
+                user("Same", "a"));
+        final List<Entry> actual = ImmutableList.of(user("Same", "a"), user("Changed", "actual"),
+                user("Unexpected", "a"));
+
+        final DataSetDiff diff = DataSetDiff.compute(expected, actual);
+
+        assertThat(diff.getMissingEntries(), equalTo((List<Entry>) ImmutableList.of(user("Missing", "a"))));
+        assertThat(diff.getUnexpectedEntries(), equalTo((List<Entry>) ImmutableList.of(user("Unexpected", "a"))));
+        assertThat(diff.getChangedEntries().size(), equalTo(1));
+        assertThat(diff.getChangedEntries().get(0).getActual(), equalTo(user("Changed", "actual")));
+        assertThat(diff.getChangedEntries().get(0).getAttributeNames(), equalTo((Set<String>) ImmutableSet.of("sn")));
+
+        assertThat(diff.toString(), containsString("1 missing, 1 unexpected and 1 changed entries"));
+        assertThat(diff.toString(), containsString(String.format("%n\t\t\tsn: expected [expected], actual [actual]")));
+        assertThat(diff.toString(), not(containsString("Only the first")));
+    }
+
+    @Test
+    public void matchesNormalizedDns() {
+        final Entry expected = new Entry("CN=Some User,DC=Zimory,DC=Com", new Attribute("objectClass", "top"));
+        final Entry actual = new Entry("cn=some user, dc=zimory, dc=com", new Attribute("objectClass", "top"));
+
+        assertThat(DataSetDiff.compute(ImmutableList.of(expected), ImmutableList.of(actual)).isEmpty(), equalTo(true));
+        assertThat(DataSetDiff.computeSorted(Iterators.singletonIterator(expected),
+                Iterators.singletonIterator(actual), 10).isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void listsOnlyRetainedDifferences() {
+        final List<Entry> expected = Lists.newArrayList();
+        final List<Entry> actual = Lists.newArrayList();
+
+        for (int i = 0; i < 10; i++) {
+            expected.add(user(String.format("missing%02d", i), "a"));
+            actual.add(user(String.format("unexpected%02d", i), "a"));
+        }
+
+        final DataSetDiff diff = DataSetDiff.computeSorted(expected.iterator(), actual.iterator(), 3);
+
+        assertThat(diff.getMissingCount(), equalTo(10));
+        assertThat(diff.getUnexpectedCount(), equalTo(10));
+        assertThat(diff.getMissingEntries().size(), equalTo(3));
+        assertThat(diff.getUnexpectedEntries().size(), equalTo(3));
+        assertThat(diff.toString(), containsString("10 missing, 10 unexpected and 0 changed entries"));
+        assertThat(diff.toString(), containsString(String.format("%n\tOnly the first 3, 3 and 0 of them are listed")));
+    }
+
+    private static Entry user(final String name, final String sn) {
+        return new Entry("cn=" + name + "," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top"),
+                new Attribute("cn", name), new Attribute("sn", sn));
+    }
+
+    private static List<Entry> getExpectedEntries(final List<DataSetDiff.ChangedEntry> changedEntries) {
+        final List<Entry> entries = Lists.newArrayList();
+
+        for (final DataSetDiff.ChangedEntry changed : changedEntries) {
+            entries.add(changed.getExpected());
+        }
+
+        return entries;
+    }
+
+}
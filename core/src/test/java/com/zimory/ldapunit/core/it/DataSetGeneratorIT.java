@@ -0,0 +1,107 @@
+package com.zimory.ldapunit.core.it;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.zimory.ldapunit.core.DataSetGenerator;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class DataSetGeneratorIT {
+
+    private static final List<String> ATTRIBUTES = ImmutableList.of("objectClass: top", "sn: {random}");
+
+    @Test
+    public void generatesSameEntriesForSameSeed() {
+        final List<Entry> entries = generator(500, 7, ATTRIBUTES, 42).asList();
+
+        assertThat(entries, equalTo(generator(500, 7, ATTRIBUTES, 42).asList()));
+        assertThat(entries.get(123), equalTo(generator(500, 7, ATTRIBUTES, 42).generate(123)));
+        assertThat(entries.get(123), not(equalTo(generator(500, 7, ATTRIBUTES, 43).generate(123))));
+    }
+
+    @Test
+    public void generatesDistinctRandomValuesForManyPlaceholders() {
+        // the values of the last placeholders of an entry used to collide with the first ones of the next entry
+        final List<String> attributes = ImmutableList.of("description: " + Strings.repeat("{random} ", 40).trim());
+        final DataSetGenerator generator = generator(2, 2, attributes, 1);
+
+        final List<String> values = Lists.newArrayList();
+        values.addAll(Arrays.asList(generator.generate(0).getAttributeValue("description").split(" ")));
+        values.addAll(Arrays.asList(generator.generate(1).getAttributeValue("description").split(" ")));
+
+        assertThat(values.size(), equalTo(80));
+        assertThat(Sets.newHashSet(values).size(), equalTo(80));
+    }
+
+    @Test
+    public void generatesParentsBeforeChildren() throws Exception {
+        final Set<DN> generated = Sets.newHashSet(new DN(Constants.ROOT_CONTEXT_DN));
+
+        for (final Entry entry : generator(1000, 3, ATTRIBUTES, 1).asList()) {
+            assertThat(entry.getDN(), generated.contains(entry.getParsedDN().getParent()), equalTo(true));
+            generated.add(entry.getParsedDN());
+        }
+    }
+
+    @Test
+    public void limitsChildrenToFanOut() throws Exception {
+        final Map<DN, Integer> childCounts = Maps.newHashMap();
+
+        for (final Entry entry : generator(2600, 50, ATTRIBUTES, 1).asList()) {
+            final DN parent = entry.getParsedDN().getParent();
+            final Integer count = childCounts.get(parent);
+
+            childCounts.put(parent, count != null ? count + 1 : 1);
+        }
+
+        for (final int count : childCounts.values()) {
+            assertThat(count, lessThanOrEqualTo(50));
+        }
+
+        assertThat(childCounts.get(new DN(Constants.ROOT_CONTEXT_DN)), equalTo(50));
+    }
+
+    @Test
+    public void laysOutDnsByIndex() {
+        final DataSetGenerator generator = generator(2500, 50, ATTRIBUTES, 1);
+
+        assertThat(generator.generate(0).getDN(), equalTo("cn=entry0," + Constants.ROOT_CONTEXT_DN));
+        assertThat(generator.generate(49).getDN(), equalTo("cn=entry49," + Constants.ROOT_CONTEXT_DN));
+        assertThat(generator.generate(50).getDN(), equalTo("cn=entry50,cn=entry0," + Constants.ROOT_CONTEXT_DN));
+        assertThat(generator.generate(2499).getDN(),
+                equalTo("cn=entry2499,cn=entry48," + Constants.ROOT_CONTEXT_DN));
+
+        // the attributes of the RDN are added to the entry
+        assertThat(generator.generate(2499).getAttributeValue("cn"), equalTo("entry2499"));
+    }
+
+    @Test
+    public void listsEntriesBelowBaseDn() throws Exception {
+        final List<DN> dns = generator(2500, 50, ATTRIBUTES, 1).getTopLevelDns();
+
+        assertThat(dns.size(), equalTo(50));
+        assertThat(dns.get(49), equalTo(new DN("cn=entry49," + Constants.ROOT_CONTEXT_DN)));
+        assertThat(generator(20, 50, ATTRIBUTES, 1).getTopLevelDns().size(), equalTo(20));
+    }
+
+    private static DataSetGenerator generator(final int entryCount, final int fanOut, final List<String> attributes,
+            final long seed) {
+        return new DataSetGenerator(Constants.ROOT_CONTEXT_DN, entryCount, fanOut, DataSetGenerator.DEFAULT_RDN,
+                attributes, seed);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.zimory.ldapunit.core.it;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.zimory.ldapunit.core.InMemoryDirectoryServerAccess;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class InMemoryDirectoryServerAccessIT {
+
+    private static final Entry USER = new Entry("cn=SomeUser," + Constants.ROOT_CONTEXT_DN,
+            new Attribute("objectClass", "top"), new Attribute("cn", "SomeUser"));
+
+    private static final Entry REFERRAL = new Entry("ou=Elsewhere," + Constants.ROOT_CONTEXT_DN,
+            new Attribute("objectClass", "referral", "extensibleObject"), new Attribute("ou", "Elsewhere"),
+            new Attribute("ref", "ldap://elsewhere.example.com/ou=Elsewhere,dc=example,dc=com"));
+
+    private InMemoryDirectoryServer server;
+    private InMemoryDirectoryServerAccess access;
+
+    @Before
+    public void setUp() throws Exception {
+        final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(Constants.ROOT_CONTEXT_DN);
+        cfg.setSchema(null);
+
+        server = new InMemoryDirectoryServer(cfg);
+        server.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+
+        access = new InMemoryDirectoryServerAccess(server, Constants.ROOT_CONTEXT_DN);
+    }
+
+    @After
+    public void tearDown() {
+        server.shutDown(true);
+    }
+
+    @Test
+    public void excludesRootEntry() {
+        final List<Entry> entries = ImmutableList.of(USER);
+        access.importEntries(entries);
+
+        access.compareEntries(entries);
+        access.compareEntriesInParallel(entries);
+        access.compareEntriesStreaming(entries, 8192);
+    }
+
+    @Test
+    public void comparesReferralEntries() {
+        final List<Entry> entries = ImmutableList.of(USER, REFERRAL);
+        access.importEntries(entries);
+
+        access.compareEntries(entries);
+        access.compareEntriesInParallel(entries);
+        access.compareEntriesStreaming(entries, 8192);
+
+        try {
+            access.compareEntries(ImmutableList.of(USER));
+            fail("referral entry was not reported");
+        } catch (final AssertionError e) {
+            assertThat(e.getMessage(), containsString("0 missing, 1 unexpected"));
+        }
+    }
+
+    @Test
+    public void deletesReferralEntries() {
+        access.importEntries(ImmutableList.of(USER, REFERRAL));
+        access.deleteAll();
+
+        assertThat(server.countEntries(), equalTo(1));
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.zimory.ldapunit.core.it;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.zimory.ldapunit.core.InMemoryDirectoryServerPool;
+import com.zimory.ldapunit.core.LdapWatcher;
+import com.zimory.ldapunit.core.PooledServer;
+import com.zimory.ldapunit.core.ResetMode;
+import com.zimory.ldapunit.core.ShouldMatchLdapDataSet;
+import com.zimory.ldapunit.core.UsingLdapDataSet;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.ParallelComputer;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TestRule;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class InMemoryDirectoryServerPoolIT {
+
+    private static InMemoryDirectoryServerPool pool;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        pool = new InMemoryDirectoryServerPool(2, new InMemoryDirectoryServerPool.ServerFactory() {
+            @Override
+            public InMemoryDirectoryServer create(final int index) throws LDAPException {
+                final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(Constants.ROOT_CONTEXT_DN);
+                cfg.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("test-ldap-listener-" + index, 0));
+                cfg.setSchema(null);
+
+                final InMemoryDirectoryServer server = new InMemoryDirectoryServer(cfg);
+                server.startListening();
+                server.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+
+                return server;
+            }
+        });
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        pool.shutDown();
+        pool = null;
+    }
+
+    public static final class InnerTest {
+
+        private final PooledServer server = new PooledServer(pool);
+
+        @Rule
+        public TestRule rules = RuleChain.outerRule(server).around(new LdapWatcher(server, ResetMode.SNAPSHOT));
+
+        @Test
+        @UsingLdapDataSet("InnerTest/findAndAddNewEntry")
+        @ShouldMatchLdapDataSet("InnerTest/expected-findAndAddNewEntry")
+        public void first() throws Exception {
+            findAndAddNewEntry();
+        }
+
+        @Test
+        @UsingLdapDataSet("InnerTest/findAndAddNewEntry")
+        @ShouldMatchLdapDataSet("InnerTest/expected-findAndAddNewEntry")
+        public void second() throws Exception {
+            findAndAddNewEntry();
+        }
+
+        @Test
+        @UsingLdapDataSet("InnerTest/findAndAddNewEntry")
+        @ShouldMatchLdapDataSet("InnerTest/expected-findAndAddNewEntry")
+        public void third() throws Exception {
+            findAndAddNewEntry();
+        }
+
+        @Test
+        @UsingLdapDataSet("InnerTest/findAndAddNewEntry")
+        @ShouldMatchLdapDataSet("InnerTest/expected-findAndAddNewEntry")
+        public void fourth() throws Exception {
+            findAndAddNewEntry();
+        }
+
+        private void findAndAddNewEntry() throws Exception {
+            final LDAPConnection connection = server.getServer().getConnection();
+
+            try {
+                assertThat(connection.getEntry("cn=SomeUser," + server.getRootContextDn()) != null, equalTo(true));
+                connection.add(new Entry("cn=SomeOtherUser," + server.getRootContextDn(),
+                        new Attribute("objectClass", "top"), new Attribute("cn", "SomeOtherUser")));
+
+                // give the other tests a chance to run concurrently
+                Thread.sleep(50);
+            } finally {
+                connection.close();
+            }
+        }
+
+    }
+
+    @Test
+    public void pretendTest() throws Exception {
+        final Result result = JUnitCore.runClasses(ParallelComputer.methods(), InnerTest.class);
+
+        if (!result.getFailures().isEmpty()) {
+            for (final Failure failure : result.getFailures()) {
+                failure.getException().printStackTrace();
+            }
+        }
+
+        assertThat(result.getRunCount(), equalTo(4));
+        assertThat(result.wasSuccessful(), equalTo(true));
+    }
+
+}
@@ -0,0 +1,236 @@
+package com.zimory.ldapunit.core.it;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedDeleteRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchEntry;
+import com.unboundid.ldap.listener.interceptor.InMemoryInterceptedSearchRequest;
+import com.unboundid.ldap.listener.interceptor.InMemoryOperationInterceptor;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.controls.SubtreeDeleteRequestControl;
+import com.zimory.ldapunit.core.DataSetGenerator;
+import com.zimory.ldapunit.core.LdapConnectionPoolAccess;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class LdapConnectionPoolAccessIT {
+
+    private InMemoryDirectoryServer server;
+    private LDAPConnectionPool pool;
+    private LdapConnectionPoolAccess access;
+
+    private final List<Long> rootSearchConnectionIds = new CopyOnWriteArrayList<Long>();
+
+    @Before
+    public void setUp() throws Exception {
+        final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(Constants.ROOT_CONTEXT_DN);
+        cfg.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("test-ldap-listener", 0));
+        cfg.setSchema(null);
+        cfg.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+            @Override
+            public void processSearchRequest(final InMemoryInterceptedSearchRequest request) {
+                if (request.getRequest().getBaseDN().equalsIgnoreCase(Constants.ROOT_CONTEXT_DN)) {
+                    rootSearchConnectionIds.add(request.getConnectionID());
+                }
+            }
+        });
+
+        server = new InMemoryDirectoryServer(cfg);
+        server.startListening();
+        server.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+
+        pool = server.getConnectionPool(2);
+
+        // small enough for the window to fill up and for the contents to span several pages
+        access = new LdapConnectionPoolAccess(pool, Constants.ROOT_CONTEXT_DN, 8, 10);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        server.shutDown(true);
+    }
+
+    @Test
+    public void importsAndComparesHierarchy() {
+        // a fan-out of 3 makes most of the entries children of entries added just before them
+        final List<Entry> entries = new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 500, 3, "cn=entry{index}",
+                Lists.newArrayList("objectClass: top", "sn: {random}"), 1).asList();
+
+        access.importEntries(entries);
+
+        assertThat(server.countEntries(false), equalTo(501));
+        access.compareEntries(entries);
+
+        try {
+            access.compareEntries(entries.subList(0, 499));
+            fail("unexpected entry was not reported");
+        } catch (final AssertionError e) {
+            assertThat(e.getMessage().contains("0 missing, 1 unexpected"), equalTo(true));
+        }
+    }
+
+    @Test
+    public void readsAllPagesOverOneConnection() throws Exception {
+        final List<Entry> entries = new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 95, 10, "cn=entry{index}",
+                Lists.newArrayList("objectClass: top"), 1).asList();
+
+        access.importEntries(entries);
+
+        // makes sure the pool has more than one connection to hand out
+        final LDAPConnection first = pool.getConnection();
+        final LDAPConnection second = pool.getConnection();
+        pool.releaseConnection(first);
+        pool.releaseConnection(second);
+
+        rootSearchConnectionIds.clear();
+
+        access.compareEntries(entries);
+
+        // 96 entries including the root entry, 10 per page
+        assertThat(rootSearchConnectionIds.size(), equalTo(10));
+        assertThat(Sets.newHashSet(rootSearchConnectionIds).size(), equalTo(1));
+    }
+
+    @Test
+    public void comparesWithinMemoryBudget() {
+        final List<Entry> entries = new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 200, 3, "cn=entry{index}",
+                Lists.newArrayList("objectClass: top", "sn: {random}"), 1).asList();
+
+        access.importEntries(entries);
+        access.compareEntriesStreaming(entries, 8192);
+
+        try {
+            access.compareEntriesStreaming(entries.subList(1, 200), 8192);
+            fail("missing entries were not reported");
+        } catch (final AssertionError e) {
+            assertThat(e.getMessage().contains("0 missing, 1 unexpected"), equalTo(true));
+        }
+    }
+
+    @Test
+    public void importsAndComparesLdif() throws Exception {
+        access.importLdif(Resources.newInputStreamSupplier(
+                getClass().getResource("/ldifs/InnerTest/expected-findAndAddNewEntry.ldif")));
+
+        assertThat(server.countEntries(false), equalTo(3));
+        access.compareContents(Resources.newInputStreamSupplier(
+                getClass().getResource("/ldifs/InnerTest/expected-findAndAddNewEntry.ldif")));
+    }
+
+    @Test
+    public void deletesSubtrees() throws Exception {
+        importAndDelete();
+    }
+
+    @Test
+    public void deletesLeafFirstWithoutSubtreeDeleteControl() throws Exception {
+        tearDown();
+
+        final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(Constants.ROOT_CONTEXT_DN);
+        cfg.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("test-ldap-listener", 0));
+        cfg.setSchema(null);
+        cfg.addInMemoryOperationInterceptor(new InMemoryOperationInterceptor() {
+            @Override
+            public void processSearchEntry(final InMemoryInterceptedSearchEntry entry) {
+                // hides the support for the subtree delete control from the client
+                if (entry.getSearchEntry().getDN().isEmpty()) {
+                    final Entry rootDse = entry.getSearchEntry().duplicate();
+                    rootDse.removeAttributeValue("supportedControl",
+                            SubtreeDeleteRequestControl.SUBTREE_DELETE_REQUEST_OID);
+                    entry.setSearchEntry(rootDse);
+                }
+            }
+
+            @Override
+            public void processDeleteRequest(final InMemoryInterceptedDeleteRequest request) throws LDAPException {
+                if (request.getRequest().hasControl(SubtreeDeleteRequestControl.SUBTREE_DELETE_REQUEST_OID)) {
+                    throw new LDAPException(ResultCode.UNAVAILABLE_CRITICAL_EXTENSION);
+                }
+            }
+        });
+
+        server = new InMemoryDirectoryServer(cfg);
+        server.startListening();
+        server.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+
+        pool = server.getConnectionPool(2);
+        access = new LdapConnectionPoolAccess(pool, Constants.ROOT_CONTEXT_DN, 8, 10);
+
+        importAndDelete();
+    }
+
+    private void importAndDelete() throws Exception {
+        final List<Entry> entries = new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 200, 3, "cn=entry{index}",
+                Lists.newArrayList("objectClass: top"), 1).asList();
+
+        access.importEntries(entries);
+
+        final int subtreeSize = server.countEntriesBelow("cn=entry0," + Constants.ROOT_CONTEXT_DN);
+        access.deleteSubtrees(ImmutableList.of(new DN("cn=entry0," + Constants.ROOT_CONTEXT_DN),
+                new DN("cn=missing," + Constants.ROOT_CONTEXT_DN)));
+
+        assertThat(server.countEntries(false), equalTo(201 - subtreeSize));
+        server.assertEntryMissing("cn=entry0," + Constants.ROOT_CONTEXT_DN);
+        server.assertEntryExists("cn=entry1," + Constants.ROOT_CONTEXT_DN);
+
+        access.deleteAll();
+
+        assertThat(server.countEntries(false), equalTo(1));
+    }
+
+    @Test
+    public void comparesAffectedReferralEntries() throws Exception {
+        final Entry referral = new Entry("ou=Elsewhere," + Constants.ROOT_CONTEXT_DN,
+                new Attribute("objectClass", "referral", "extensibleObject"), new Attribute("ou", "Elsewhere"),
+                new Attribute("ref", "ldap://elsewhere.example.com/ou=Elsewhere,dc=example,dc=com"));
+        server.add(referral);
+
+        access.compareAffectedEntries(Sets.newHashSet(referral.getParsedDN()), ImmutableList.of(referral));
+
+        try {
+            access.compareAffectedEntries(Sets.newHashSet(referral.getParsedDN()), ImmutableList.<Entry>of());
+            fail("referral entry was not reported");
+        } catch (final AssertionError e) {
+            assertThat(e.getMessage().contains("0 missing, 1 unexpected"), equalTo(true));
+        }
+    }
+
+    @Test
+    public void reportsFailedAdd() {
+        final List<Entry> entries = new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 50, 10, "cn=entry{index}",
+                Lists.newArrayList("objectClass: top"), 1).asList();
+
+        access.importEntries(entries);
+
+        try {
+            access.importEntries(entries);
+            fail("adding existing entries did not fail");
+        } catch (final RuntimeException e) {
+            assertThat(e.getMessage().contains("already exists"), equalTo(true));
+        }
+
+        // the connection is still usable
+        access.compareEntries(entries);
+    }
+
+}
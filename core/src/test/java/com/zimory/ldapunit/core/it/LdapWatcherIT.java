@@ -1,38 +1,77 @@
 package com.zimory.ldapunit.core.it;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
 import com.google.common.base.Supplier;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
+import com.google.common.io.Resources;
 import com.unboundid.ldap.listener.InMemoryDirectoryServer;
 import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerSnapshot;
 import com.unboundid.ldap.listener.InMemoryListenerConfig;
 import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.DeleteRequest;
 import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ModifyRequest;
+import com.unboundid.ldap.sdk.controls.ManageDsaITRequestControl;
+import com.zimory.ldapunit.core.BinaryDataSetFormat;
+import com.zimory.ldapunit.core.CleanupStrategy;
 import com.zimory.ldapunit.core.DirectoryServerAccess;
 import com.zimory.ldapunit.core.InMemoryDirectoryServerAccess;
+import com.zimory.ldapunit.core.LdapCleanup;
+import com.zimory.ldapunit.core.LdapClassWatcher;
 import com.zimory.ldapunit.core.LdapWatcher;
+import com.zimory.ldapunit.core.MatchMode;
+import com.zimory.ldapunit.core.MetricsListener;
+import com.zimory.ldapunit.core.Phase;
+import com.zimory.ldapunit.core.PhaseMetrics;
+import com.zimory.ldapunit.core.ResetMode;
+import com.zimory.ldapunit.core.ShouldMatchGeneratedDataSet;
 import com.zimory.ldapunit.core.ShouldMatchLdapDataSet;
+import com.zimory.ldapunit.core.UsingGeneratedDataSet;
 import com.zimory.ldapunit.core.UsingLdapDataSet;
 import org.junit.AfterClass;
+import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.ClassRule;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
 import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItems;
 import static org.junit.Assert.assertThat;
 
 public class LdapWatcherIT {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LdapWatcherIT.class);
 
+    private static final int LARGE_DATA_SET_SIZE = 2000;
+
     private static InMemoryDirectoryServer ldapServer;
 
     @BeforeClass
@@ -48,6 +87,9 @@ public class LdapWatcherIT {
         cfg.setListenerConfigs(listenerCfg);
         cfg.setSchema(null);
 
+        InMemoryDirectoryServerAccess.installChangeTracker(cfg);
+        InMemoryDirectoryServerAccess.installUndoLog(cfg);
+
         ldapServer = new InMemoryDirectoryServer(cfg);
         ldapServer.startListening();
 
@@ -88,10 +130,827 @@ public class LdapWatcherIT {
 
     }
 
+    public static final class SnapshotTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        }, ResetMode.SNAPSHOT);
+
+        @Test
+        @UsingLdapDataSet("SnapshotTest/someUser")
+        @ShouldMatchLdapDataSet
+        public void addFirstUser() throws Exception {
+            ldapServer.add(new Entry("cn=FirstUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top")));
+        }
+
+        @Test
+        @UsingLdapDataSet("SnapshotTest/someUser")
+        @ShouldMatchLdapDataSet
+        public void addSecondUser() throws Exception {
+            ldapServer.add(new Entry("cn=SecondUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top")));
+        }
+
+    }
+
+    public static final class IncrementalTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        }, ResetMode.SNAPSHOT);
+
+        @Test
+        @UsingLdapDataSet("IncrementalTest/users")
+        @ShouldMatchLdapDataSet(mode = MatchMode.INCREMENTAL)
+        public void modifyUser() throws Exception {
+            final LDAPConnection connection = ldapServer.getConnection();
+
+            try {
+                connection.modify("cn=SecondUser," + Constants.ROOT_CONTEXT_DN,
+                        new Modification(ModificationType.REPLACE, "description", "modified"));
+            } finally {
+                connection.close();
+            }
+        }
+
+        @Test
+        @UsingLdapDataSet("IncrementalTest/users")
+        @ShouldMatchLdapDataSet(value = "IncrementalTest/expected-modifyUser", mode = MatchMode.INCREMENTAL)
+        public void forgetToModifyUser() throws Exception {
+        }
+
+    }
+
+    public static final class DeltaTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        }, ResetMode.SNAPSHOT);
+
+        @Test
+        @UsingLdapDataSet("DeltaTest/users")
+        @ShouldMatchLdapDataSet(mode = MatchMode.DELTA)
+        public void modifyRenameAndDelete() throws Exception {
+            final LDAPConnection connection = ldapServer.getConnection();
+
+            try {
+                connection.modify("cn=SomeUser," + Constants.ROOT_CONTEXT_DN,
+                        new Modification(ModificationType.REPLACE, "description", "modified"));
+                connection.modifyDN("ou=Unit," + Constants.ROOT_CONTEXT_DN, "ou=Renamed", true);
+                connection.delete("cn=OtherUser," + Constants.ROOT_CONTEXT_DN);
+                connection.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN,
+                        new Attribute("objectClass", "top"), new Attribute("cn", "NewUser")));
+            } finally {
+                connection.close();
+            }
+
+            ldapServer.assertEntryExists("cn=Child,ou=Renamed," + Constants.ROOT_CONTEXT_DN);
+        }
+
+        @Test
+        @UsingLdapDataSet("DeltaTest/users")
+        @ShouldMatchLdapDataSet(mode = MatchMode.DELTA)
+        public void forgetToDelete() throws Exception {
+        }
+
+    }
+
+    @LdapCleanup(CleanupStrategy.ROLLBACK)
+    public static final class RollbackTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Test
+        @ShouldMatchLdapDataSet
+        public void modifyRenameAndDelete() throws Exception {
+            final LDAPConnection connection = ldapServer.getConnection();
+
+            try {
+                connection.modify("cn=SomeUser," + Constants.ROOT_CONTEXT_DN,
+                        new Modification(ModificationType.REPLACE, "description", "modified"));
+                connection.modifyDN("cn=Child,ou=Unit," + Constants.ROOT_CONTEXT_DN, "cn=Renamed", true);
+                connection.delete("cn=Renamed,ou=Unit," + Constants.ROOT_CONTEXT_DN);
+                connection.delete("ou=Unit," + Constants.ROOT_CONTEXT_DN);
+                connection.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN,
+                        new Attribute("objectClass", "top"), new Attribute("cn", "NewUser")));
+            } finally {
+                connection.close();
+            }
+        }
+
+        @Test
+        @ShouldMatchLdapDataSet
+        public void addEntry() throws Exception {
+            final LDAPConnection connection = ldapServer.getConnection();
+
+            try {
+                connection.add(new Entry("cn=OtherUser," + Constants.ROOT_CONTEXT_DN,
+                        new Attribute("objectClass", "top"), new Attribute("cn", "OtherUser")));
+            } finally {
+                connection.close();
+            }
+        }
+
+    }
+
+    @LdapCleanup(CleanupStrategy.ROLLBACK)
+    public static final class ReferralRollbackTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Test
+        @UsingLdapDataSet("ReferralRollbackTest/referrals")
+        public void modifyAndDeleteReferrals() throws Exception {
+            final LDAPConnection connection = ldapServer.getConnection();
+
+            try {
+                final ModifyRequest modify = new ModifyRequest("ou=Elsewhere," + Constants.ROOT_CONTEXT_DN,
+                        new Modification(ModificationType.REPLACE, "ref", "ldap://modified.example.com/"));
+                modify.addControl(new ManageDsaITRequestControl());
+                connection.modify(modify);
+
+                final DeleteRequest delete = new DeleteRequest("ou=Away," + Constants.ROOT_CONTEXT_DN);
+                delete.addControl(new ManageDsaITRequestControl());
+                connection.delete(delete);
+            } finally {
+                connection.close();
+            }
+        }
+
+    }
+
+    @LdapCleanup(CleanupStrategy.ROLLBACK)
+    public static final class DirectWriteRollbackTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Test
+        public void addEntryDirectly() throws Exception {
+            ldapServer.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top")));
+        }
+
+    }
+
+    public static final class DeleteTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Test
+        @UsingLdapDataSet("RollbackTest/initial")
+        @LdapCleanup(CleanupStrategy.DELETE_INSERTED)
+        public void deleteInserted() throws Exception {
+            ldapServer.add(new Entry("cn=NewChild,ou=Unit," + Constants.ROOT_CONTEXT_DN,
+                    new Attribute("objectClass", "top")));
+            ldapServer.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top")));
+        }
+
+        @Test
+        @UsingLdapDataSet("RollbackTest/initial")
+        @UsingGeneratedDataSet(baseDn = Constants.ROOT_CONTEXT_DN, entryCount = 500, fanOut = 10)
+        @LdapCleanup(CleanupStrategy.DELETE_INSERTED)
+        public void deleteInsertedGenerated() throws Exception {
+            ldapServer.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top")));
+        }
+
+        @Test
+        @UsingLdapDataSet("RollbackTest/initial")
+        @LdapCleanup(CleanupStrategy.DELETE_ALL)
+        public void deleteAll() throws Exception {
+            ldapServer.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top")));
+        }
+
+    }
+
+    public static final class MetricsTest {
+
+        private static final Set<Phase> PHASES = Collections.synchronizedSet(EnumSet.noneOf(Phase.class));
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        }, ResetMode.NONE, new MetricsListener() {
+            @Override
+            public void phaseCompleted(final PhaseMetrics metrics) {
+                PHASES.add(metrics.getPhase());
+            }
+        });
+
+        @Test
+        @UsingLdapDataSet("InnerTest/findAndAddNewEntry")
+        @ShouldMatchLdapDataSet("InnerTest/expected-findAndAddNewEntry")
+        public void findAndAddNewEntry() throws Exception {
+            ldapServer.add(new Entry("cn=SomeOtherUser," + Constants.ROOT_CONTEXT_DN,
+                    new Attribute("objectClass", "top")));
+        }
+
+    }
+
+    public static final class GeneratedTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        }, ResetMode.SNAPSHOT);
+
+        @Test
+        @UsingGeneratedDataSet(baseDn = Constants.ROOT_CONTEXT_DN, entryCount = 2500, fanOut = 50)
+        @ShouldMatchLdapDataSet
+        @ShouldMatchGeneratedDataSet(baseDn = Constants.ROOT_CONTEXT_DN, entryCount = 2500, fanOut = 50)
+        public void addEntry() throws Exception {
+            ldapServer.assertEntryExists("cn=entry2499,cn=entry48," + Constants.ROOT_CONTEXT_DN);
+            ldapServer.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top"),
+                    new Attribute("cn", "NewUser")));
+        }
+
+        @Test
+        @UsingGeneratedDataSet(baseDn = Constants.ROOT_CONTEXT_DN, entryCount = 2500, fanOut = 50)
+        @ShouldMatchGeneratedDataSet(baseDn = Constants.ROOT_CONTEXT_DN, entryCount = 2500, fanOut = 50,
+                mode = MatchMode.INCREMENTAL)
+        public void forgetToKeepEntry() throws Exception {
+            final LDAPConnection connection = ldapServer.getConnection();
+
+            try {
+                connection.delete("cn=entry2499,cn=entry48," + Constants.ROOT_CONTEXT_DN);
+            } finally {
+                connection.close();
+            }
+        }
+
+    }
+
+    public static final class StreamingTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        }, ResetMode.SNAPSHOT);
+
+        @Test
+        @UsingLdapDataSet("InnerTest/findAndAddNewEntry")
+        @ShouldMatchLdapDataSet(value = "InnerTest/expected-findAndAddNewEntry", mode = MatchMode.STREAMING)
+        public void findAndAddNewEntry() throws Exception {
+            ldapServer.add(new Entry("cn=SomeOtherUser," + Constants.ROOT_CONTEXT_DN,
+                    new Attribute("objectClass", "top")));
+        }
+
+        @Test
+        @UsingGeneratedDataSet(baseDn = Constants.ROOT_CONTEXT_DN, entryCount = 2500, fanOut = 50)
+        @ShouldMatchGeneratedDataSet(baseDn = Constants.ROOT_CONTEXT_DN, entryCount = 2500, fanOut = 50,
+                mode = MatchMode.STREAMING)
+        public void forgetToKeepEntry() throws Exception {
+            ldapServer.delete("cn=entry2499,cn=entry48," + Constants.ROOT_CONTEXT_DN);
+        }
+
+    }
+
+    public static final class StreamingCompiledTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Test
+        @ShouldMatchLdapDataSet(value = "StreamingCompiledTest/users", mode = MatchMode.STREAMING)
+        public void addCompiledUser() throws Exception {
+            ldapServer.add(new Entry("cn=CompiledUser," + Constants.ROOT_CONTEXT_DN,
+                    new Attribute("objectClass", "top")));
+        }
+
+    }
+
+    public static final class CompressedTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        }, ResetMode.SNAPSHOT);
+
+        @Test
+        @UsingLdapDataSet("CompressedTest/users")
+        @ShouldMatchLdapDataSet
+        public void addUser() throws Exception {
+            ldapServer.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top"),
+                    new Attribute("cn", "NewUser")));
+        }
+
+        @Test
+        @UsingLdapDataSet("CompressedTest/users.ldif.gz")
+        @ShouldMatchLdapDataSet(value = "CompressedTest/expected-addUser.ldif.sz", mode = MatchMode.STREAMING)
+        public void addUserStreaming() throws Exception {
+            ldapServer.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top"),
+                    new Attribute("cn", "NewUser")));
+        }
+
+    }
+
+    @UsingLdapDataSet("ClassScopedTest/shared")
+    public static final class ClassScopedTest {
+
+        @ClassRule
+        public static LdapClassWatcher classWatcher = new LdapClassWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Rule
+        public LdapWatcher ldapWatcher = classWatcher.methodWatcher();
+
+        @Test
+        @ShouldMatchLdapDataSet
+        public void readOnly() throws Exception {
+            ldapServer.assertEntryExists("cn=SharedUser," + Constants.ROOT_CONTEXT_DN);
+        }
+
+        @Test
+        @ShouldMatchLdapDataSet
+        public void addEntry() throws Exception {
+            ldapServer.add(new Entry("cn=NewUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top"),
+                    new Attribute("cn", "NewUser")));
+        }
+
+        @Test
+        @UsingLdapDataSet("ClassScopedTest/extraUser")
+        @ShouldMatchLdapDataSet
+        public void layerExtraUser() throws Exception {
+            ldapServer.assertEntryExists("cn=ExtraUser," + Constants.ROOT_CONTEXT_DN);
+        }
+
+    }
+
+    @UsingLdapDataSet("ClassScopedTest/shared")
+    public static final class ClassScopedWithoutClassRuleTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Test
+        public void readOnly() throws Exception {
+        }
+
+    }
+
+    public static final class MergeTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Before
+        @UsingLdapDataSet("MergeTest/base")
+        public void setUp() {
+        }
+
+        @Test
+        @UsingLdapDataSet("MergeTest/extra")
+        @ShouldMatchLdapDataSet
+        public void mergesOverlappingEntries() throws Exception {
+            ldapServer.assertValueExists("cn=SomeUser," + Constants.ROOT_CONTEXT_DN, "description", "base");
+            ldapServer.assertValueExists("cn=SomeUser," + Constants.ROOT_CONTEXT_DN, "description", "extra");
+        }
+
+    }
+
+    public static final class FallbackTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                final DirectoryServerAccess delegate = new InMemoryDirectoryServerAccess(ldapServer,
+                        Constants.ROOT_CONTEXT_DN);
+
+                // implements none of the optional capabilities
+                return new DirectoryServerAccess() {
+                    @Override
+                    public void importLdif(final InputSupplier<? extends InputStream> ldif) throws IOException {
+                        delegate.importLdif(ldif);
+                    }
+
+                    @Override
+                    public void compareContents(final InputSupplier<? extends InputStream> expectedLdif)
+                            throws IOException {
+                        delegate.compareContents(expectedLdif);
+                    }
+                };
+            }
+        });
+
+        @Test
+        @UsingLdapDataSet("InnerTest/findAndAddNewEntry")
+        @ShouldMatchLdapDataSet("InnerTest/expected-findAndAddNewEntry")
+        public void findAndAddNewEntry() throws Exception {
+            ldapServer.assertEntryExists("cn=SomeUser," + Constants.ROOT_CONTEXT_DN);
+            ldapServer.add(new Entry("cn=SomeOtherUser," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top")));
+        }
+
+    }
+
+    public static final class LargeImportTest {
+
+        private static final AtomicInteger LDIF_IMPORTS = new AtomicInteger();
+        private static final AtomicInteger ENTRY_IMPORTS = new AtomicInteger();
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN) {
+                    @Override
+                    public void importLdif(final InputSupplier<? extends InputStream> ldif) throws IOException {
+                        LDIF_IMPORTS.incrementAndGet();
+                        super.importLdif(ldif);
+                    }
+
+                    @Override
+                    public void importEntries(final List<Entry> entries) {
+                        ENTRY_IMPORTS.incrementAndGet();
+                        super.importEntries(entries);
+                    }
+                };
+            }
+        });
+
+        @Test
+        @UsingLdapDataSet("LargeImportTest/large")
+        public void importLargeDataSet() throws Exception {
+            assertThat(ldapServer.countEntries(false), equalTo(LARGE_DATA_SET_SIZE + 1));
+        }
+
+    }
+
+    public static final class StaleCompiledTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(new Supplier<DirectoryServerAccess>() {
+            @Override
+            public DirectoryServerAccess get() {
+                return new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN);
+            }
+        });
+
+        @Test
+        @UsingLdapDataSet("StaleCompiledTest/users")
+        public void importNewerLdif() throws Exception {
+            ldapServer.assertEntryExists("cn=SomeUser," + Constants.ROOT_CONTEXT_DN);
+            ldapServer.assertEntryMissing("cn=CompiledUser," + Constants.ROOT_CONTEXT_DN);
+        }
+
+    }
+
     @Test
     public void pretendTest() throws Exception {
-        final Result result = JUnitCore.runClasses(InnerTest.class);
+        assertSuccessful(JUnitCore.runClasses(InnerTest.class));
+    }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        assertSuccessful(runOnEmptyServer(SnapshotTest.class));
+    }
+
+    @Test
+    public void incrementalTest() throws Exception {
+        final Result result = runOnEmptyServer(IncrementalTest.class);
+
+        assertThat(result.getRunCount(), equalTo(2));
+        assertThat(result.getFailureCount(), equalTo(1));
+        assertThat(result.getFailures().get(0).getDescription().getMethodName(), equalTo("forgetToModifyUser"));
+    }
+
+    @Test
+    public void deltaTest() throws Exception {
+        final Result result = runOnEmptyServer(DeltaTest.class);
+
+        assertThat(result.getRunCount(), equalTo(2));
+        assertThat(result.getFailureCount(), equalTo(1));
+        assertThat(result.getFailures().get(0).getDescription().getMethodName(), equalTo("forgetToDelete"));
+    }
+
+    @Test
+    public void deleteInsertedTest() throws Exception {
+        final InMemoryDirectoryServerSnapshot fixture = clearServer();
+
+        try {
+            assertSuccessful(new JUnitCore().run(Request.method(DeleteTest.class, "deleteInserted")));
+
+            assertThat(ldapServer.countEntries(), equalTo(2));
+            ldapServer.assertEntryExists("cn=NewUser," + Constants.ROOT_CONTEXT_DN);
+        } finally {
+            ldapServer.restoreSnapshot(fixture);
+        }
+    }
+
+    @Test
+    public void deleteInsertedGeneratedTest() throws Exception {
+        final InMemoryDirectoryServerSnapshot fixture = clearServer();
+
+        try {
+            assertSuccessful(new JUnitCore().run(Request.method(DeleteTest.class, "deleteInsertedGenerated")));
+
+            assertThat(ldapServer.countEntries(), equalTo(2));
+            ldapServer.assertEntryExists("cn=NewUser," + Constants.ROOT_CONTEXT_DN);
+        } finally {
+            ldapServer.restoreSnapshot(fixture);
+        }
+    }
+
+    @Test
+    public void deleteAllTest() throws Exception {
+        final InMemoryDirectoryServerSnapshot fixture = clearServer();
+
+        try {
+            assertSuccessful(new JUnitCore().run(Request.method(DeleteTest.class, "deleteAll")));
+
+            assertThat(ldapServer.countEntries(), equalTo(1));
+            ldapServer.assertEntryExists(Constants.ROOT_CONTEXT_DN);
+        } finally {
+            ldapServer.restoreSnapshot(fixture);
+        }
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        assertSuccessful(runOnEmptyServer(MetricsTest.class));
+
+        assertThat(MetricsTest.PHASES, hasItems(Phase.RESOLVE, Phase.IMPORT, Phase.EXPORT, Phase.COMPARE));
+    }
+
+    @Test
+    public void generatedTest() throws Exception {
+        final Result result = runOnEmptyServer(GeneratedTest.class);
+
+        assertThat(result.getRunCount(), equalTo(2));
+        assertThat(result.getFailureCount(), equalTo(1));
+        assertThat(result.getFailures().get(0).getDescription().getMethodName(), equalTo("forgetToKeepEntry"));
+    }
+
+    @Test
+    public void streamingTest() throws Exception {
+        final Result result = runOnEmptyServer(StreamingTest.class);
+
+        assertThat(result.getRunCount(), equalTo(2));
+        assertThat(result.getFailureCount(), equalTo(1));
+        assertThat(result.getFailures().get(0).getDescription().getMethodName(), equalTo("forgetToKeepEntry"));
+        assertThat(result.getFailures().get(0).getMessage(), containsString("1 missing, 0 unexpected"));
+    }
+
+    @Test
+    public void compressedTest() throws Exception {
+        assertSuccessful(runOnEmptyServer(CompressedTest.class));
+    }
+
+    @Test
+    public void classScopedTest() throws Exception {
+        assertSuccessful(runOnEmptyServer(ClassScopedTest.class));
+    }
+
+    @Test
+    public void classScopedWithoutClassRuleTest() throws Exception {
+        final Result result = runOnEmptyServer(ClassScopedWithoutClassRuleTest.class);
+
+        assertThat(result.getFailureCount(), equalTo(1));
+        assertThat(result.getFailures().get(0).getMessage(), containsString("LdapClassWatcher"));
+    }
+
+    @Test
+    public void mergeTest() throws Exception {
+        assertSuccessful(runOnEmptyServer(MergeTest.class));
+    }
+
+    @Test
+    public void fallbackTest() throws Exception {
+        assertSuccessful(runOnEmptyServer(FallbackTest.class));
+    }
+
+    @Test
+    public void largeImportTest() throws Exception {
+        final File ldif = getTestClassesLdif("LargeImportTest/large.ldif");
+        writeLargeDataSet(ldif);
+
+        try {
+            assertSuccessful(runOnEmptyServer(LargeImportTest.class));
+        } finally {
+            ldif.delete();
+            ldif.getParentFile().delete();
+        }
+
+        // streamed into the server rather than parsed up front
+        assertThat(LargeImportTest.LDIF_IMPORTS.get(), equalTo(1));
+        assertThat(LargeImportTest.ENTRY_IMPORTS.get(), equalTo(0));
+    }
+
+    @Test
+    public void staleCompiledTest() throws Exception {
+        final File ldif = getTestClassesLdif("StaleCompiledTest/users.ldif");
+        final File compiled = getTestClassesLdif("StaleCompiledTest/users.ldif" + BinaryDataSetFormat.EXTENSION);
+
+        Files.createParentDirs(ldif);
+        Files.write("dn: cn=SomeUser," + Constants.ROOT_CONTEXT_DN + "\ncn: SomeUser\nobjectClass: top\n", ldif,
+                Charsets.UTF_8);
+
+        final OutputStream out = new FileOutputStream(compiled);
+
+        try {
+            BinaryDataSetFormat.write(Collections.singletonList(new Entry("cn=CompiledUser," +
+                    Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top"))), out);
+        } finally {
+            out.close();
+        }
+
+        assertThat(compiled.setLastModified(ldif.lastModified() - 60000), equalTo(true));
+
+        try {
+            assertSuccessful(runOnEmptyServer(StaleCompiledTest.class));
+        } finally {
+            ldif.delete();
+            compiled.delete();
+            ldif.getParentFile().delete();
+        }
+    }
+
+    @Test
+    public void streamingCompiledTest() throws Exception {
+        // there's no LDIF, so the compiled data set has to be used
+        final File compiled = getTestClassesLdif("StreamingCompiledTest/users.ldif" + BinaryDataSetFormat.EXTENSION);
+        Files.createParentDirs(compiled);
+
+        final OutputStream out = new FileOutputStream(compiled);
+
+        try {
+            BinaryDataSetFormat.write(Collections.singletonList(new Entry("cn=CompiledUser," +
+                    Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top"),
+                    new Attribute("cn", "CompiledUser"))), out);
+        } finally {
+            out.close();
+        }
+
+        try {
+            assertSuccessful(runOnEmptyServer(StreamingCompiledTest.class));
+        } finally {
+            compiled.delete();
+            compiled.getParentFile().delete();
+        }
+    }
+
+    @Test
+    public void rollbackTest() throws Exception {
+        final InputSupplier<InputStream> initialLdif = Resources.newInputStreamSupplier(
+                LdapWatcherIT.class.getResource("/ldifs/RollbackTest/initial.ldif"));
+
+        final InMemoryDirectoryServerSnapshot fixture = clearServer();
+
+        try {
+            final InMemoryDirectoryServerAccess serverAccess = new InMemoryDirectoryServerAccess(
+                    ldapServer, Constants.ROOT_CONTEXT_DN);
+            serverAccess.importLdif(initialLdif);
+
+            assertSuccessful(JUnitCore.runClasses(RollbackTest.class));
+
+            serverAccess.compareContents(initialLdif);
+        } finally {
+            ldapServer.restoreSnapshot(fixture);
+        }
+    }
+
+    @Test
+    public void referralRollbackTest() throws Exception {
+        final InMemoryDirectoryServerSnapshot fixture = clearServer();
+
+        try {
+            assertSuccessful(JUnitCore.runClasses(ReferralRollbackTest.class));
+
+            new InMemoryDirectoryServerAccess(ldapServer, Constants.ROOT_CONTEXT_DN).compareContents(
+                    Resources.newInputStreamSupplier(
+                            LdapWatcherIT.class.getResource("/ldifs/ReferralRollbackTest/referrals.ldif")));
+        } finally {
+            ldapServer.restoreSnapshot(fixture);
+        }
+    }
+
+    @Test
+    public void directWriteRollbackTest() throws Exception {
+        final Result result = runOnEmptyServer(DirectWriteRollbackTest.class);
+
+        assertThat(result.getFailureCount(), equalTo(1));
+        assertThat(result.getFailures().get(0).getMessage(), containsString("not rolled back"));
+    }
+
+    /**
+     * Runs the tests of the given class on a server holding nothing but the root entry, see {@link #clearServer()}.
+     */
+    private static Result runOnEmptyServer(final Class<?> testClass) throws Exception {
+        final InMemoryDirectoryServerSnapshot fixture = clearServer();
+
+        try {
+            return JUnitCore.runClasses(testClass);
+        } finally {
+            ldapServer.restoreSnapshot(fixture);
+        }
+    }
+
+    /**
+     * Removes everything but the root entry from the server, for the tests that expect to start from scratch no matter
+     * which tests ran before them.
+     * @return a snapshot of the previous contents, to be restored once the tests are done
+     */
+    private static InMemoryDirectoryServerSnapshot clearServer() throws Exception {
+        final InMemoryDirectoryServerSnapshot fixture = ldapServer.createSnapshot();
+
+        ldapServer.clear();
+        ldapServer.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+
+        return fixture;
+    }
+
+    /**
+     * @return the given data set file in the test classes directory, for the data sets created by the tests
+     */
+    private static File getTestClassesLdif(final String relativePath) throws Exception {
+        return new File(new File(LdapWatcherIT.class.getResource(LdapWatcher.LDIF_DIR).toURI()), relativePath);
+    }
+
+    /**
+     * Writes a data set larger than the threshold above which the data sets are streamed into the server.
+     */
+    private static void writeLargeDataSet(final File ldif) throws IOException {
+        Files.createParentDirs(ldif);
+
+        final String description = Strings.repeat("x", (int) (LdapWatcher.DEFAULT_STREAMING_IMPORT_THRESHOLD
+                / LARGE_DATA_SET_SIZE));
+        final Writer writer = Files.newWriter(ldif, Charsets.UTF_8);
+
+        try {
+            for (int i = 0; i < LARGE_DATA_SET_SIZE; i++) {
+                writer.write(String.format("dn: cn=entry%d,%s%ncn: entry%1$d%nobjectClass: top%ndescription: %s%n%n",
+                        i, Constants.ROOT_CONTEXT_DN, description));
+            }
+        } finally {
+            writer.close();
+        }
+    }
 
+    private static void assertSuccessful(final Result result) {
         if (!result.getFailures().isEmpty()) {
             for (final Failure failure : result.getFailures()) {
                 failure.getException().printStackTrace();
@@ -0,0 +1,81 @@
+package com.zimory.ldapunit.core.it;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.zimory.ldapunit.core.LdapWatcher;
+import com.zimory.ldapunit.core.ManagedServerConfig;
+import com.zimory.ldapunit.core.ManagedServers;
+import com.zimory.ldapunit.core.ResetMode;
+import com.zimory.ldapunit.core.ShouldMatchLdapDataSet;
+import com.zimory.ldapunit.core.UsingLdapDataSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ManagedServersIT {
+
+    private static final ManagedServerConfig CONFIG = ManagedServerConfig.forRootContext(Constants.ROOT_CONTEXT_DN);
+
+    public static final class ManagedTest {
+
+        @Rule
+        public LdapWatcher ldapWatcher = new LdapWatcher(ManagedServers.access(CONFIG), ResetMode.SNAPSHOT);
+
+        @Test
+        @UsingLdapDataSet("ManagedTest/somePerson")
+        @ShouldMatchLdapDataSet("ManagedTest/expected-addPerson")
+        public void addPerson() throws Exception {
+            ManagedServers.getServer(CONFIG).add(new Entry("cn=OtherPerson," + Constants.ROOT_CONTEXT_DN,
+                    new Attribute("objectClass", "top", "person"), new Attribute("cn", "OtherPerson"),
+                    new Attribute("sn", "Person")));
+        }
+
+    }
+
+    @Test
+    public void reusesServersWithEqualConfigs() {
+        final InMemoryDirectoryServer server = ManagedServers.getServer(CONFIG);
+
+        assertThat(ManagedServers.getServer(ManagedServerConfig.forRootContext(Constants.ROOT_CONTEXT_DN)),
+                sameInstance(server));
+        assertThat(ManagedServers.getServer(CONFIG.withListener(false)), not(sameInstance(server)));
+    }
+
+    @Test
+    public void enforcesSchema() throws Exception {
+        try {
+            ManagedServers.getServer(CONFIG).add(new Entry("cn=NoSurname," + Constants.ROOT_CONTEXT_DN,
+                    new Attribute("objectClass", "top", "person"), new Attribute("cn", "NoSurname")));
+            fail("entry without a surname was added");
+        } catch (final LDAPException e) {
+            assertThat(e.getResultCode(), equalTo(ResultCode.OBJECT_CLASS_VIOLATION));
+        }
+    }
+
+    @Test
+    public void resetsToCleanServerAcrossRuns() {
+        // the second run only passes if the server is reset to what it was right after being started
+        for (int i = 0; i < 2; i++) {
+            final Result result = JUnitCore.runClasses(ManagedTest.class);
+
+            for (final Failure failure : result.getFailures()) {
+                failure.getException().printStackTrace();
+            }
+
+            assertThat(result.getRunCount(), equalTo(1));
+            assertThat(result.wasSuccessful(), equalTo(true));
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.zimory.ldapunit.core.it;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.zimory.ldapunit.core.MetricsReport;
+import com.zimory.ldapunit.core.Phase;
+import com.zimory.ldapunit.core.PhaseMetrics;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class MetricsReportIT {
+
+    private static final Description FIRST_TEST = Description.createTestDescription(MetricsReportIT.class, "first");
+    private static final Description SECOND_TEST = Description.createTestDescription(MetricsReportIT.class, "second");
+
+    private static final String FLAGGED = "(over threshold)";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void flagsDataSetsBySummedLoadTime() {
+        final MetricsReport report = new MetricsReport(100, null);
+
+        // no single phase exceeds the threshold, but all of them together do
+        report.phaseCompleted(metrics(FIRST_TEST, Phase.RESOLVE, "/ldifs/slow.ldif", 40));
+        report.phaseCompleted(metrics(FIRST_TEST, Phase.PARSE, "/ldifs/slow.ldif", 40));
+        report.phaseCompleted(metrics(FIRST_TEST, Phase.IMPORT, "/ldifs/slow.ldif", 40));
+
+        assertThat(report.getReport(), containsString("/ldifs/slow.ldif  " + FLAGGED));
+    }
+
+    @Test
+    public void doesNotFlagDataSetsLoadedQuickly() {
+        final MetricsReport report = new MetricsReport(100, null);
+
+        report.phaseCompleted(metrics(FIRST_TEST, Phase.RESOLVE, "/ldifs/fast.ldif", 40));
+        report.phaseCompleted(metrics(FIRST_TEST, Phase.IMPORT, "/ldifs/fast.ldif", 40));
+        // loading the data set for another test starts over
+        report.phaseCompleted(metrics(SECOND_TEST, Phase.IMPORT, "/ldifs/fast.ldif", 40));
+        // not a load phase
+        report.phaseCompleted(metrics(SECOND_TEST, Phase.COMPARE, "/ldifs/fast.ldif", 500));
+
+        assertThat(report.getReport(), containsString("/ldifs/fast.ldif"));
+        assertThat(report.getReport(), not(containsString(FLAGGED)));
+    }
+
+    @Test
+    public void writesReportWhenClosed() throws Exception {
+        final File reportFile = new File(folder.getRoot(), "reports/metrics.txt");
+        final MetricsReport report = new MetricsReport(100, reportFile);
+
+        report.close();
+        assertThat(reportFile.exists(), equalTo(false));
+
+        report.phaseCompleted(metrics(FIRST_TEST, Phase.PARSE, "/ldifs/some.ldif", 20));
+        report.close();
+
+        assertThat(Files.toString(reportFile, Charsets.UTF_8), equalTo(report.getReport()));
+    }
+
+    private static PhaseMetrics metrics(final Description test, final Phase phase, final String dataSet,
+            final long durationMillis) {
+        return new PhaseMetrics(test, phase, dataSet, TimeUnit.MILLISECONDS.toNanos(durationMillis), 1, -1);
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.zimory.ldapunit.core.it;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.zimory.ldapunit.core.DataSetGenerator;
+import com.zimory.ldapunit.core.InMemoryDirectoryServerAccess;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class StreamingComparisonIT {
+
+    /**
+     * Small enough for every side to be spilled into hundreds of runs, which are merged several times.
+     */
+    private static final long MEMORY_BUDGET = 4096;
+
+    private InMemoryDirectoryServer server;
+    private InMemoryDirectoryServerAccess access;
+    private List<Entry> entries;
+
+    @Before
+    public void setUp() throws Exception {
+        final InMemoryDirectoryServerConfig cfg = new InMemoryDirectoryServerConfig(Constants.ROOT_CONTEXT_DN);
+        cfg.setSchema(null);
+
+        server = new InMemoryDirectoryServer(cfg);
+        server.addEntries(Constants.ROOT_CONTEXT_ENTRY.split("\n"));
+
+        access = new InMemoryDirectoryServerAccess(server, Constants.ROOT_CONTEXT_DN);
+
+        entries = new DataSetGenerator(Constants.ROOT_CONTEXT_DN, 1000, 10, "cn=entry{index}",
+                Lists.newArrayList("objectClass: top", "sn: {random}"), 1).asList();
+        access.importEntries(entries);
+    }
+
+    @After
+    public void tearDown() {
+        server.shutDown(true);
+    }
+
+    @Test
+    public void matchesEntriesInAnyOrder() {
+        access.compareEntriesStreaming(entries, MEMORY_BUDGET);
+
+        final List<Entry> shuffled = Lists.newArrayList(entries);
+        Collections.reverse(shuffled);
+
+        access.compareEntriesStreaming(shuffled, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void reportsDifferences() throws Exception {
+        server.modify(entries.get(10).getDN(), new Modification(ModificationType.REPLACE, "sn", "modified"));
+        server.delete(entries.get(entries.size() - 1).getDN());
+        server.add(new Entry("cn=added," + Constants.ROOT_CONTEXT_DN, new Attribute("objectClass", "top")));
+
+        assertDoesNotMatch(entries, "1 missing, 1 unexpected and 1 changed");
+    }
+
+    @Test
+    public void reportsOnlyTheFirstDifferences() {
+        assertDoesNotMatch(ImmutableList.<Entry>of(), "0 missing, 1000 unexpected and 0 changed");
+        assertDoesNotMatch(ImmutableList.<Entry>of(), "Only the first 0, 100 and 0 of them are listed");
+    }
+
+    @Test
+    public void mergesEntriesWithTheSameDn() {
+        final List<Entry> expectedEntries = Lists.newArrayList();
+
+        for (final Entry entry : entries) {
+            final Entry withoutSn = entry.duplicate();
+            withoutSn.removeAttribute("sn");
+
+            expectedEntries.add(withoutSn);
+            expectedEntries.add(new Entry(entry.getDN(), entry.getAttribute("sn")));
+        }
+
+        access.compareEntriesStreaming(expectedEntries, MEMORY_BUDGET);
+    }
+
+    private void assertDoesNotMatch(final List<Entry> expectedEntries, final String message) {
+        try {
+            access.compareEntriesStreaming(expectedEntries, MEMORY_BUDGET);
+            fail("differences were not reported");
+        } catch (final AssertionError e) {
+            assertThat(e.getMessage(), containsString(message));
+        }
+    }
+
+}
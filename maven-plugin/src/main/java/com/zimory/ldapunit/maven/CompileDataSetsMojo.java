@@ -0,0 +1,116 @@
+package com.zimory.ldapunit.maven;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldif.LDIFException;
+import com.unboundid.ldif.LDIFReader;
+import com.zimory.ldapunit.core.BinaryDataSetFormat;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Compiles the LDIF data sets into the {@link BinaryDataSetFormat}, placing each compiled data set next to where the
+ * LDIF it was compiled from ends up on the test classpath, so that the {@code LdapWatcher} picks it up instead.
+ */
+@Mojo(name = "compile-datasets", defaultPhase = LifecyclePhase.PROCESS_TEST_RESOURCES, threadSafe = true)
+public final class CompileDataSetsMojo extends AbstractMojo {
+
+    /**
+     * The directory containing the LDIF data sets.
+     */
+    @Parameter(defaultValue = "${basedir}/src/test/resources/ldifs", required = true)
+    private File sourceDirectory;
+
+    /**
+     * The directory to write the compiled data sets to.
+     */
+    @Parameter(defaultValue = "${project.build.testOutputDirectory}/ldifs", required = true)
+    private File outputDirectory;
+
+    @Parameter(property = "ldapunit.skip", defaultValue = "false")
+    private boolean skip;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (skip || !sourceDirectory.isDirectory()) {
+            return;
+        }
+
+        final List<File> ldifs = Lists.newArrayList();
+        collectLdifs(sourceDirectory, ldifs);
+
+        int compiled = 0;
+
+        for (final File ldif : ldifs) {
+            final String relativePath = sourceDirectory.toURI().relativize(ldif.toURI()).getPath();
+            final File target = new File(outputDirectory, relativePath + BinaryDataSetFormat.EXTENSION);
+
+            if (target.lastModified() >= ldif.lastModified()) {
+                continue;
+            }
+
+            try {
+                compile(ldif, target);
+            } catch (final IOException e) {
+                throw new MojoExecutionException("Could not compile " + ldif, e);
+            } catch (final LDIFException e) {
+                throw new MojoExecutionException("Could not parse " + ldif, e);
+            }
+
+            compiled++;
+        }
+
+        getLog().info(String.format("Compiled %d data set(s) to %s", compiled, outputDirectory));
+    }
+
+    private static void collectLdifs(final File dir, final List<File> ldifs) {
+        final File[] files = dir.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                collectLdifs(file, ldifs);
+            } else if ("ldif".equals(Files.getFileExtension(file.getName()))) {
+                ldifs.add(file);
+            }
+        }
+    }
+
+    private static void compile(final File ldif, final File target) throws IOException, LDIFException {
+        final List<Entry> entries = Lists.newArrayList();
+        final LDIFReader reader = new LDIFReader(ldif);
+
+        try {
+            for (Entry entry = reader.readEntry(); entry != null; entry = reader.readEntry()) {
+                entries.add(entry);
+            }
+        } finally {
+            reader.close();
+        }
+
+        Files.createParentDirs(target);
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+
+        try {
+            BinaryDataSetFormat.write(entries, out);
+        } finally {
+            out.close();
+        }
+    }
+
+}
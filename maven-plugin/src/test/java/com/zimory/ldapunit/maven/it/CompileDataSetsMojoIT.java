@@ -0,0 +1,109 @@
+package com.zimory.ldapunit.maven.it;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.unboundid.ldap.sdk.Entry;
+import com.zimory.ldapunit.core.BinaryDataSetFormat;
+import com.zimory.ldapunit.maven.CompileDataSetsMojo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class CompileDataSetsMojoIT {
+
+    private static final String USER = "dn: cn=SomeUser,dc=zimory,dc=com\ncn: SomeUser\nobjectClass: top\n";
+    private static final String OTHER_USER = "dn: cn=OtherUser,dc=zimory,dc=com\ncn: OtherUser\nobjectClass: top\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File ldif;
+    private File compiled;
+    private CompileDataSetsMojo mojo;
+
+    @Before
+    public void setUp() throws Exception {
+        final File sourceDirectory = folder.newFolder("src");
+        final File outputDirectory = folder.newFolder("out");
+
+        ldif = new File(sourceDirectory, "InnerTest/users.ldif");
+        compiled = new File(outputDirectory, "InnerTest/users.ldif" + BinaryDataSetFormat.EXTENSION);
+
+        mojo = new CompileDataSetsMojo();
+        setField("sourceDirectory", sourceDirectory);
+        setField("outputDirectory", outputDirectory);
+    }
+
+    @Test
+    public void compilesLdif() throws Exception {
+        writeLdif(USER + "\n" + OTHER_USER);
+        mojo.execute();
+
+        final List<Entry> entries = readCompiled();
+
+        assertThat(entries.size(), equalTo(2));
+        assertThat(entries.get(1).getDN(), equalTo("cn=OtherUser,dc=zimory,dc=com"));
+    }
+
+    @Test
+    public void skipsUpToDateDataSets() throws Exception {
+        writeLdif(USER);
+        mojo.execute();
+
+        final long lastModified = ldif.lastModified() + 60000;
+        assertThat(compiled.setLastModified(lastModified), equalTo(true));
+
+        mojo.execute();
+
+        assertThat(compiled.lastModified(), equalTo(lastModified));
+        assertThat(readCompiled().size(), equalTo(1));
+    }
+
+    @Test
+    public void recompilesModifiedDataSets() throws Exception {
+        writeLdif(USER);
+        mojo.execute();
+
+        writeLdif(USER + "\n" + OTHER_USER);
+        assertThat(compiled.setLastModified(ldif.lastModified() - 60000), equalTo(true));
+
+        mojo.execute();
+
+        assertThat(readCompiled().size(), equalTo(2));
+    }
+
+    @Test
+    public void skipsEverythingIfToldTo() throws Exception {
+        writeLdif(USER);
+        setField("skip", true);
+
+        mojo.execute();
+
+        assertThat(compiled.exists(), equalTo(false));
+    }
+
+    private void writeLdif(final String contents) throws Exception {
+        Files.createParentDirs(ldif);
+        Files.write(contents, ldif, Charsets.UTF_8);
+    }
+
+    private List<Entry> readCompiled() throws Exception {
+        return BinaryDataSetFormat.read(ByteBuffer.wrap(Files.toByteArray(compiled)));
+    }
+
+    private void setField(final String name, final Object value) throws Exception {
+        final Field field = CompileDataSetsMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+}